@@ -0,0 +1,136 @@
+package com.wgcloud.analysis;
+
+import java.util.*;
+
+/**
+ * 多关键字匹配自动机（Aho-Corasick），一次扫描找出文本中所有关键字出现的位置，耗时只和文本长度有关。
+ * 关键字和文本都按ASCII忽略大小写比较
+ */
+public class AhoCorasick {
+
+    public interface HitListener {
+        /**
+         * @param keyword 命中的关键字下标
+         * @param end     关键字在文本中结束位置（不含）
+         * @return 是否继续扫描
+         */
+        boolean onHit(int keyword, int end);
+    }
+
+    private static final int ROOT = 0;
+
+    /**
+     * 状态转移表，字符超出ASCII范围时回到根状态
+     */
+    private final int[][] next;
+
+    private final int[] fail;
+
+    /**
+     * 每个状态结束的关键字下标
+     */
+    private final int[][] outputs;
+
+    private final int[] keywordLengths;
+
+    public AhoCorasick(List<String> keywords) {
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(newState());
+        out.add(new ArrayList<Integer>());
+        keywordLengths = new int[keywords.size()];
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            keywordLengths[k] = keyword.length();
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                int c = lower(keyword.charAt(i));
+                if (c < 0) {
+                    throw new IllegalArgumentException("关键字只能包含ASCII字符：" + keyword);
+                }
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    out.add(new ArrayList<Integer>());
+                }
+                state = trie.get(state)[c];
+            }
+            out.get(state).add(k);
+        }
+
+        int size = trie.size();
+        next = trie.toArray(new int[size][]);
+        fail = new int[size];
+        //按广度优先补全转移表，失败转移合并到转移表中，扫描时每个字符只查一次表
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 128; c++) {
+            if (next[ROOT][c] < 0) {
+                next[ROOT][c] = ROOT;
+            } else {
+                fail[next[ROOT][c]] = ROOT;
+                queue.add(next[ROOT][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            out.get(state).addAll(out.get(fail[state]));
+            for (int c = 0; c < 128; c++) {
+                int child = next[state][c];
+                if (child < 0) {
+                    next[state][c] = next[fail[state]][c];
+                } else {
+                    fail[child] = next[fail[state]][c];
+                    queue.add(child);
+                }
+            }
+        }
+        outputs = new int[size][];
+        for (int i = 0; i < size; i++) {
+            List<Integer> list = out.get(i);
+            outputs[i] = new int[list.size()];
+            for (int j = 0; j < list.size(); j++) {
+                outputs[i][j] = list.get(j);
+            }
+        }
+    }
+
+    /**
+     * 扫描文本，每命中一个关键字回调一次
+     */
+    public void search(CharSequence text, HitListener listener) {
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            int c = lower(text.charAt(i));
+            if (c < 0) {
+                state = ROOT;
+                continue;
+            }
+            state = next[state][c];
+            for (int keyword : outputs[state]) {
+                if (!listener.onHit(keyword, i + 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getKeywordLength(int keyword) {
+        return keywordLengths[keyword];
+    }
+
+    private static int[] newState() {
+        int[] state = new int[128];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int lower(char c) {
+        if (c >= 128) {
+            return -1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        }
+        return c;
+    }
+}
@@ -2,7 +2,6 @@ package com.wgcloud.analysis;
 
 import com.wgcloud.entity.AlarmInfo;
 import com.wgcloud.mapper.AlarmInfoMapper;
-import com.wgcloud.util.IpLocationUtils;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import org.slf4j.Logger;
@@ -11,23 +10,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
-import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 @Service
 public class AlarmInfoService {
     private static final Logger logger = LoggerFactory.getLogger(AlarmInfoService.class);
     private static final String UNKNOWN_IP = "未知IP";
+    /**
+     * 地理位置由写入时或AlarmLocationTask补全，查询时不再解析
+     */
+    private static final String PENDING_LOCATION = "待解析";
     private final List<String> alarmTypeList = Arrays.asList("SQL注入攻击", "文件上传攻击", "DDos攻击");
 
     @Autowired
     private AlarmInfoMapper alarmInfoMapper;
     @Autowired
-    private IpLocationUtils ipLocationUtils;
+    private AlarmWriteQueue alarmWriteQueue;
 
     /**
      * 分页查询报警信息（修复版）
@@ -44,9 +45,8 @@ public class AlarmInfoService {
                     if (alarm.getIpAddress() == null) {
                         alarm.setIpAddress(UNKNOWN_IP);
                     }
-                    if (alarm.getIpLocation() == null && !UNKNOWN_IP.equals(alarm.getIpAddress())) {
-                        // 对已有IP但无位置信息的进行补充查询
-                        alarm.setIpLocation(ipLocationUtils.getLocation(alarm.getIpAddress()));
+                    if (alarm.getIpLocation() == null) {
+                        alarm.setIpLocation(PENDING_LOCATION);
                     }
                     if (alarm.getAlarmType() == null) {
                         alarm.setAlarmType("未知攻击类型");
@@ -74,7 +74,7 @@ public class AlarmInfoService {
                         alarm.setIpAddress(UNKNOWN_IP);
                     }
                     if (alarm.getIpLocation() == null) {
-                        alarm.setIpLocation(ipLocationUtils.getLocation(alarm.getIpAddress()));
+                        alarm.setIpLocation(PENDING_LOCATION);
                     }
                 }
             }
@@ -100,7 +100,7 @@ public class AlarmInfoService {
                 alarm.setIpAddress(UNKNOWN_IP);
             }
             if (alarm.getIpLocation() == null) {
-                alarm.setIpLocation(ipLocationUtils.getLocation(alarm.getIpAddress()));
+                alarm.setIpLocation(PENDING_LOCATION);
             }
             if (alarm.getAlarmType() == null) {
                 alarm.setAlarmType("未知攻击类型");
@@ -132,7 +132,9 @@ public class AlarmInfoService {
     }
 
     /**
-     * 通用报警存储方法（增强版）
+     * 通用报警存储方法，报警放入写入队列后立即返回，同一时间段内相同类型、相同IP的报警合并后批量入库
+     *
+     * @return 写入队列已满、报警被丢弃时返回false
      */
     public boolean saveSecurityAlert(int alarmTypeIndex,
                                      String requestContent,
@@ -140,31 +142,13 @@ public class AlarmInfoService {
                                      String streamKey) {
         validateAlarmTypeIndex(alarmTypeIndex);
 
-        try {
-            String selectedAlarmType = alarmTypeList.get(alarmTypeIndex);
-            AlarmInfo alarm = buildAlarmInfo(selectedAlarmType,
-                    requestContent,
-                    sourceIp,
-                    streamKey);
-
-            // 验证必要字段
-            if (alarm.getIpAddress() == null) {
-                throw new IllegalArgumentException("IP地址不能为空");
-            }
-            if (alarm.getAlarmType() == null) {
-                throw new IllegalArgumentException("报警类型不能为空");
-            }
-
-            int result = alarmInfoMapper.save(alarm);
-            if (result > 0) {
-                logger.info("成功保存报警信息: {}", alarm);
-                return true;
-            }
-            return false;
-        } catch (Exception e) {
-            logger.error("存储报警信息失败", e);
-            return false;
+        String selectedAlarmType = alarmTypeList.get(alarmTypeIndex);
+        String finalIp = determineIpAddress(sourceIp, streamKey);
+        boolean accepted = alarmWriteQueue.offer(selectedAlarmType, finalIp, requestContent);
+        if (!accepted) {
+            logger.warn("报警写入队列已满，丢弃报警: {} {}", selectedAlarmType, finalIp);
         }
+        return accepted;
     }
 
     /**
@@ -177,35 +161,6 @@ public class AlarmInfoService {
         return alarmInfoMapper.updateBlacklistStatusByIp(params);
     }
 
-    /**
-     * 构建报警信息实体（增强版）
-     */
-    private AlarmInfo buildAlarmInfo(String alarmType,
-                                     String content,
-                                     String sourceIp,
-                                     String streamKey) {
-        AlarmInfo alarm = new AlarmInfo();
-        alarm.setId(generateId());
-        alarm.setAlarmType(alarmType);
-        alarm.setRequestContent(content);
-        alarm.setCreateTime(new Timestamp(System.currentTimeMillis()));
-        alarm.setIsBlacklist(0);  // 默认非黑名单
-
-        String finalIp = determineIpAddress(sourceIp, streamKey);
-        alarm.setIpAddress(finalIp);
-
-        // 确保IP位置信息不为null
-        String location = ipLocationUtils.getLocation(finalIp);
-        alarm.setIpLocation(location != null ? location : "未知位置");
-
-        return alarm;
-    }
-
-    // 以下方法保持不变...
-    private String generateId() {
-        return UUID.randomUUID().toString().replace("-", "");
-    }
-
     private String determineIpAddress(String sourceIp, String streamKey) {
         if (StringUtils.hasText(sourceIp)) {
             return sourceIp;
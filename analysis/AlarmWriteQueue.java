@@ -0,0 +1,267 @@
+package com.wgcloud.analysis;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.entity.AlarmInfo;
+import com.wgcloud.mapper.AlarmInfoMapper;
+import com.wgcloud.service.IpBlacklistService;
+import com.wgcloud.util.IpLocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 报警写入队列，检测线程只把报警放入内存立即返回，由定时任务批量入库。
+ * 同一报警类型、同一IP在一个时间段内的报警合并为一条，记录合并次数，攻击爆发时每分钟只写入少量记录
+ */
+@Component
+public class AlarmWriteQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(AlarmWriteQueue.class);
+
+    /**
+     * REQUEST_CONTENT为TEXT类型，最多65535字节，按每个字符最多4字节截断，超长时严格模式的MySQL会拒绝整条insert
+     */
+    private static final int MAX_REQUEST_CONTENT = 16000;
+
+    /**
+     * 单条报警最多入库次数，超过后丢弃，避免始终失败的报警一直占用队列
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Autowired
+    private AlarmInfoMapper alarmInfoMapper;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    @Autowired
+    private IpBlacklistService ipBlacklistService;
+
+    /**
+     * key为报警类型、IP和时间段
+     */
+    private final ConcurrentHashMap<String, AlarmInfo> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 入库失败过的报警已失败的次数，key为报警ID，只在flush内访问
+     */
+    private final Map<String, Integer> attempts = new HashMap<>();
+
+    private final AtomicLong offeredCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+
+    /**
+     * 放入一条报警，与同一时间段内已有的相同报警合并
+     *
+     * @return 队列已满、报警被丢弃时返回false
+     */
+    public boolean offer(String alarmType, String ipAddress, String requestContent) {
+        offeredCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long bucketMillis = commonConfig.getAlarmBucketSeconds() * 1000L;
+        long bucket = now / bucketMillis;
+        String key = key(alarmType, ipAddress, bucket);
+        AlarmInfo alarm = pending.get(key);
+        if (alarm == null && pending.size() >= commonConfig.getAlarmQueueSize()) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        pending.compute(key, (k, existing) -> {
+            if (existing != null) {
+                existing.setOccurCount(existing.getOccurCount() + 1);
+                coalescedCount.incrementAndGet();
+                return existing;
+            }
+            AlarmInfo created = new AlarmInfo(alarmType, ipAddress);
+            created.setRequestContent(truncate(requestContent));
+            //黑名单在内存中查询，来源在黑名单中的报警直接标记
+            created.setIsBlacklist(ipBlacklistService.contains(ipAddress) ? 1 : 0);
+            //创建时间取时间段开始时间，同一时间段的报警只有一条记录
+            created.setCreateTime(new Timestamp(bucket * bucketMillis));
+            return created;
+        });
+        return true;
+    }
+
+    /**
+     * 每5秒把已结束时间段的合并报警批量入库
+     */
+    @Scheduled(initialDelay = 30000L, fixedDelay = 5000L)
+    public void flushTask() {
+        long bucketMillis = commonConfig.getAlarmBucketSeconds() * 1000L;
+        long currentBucketStart = System.currentTimeMillis() / bucketMillis * bucketMillis;
+        flush(currentBucketStart);
+    }
+
+    /**
+     * 停止服务前把所有未入库的报警入库
+     */
+    @PreDestroy
+    public void destroy() {
+        flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * 写入创建时间早于before的报警，IP地理位置在这里按IP只查询一次并随报警一起入库。
+     * IP地址库未加载时地理位置留空，由AlarmLocationTask在地址库可用后补全
+     */
+    private synchronized void flush(long before) {
+        List<AlarmInfo> alarms = new ArrayList<>();
+        Iterator<Map.Entry<String, AlarmInfo>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AlarmInfo> entry = it.next();
+            if (entry.getValue().getCreateTime().getTime() < before) {
+                AlarmInfo alarm = pending.remove(entry.getKey());
+                if (alarm != null) {
+                    alarms.add(alarm);
+                }
+            }
+        }
+        if (alarms.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if (IpLocationUtils.isLoaded()) {
+            Map<String, String> locations = new HashMap<>();
+            for (AlarmInfo alarm : alarms) {
+                alarm.setIpLocation(locations.computeIfAbsent(alarm.getIpAddress(), IpLocationUtils::getLocation));
+            }
+        }
+        int chunkSize = Math.max(1, commonConfig.getFlushChunkSize());
+        for (int i = 0; i < alarms.size(); i += chunkSize) {
+            List<AlarmInfo> chunk = alarms.subList(i, Math.min(alarms.size(), i + chunkSize));
+            try {
+                alarmInfoMapper.insertCoalescedList(chunk);
+                writtenRows.addAndGet(chunk.size());
+                written(chunk);
+            } catch (Exception e) {
+                if (chunk.size() == 1) {
+                    retryLater(chunk.get(0), e);
+                    continue;
+                }
+                //一条报警出错会导致整批失败，逐条重新写入，找出出错的报警
+                logger.warn("批量保存报警信息错误，逐条重新保存：" + e);
+                for (AlarmInfo alarm : chunk) {
+                    try {
+                        alarmInfoMapper.insertCoalescedList(Collections.singletonList(alarm));
+                        writtenRows.incrementAndGet();
+                        written(Collections.singletonList(alarm));
+                    } catch (Exception ex) {
+                        retryLater(alarm, ex);
+                    }
+                }
+            }
+        }
+        long millis = System.currentTimeMillis() - start;
+        long max = maxFlushMillis.get();
+        while (max < millis && !maxFlushMillis.compareAndSet(max, millis)) {
+            max = maxFlushMillis.get();
+        }
+        logger.info("保存报警信息{}条，耗时{}ms", alarms.size(), millis);
+    }
+
+    private void written(List<AlarmInfo> alarms) {
+        if (attempts.isEmpty()) {
+            return;
+        }
+        for (AlarmInfo alarm : alarms) {
+            attempts.remove(alarm.getId());
+        }
+    }
+
+    /**
+     * 入库失败的报警放回队列下次重试，与期间新增的相同报警合并；失败次数达到上限或队列已满时丢弃
+     */
+    private void retryLater(AlarmInfo alarm, Exception e) {
+        int failed = attempts.merge(alarm.getId(), 1, Integer::sum);
+        if (failed >= MAX_ATTEMPTS) {
+            attempts.remove(alarm.getId());
+            failedRows.incrementAndGet();
+            logger.error("保存报警信息失败" + failed + "次，已丢弃：" + alarm.getAlarmType() + "，" + alarm.getIpAddress(), e);
+            return;
+        }
+        logger.warn("保存报警信息错误，放回队列下次重试：" + alarm.getAlarmType() + "，" + alarm.getIpAddress() + "，" + e);
+        long bucketMillis = commonConfig.getAlarmBucketSeconds() * 1000L;
+        String key = key(alarm.getAlarmType(), alarm.getIpAddress(), alarm.getCreateTime().getTime() / bucketMillis);
+        if (!pending.containsKey(key) && pending.size() >= commonConfig.getAlarmQueueSize()) {
+            attempts.remove(alarm.getId());
+            droppedCount.incrementAndGet();
+            return;
+        }
+        AlarmInfo merged = pending.merge(key, alarm, (existing, retry) -> {
+            existing.setOccurCount(existing.getOccurCount() + retry.getOccurCount());
+            return existing;
+        });
+        if (merged != alarm) {
+            //已合并到新的报警，按新的报警重新计数
+            attempts.remove(alarm.getId());
+        }
+    }
+
+    private static String truncate(String requestContent) {
+        if (requestContent == null || requestContent.length() <= MAX_REQUEST_CONTENT) {
+            return requestContent;
+        }
+        int end = MAX_REQUEST_CONTENT;
+        if (Character.isHighSurrogate(requestContent.charAt(end - 1))) {
+            end--;
+        }
+        return requestContent.substring(0, end);
+    }
+
+    private static String key(String alarmType, String ipAddress, long bucket) {
+        return alarmType + "|" + ipAddress + "|" + bucket;
+    }
+
+    /**
+     * 每10分钟打印一次队列状态
+     */
+    @Scheduled(initialDelay = 60000L, fixedRate = 10 * 60 * 1000)
+    public void statTask() {
+        logger.info("报警写入队列状态----------" + this);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getOfferedCount() {
+        return offeredCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    public long getFailedRows() {
+        return failedRows.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AlarmWriteQueue[pending=" + pending.size() + ", offered=" + offeredCount.get()
+                + ", coalesced=" + coalescedCount.get() + ", dropped=" + droppedCount.get()
+                + ", written=" + writtenRows.get() + ", failed=" + failedRows.get()
+                + ", maxFlush=" + maxFlushMillis.get() + "ms]";
+    }
+}
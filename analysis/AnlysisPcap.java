@@ -1,26 +1,62 @@
 package com.wgcloud.analysis;
 
+import com.wgcloud.config.CommonConfig;
 import org.pcap4j.core.*;
 import org.pcap4j.packet.*;
-import org.pcap4j.packet.namednumber.TcpPort;
-import org.pcap4j.packet.namednumber.UdpPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.EOFException;
 import java.util.*;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 @Component
 public class AnlysisPcap {
 
-    @Autowired
-    SqlInjectionAnalysis sqlInjectionAnalysis;
+    private static final Logger logger = LoggerFactory.getLogger(AnlysisPcap.class);
 
+    /**
+     * 所有注册为Spring bean的检测器
+     */
     @Autowired
-    private FileUploadAnalysis fileUploadAnalysis;
+    private List<TrafficDetector> detectors;
 
     @Autowired
-    private DdosAnalysis ddosAnalysis;
+    private CommonConfig commonConfig;
+
+    /**
+     * 检测器工作线程，每个pcap文件的每个检测器占用一个线程，文件分析完毕后线程归还
+     */
+    private final ExecutorService detectorExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new ThreadFactory() {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pcap-detector-" + seq.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 各检测器的累计指标，key为检测器名称
+     */
+    private final Map<String, DetectorMetrics> detectorMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * 需要做TCP流重组、按HTTP请求检测的协议
+     */
+    private static final List<String> HTTP_PROTOCOLS = Arrays.asList("HTTP", "HTTPS");
+
+    /**
+     * 没有配置目标IP，不按目标IP过滤
+     */
+    private static final long NO_TARGET = -1L;
     private static final Map<String, ProtocolFilter> PROTOCOL_FILTER_MAP = new HashMap<>();
 
     static {
@@ -70,167 +106,131 @@ public class AnlysisPcap {
 //        uploadAttackCheck(pcapFilePath,targetIp);
 //    }
     public void analyzePcapFile(String pcapFilePath) {
-        String targetIp = "192.168.1.1";
-        uploadAttackCheck(pcapFilePath, targetIp);
-        sqlInjectionCheck(pcapFilePath, targetIp);
-        ddosAttackCheck(pcapFilePath, targetIp);
-    }
-
-
-    //单独提一个函数出来，方便查看逻辑
-    private void sqlInjectionCheck(String pcapFilePath, String targetIp){
-        List<String> sqlProtocolsFilter = Arrays.asList("HTTP","HTTPS");
-        Map<String,StringBuilder> sqlInjectionFilterPackets = analyzePcap(pcapFilePath,sqlProtocolsFilter,targetIp); //通过过滤了HTTP和HTTPS协议，筛选出所有可能具有SQL注入攻击的请求包
-        this.sqlInjectionAnalysis.analyzeAndSaveSqlInjection(sqlInjectionFilterPackets);
+        analyzePcapFile(pcapFilePath, "unknown");
     }
 
-    //文件上传检测函数
-    private void uploadAttackCheck(String pcapFilePath, String targetIp) {
-        List<String> uploadProtocolsFilter = Arrays.asList("HTTP", "HTTPS");
-        Map<String, StringBuilder> uploadFilterPackets = analyzePcap(pcapFilePath, uploadProtocolsFilter, targetIp);
-        this.fileUploadAnalysis.analyzeAndSaveUploadAttack(uploadFilterPackets);
-    }
-
-    // DDoS 攻击检测函数
-    private void ddosAttackCheck(String pcapFilePath, String targetIp) {
-        Map<String, List<Long>> tcpTraffic = collectTrafficData(pcapFilePath, "TCP", targetIp);
-        Map<String, List<Long>> udpTraffic = collectTrafficData(pcapFilePath, "UDP", targetIp);
-        ddosAnalysis.analyzeAndSaveDdosAlert(tcpTraffic, "TCP");
-        ddosAnalysis.analyzeAndSaveDdosAlert(udpTraffic, "UDP");
+    /**
+     * 分析agent上传的pcap文件，同一agent连续上传的文件共用DDoS检测的滑动窗口
+     *
+     * @param pcapFilePath pcap 文件路径
+     * @param agent        上传文件的agent标识
+     */
+    public void analyzePcapFile(String pcapFilePath, String agent) {
+        runPipeline(pcapFilePath, commonConfig.getPcapTargetIp(), agent, detectors);
     }
 
     /**
-     * 收集流量数据（按流分组，记录时间戳）
+     * 单次读取pcap文件，每个数据包只解码一次，分发给各检测器处理；
+     * HTTP/HTTPS流量同时做TCP流重组，每切分出一个完整请求分发给各检测器
+     *
+     * @param pcapFilePath pcap 文件路径
+     * @param targetIp     目标IP地址，只分析发往该IP的流量包
+     * @param agent        上传文件的agent标识
+     * @param detectors    检测器
      */
-    private static Map<String, List<Long>> collectTrafficData(String pcapFilePath, String protocol, String targetIp) {
-        Map<String, List<Long>> trafficData = new HashMap<>(128); // 预设初始容量
-
-        try (PcapHandle handle = Pcaps.openOffline(pcapFilePath)) { // 使用try-with-resources自动关闭
-            final boolean filterTcp = "TCP".equals(protocol);
-            final boolean filterUdp = "UDP".equals(protocol);
-            final boolean filterIp = targetIp != null;
+    public void runPipeline(String pcapFilePath, String targetIp, String agent, List<TrafficDetector> detectors) {
+        List<ProtocolFilter> httpFilters = getProtocolFilters(HTTP_PROTOCOLS);
+        long target = parseTargetIp(targetIp);
+        DetectorFanout fanout = new DetectorFanout(detectors, agent, detectorMetrics,
+                commonConfig.getDetectorParallel() ? detectorExecutor : null, commonConfig.getDetectorQueueBatches());
+        TcpReassembler reassembler = new TcpReassembler(commonConfig.getReassemblyStreamMaxBytes(),
+                commonConfig.getReassemblyMaxBytes(), commonConfig.getReassemblyIdleTimeout(), fanout::onStreamComplete);
+        try (PcapHandle handle = Pcaps.openOffline(pcapFilePath)) {
+            while (true) {
+                Packet packet;
+                try {
+                    packet = handle.getNextPacketEx();
+                } catch (TimeoutException e) {
+                    continue;
+                } catch (EOFException e) {
+                    break; // 文件读取完毕
+                }
 
-            Packet packet;
-            while ((packet = handle.getNextPacketEx()) != null) {
                 IpV4Packet ipv4Packet = packet.get(IpV4Packet.class);
                 if (ipv4Packet == null) continue;
 
-                // 优化IP过滤逻辑
-                if (filterIp && !targetIp.equals(ipv4Packet.getHeader().getDstAddr().getHostAddress())) {
+                // 如果指定了目标IP，且目标IP不匹配，则跳过（按int比较，不转换字符串）
+                int dstIp = FlowKey.ipv4ToInt(ipv4Packet.getHeader().getDstAddr());
+                if (target != NO_TARGET && target != (dstIp & 0xFFFFFFFFL)) {
                     continue;
                 }
 
                 TransportPacket transportPacket = getTransportPacket(packet);
                 if (transportPacket == null) continue;
 
-                // 优化协议过滤逻辑
-                if ((filterTcp && !(transportPacket instanceof TcpPacket)) ||
-                        (filterUdp && !(transportPacket instanceof UdpPacket))) {
-                    continue;
+                PacketRecord record = new PacketRecord(ipv4Packet, transportPacket, handle.getTimestamp().getTime(), dstIp);
+                fanout.onPacket(record);
+                if (matchesAnyProtocol(record, httpFilters)) {
+                    reassembler.onPacket(record);
                 }
-
-                // 优化流标识构建和时间戳记录
-                String streamKey = buildStreamKey(ipv4Packet, transportPacket);
-                trafficData.computeIfAbsent(streamKey, k -> new ArrayList<>(16)) // 预设初始容量
-                        .add(System.currentTimeMillis());
             }
-        } catch (PcapNativeException e) {
-            System.err.println("PCAP本地错误: " + e.getMessage());
-        } catch (EOFException e) {
-            // 正常结束pcap文件的读取，免得报错
-        } catch (Exception e) {
-            System.err.println("解析数据包错误: " + e.getMessage());
+        } catch (PcapNativeException | NotOpenException e) {
+            logger.error("解析pcap文件错误: " + pcapFilePath, e);
         }
-
-        return trafficData;
+        reassembler.finish();
+        logger.debug("pcap文件流重组完成: " + pcapFilePath + ", " + reassembler);
+        fanout.finish();
     }
 
     /**
-     * 分析 pcap 文件并返回过滤后的流量包内容
-     *
-     * @param pcapFilePath pcap 文件路径
-     * @param protocols    需要过滤的协议列表
-     * @param targetIp     目标IP地址，只显示向该IP发送的请求的流量包
-     * @return 过滤后的流量包内容（按流分组）
+     * 每10分钟打印一次各检测器的指标
      */
-    public static Map<String, StringBuilder> analyzePcap(String pcapFilePath, List<String> protocols, String targetIp) {
-        try {
-            PcapHandle handle = Pcaps.openOffline(pcapFilePath);
-            Map<String, StringBuilder> streamData = filterPacketsByProtocol(handle, protocols, targetIp);
-            handle.close();
-            return streamData;
-        } catch (PcapNativeException e) {
-            e.printStackTrace();
-            return Collections.emptyMap(); // 返回空结果
+    @Scheduled(initialDelay = 60000L, fixedRate = 10 * 60 * 1000)
+    public void statTask() {
+        for (DetectorMetrics metrics : detectorMetrics.values()) {
+            logger.info("检测器状态----------" + metrics);
         }
     }
 
-    /**
-     * 根据协议过滤流量包，并返回过滤后的内容
-     *
-     * @param handle    PcapHandle 对象
-     * @param protocols 需要过滤的协议列表
-     * @param targetIp  目标IP地址，只显示向该IP发送的请求的流量包
-     * @return 过滤后的流量包内容（按流分组）
-     */
-    private static Map<String, StringBuilder> filterPacketsByProtocol(PcapHandle handle, List<String> protocols, String targetIp) {
-        Map<String, StringBuilder> streamData = new HashMap<>();
-        List<ProtocolFilter> filters = getProtocolFilters(protocols);
-
-        while (true) {
-            try {
-                Packet packet = handle.getNextPacketEx();
-                if (!matchesAnyProtocol(packet, filters)) continue;
-
-                // 获取网络层信息
-                IpV4Packet ipv4Packet = packet.get(IpV4Packet.class);
-                if (ipv4Packet == null) continue;
-
-                // 如果指定了目标IP，且目标IP不匹配，则跳过
-                if (targetIp != null && !targetIp.equals(ipv4Packet.getHeader().getDstAddr().getHostAddress())) {
-                    continue;
-                }
-
-                TransportPacket transportPacket = getTransportPacket(packet);
-                if (transportPacket == null) continue;
+    public Collection<DetectorMetrics> getDetectorMetrics() {
+        return detectorMetrics.values();
+    }
 
-                // 构建流标识
-                String streamKey = buildStreamKey(ipv4Packet, transportPacket);
+    @PreDestroy
+    public void destroy() {
+        detectorExecutor.shutdownNow();
+    }
 
-                // 提取负载数据
-                byte[] payload = getPayload(transportPacket);
-                if (payload != null && payload.length > 0) {
-                    streamData.computeIfAbsent(streamKey, k -> new StringBuilder())
-                            .append(new String(payload));
+    /**
+     * 目标IP转换为无符号整数，为空时返回NO_TARGET不过滤，不是IPv4地址时返回的值不会匹配任何数据包
+     */
+    private static long parseTargetIp(String targetIp) {
+        if (targetIp == null || targetIp.isEmpty()) {
+            return NO_TARGET;
+        }
+        String[] parts = targetIp.trim().split("\\.");
+        long ip = 0;
+        try {
+            if (parts.length != 4) {
+                throw new NumberFormatException(targetIp);
+            }
+            for (String part : parts) {
+                int value = Integer.parseInt(part);
+                if (value < 0 || value > 255) {
+                    throw new NumberFormatException(targetIp);
                 }
-
-            } catch (TimeoutException e) {
-                e.printStackTrace();
-            } catch (EOFException e) {
-                break; // 文件读取完毕
-            } catch (NotOpenException e) {
-                throw new RuntimeException(e);
-            } catch (PcapNativeException e) {
-                throw new RuntimeException(e);
+                ip = (ip << 8) | value;
             }
+        } catch (NumberFormatException e) {
+            logger.warn("目标IP不是IPv4地址: " + targetIp);
+            return Long.MAX_VALUE;
         }
-
-        return streamData;
+        return ip;
     }
 
-    private static boolean matchesAnyProtocol(Packet packet, List<ProtocolFilter> filters) {
+    static boolean matchesAnyProtocol(PacketRecord record, List<ProtocolFilter> filters) {
         for (ProtocolFilter filter : filters) {
-            if (filter.matches(packet)) return true;
+            if (filter.matches(record)) return true;
         }
         return false;
     }
 
-    private static List<ProtocolFilter> getProtocolFilters(List<String> protocolNames) {
+    static List<ProtocolFilter> getProtocolFilters(List<String> protocolNames) {
         List<ProtocolFilter> filters = new ArrayList<>();
         for (String name : protocolNames) {
             ProtocolFilter filter = PROTOCOL_FILTER_MAP.get(name.toUpperCase());
             if (filter != null) filters.add(filter);
-            else System.err.println("Unknown protocol: " + name);
+            else logger.warn("Unknown protocol: " + name);
         }
         return filters;
     }
@@ -244,53 +244,21 @@ public class AnlysisPcap {
         return null;
     }
 
-    private static String buildStreamKey(IpV4Packet ipv4Packet, TransportPacket transportPacket) {
-        String srcIp = ipv4Packet.getHeader().getSrcAddr().getHostAddress();
-        String dstIp = ipv4Packet.getHeader().getDstAddr().getHostAddress();
-        int srcPort = getPort(transportPacket, true);
-        int dstPort = getPort(transportPacket, false);
-        return String.format("%s:%d -> %s:%d (%s)",
-                srcIp, srcPort, dstIp, dstPort, transportPacket.getClass().getSimpleName());
-    }
-
-    private static int getPort(TransportPacket transportPacket, boolean isSrc) {
-        if (transportPacket instanceof TcpPacket) {
-            TcpPacket tcp = (TcpPacket) transportPacket;
-            return isSrc ? tcp.getHeader().getSrcPort().valueAsInt()
-                    : tcp.getHeader().getDstPort().valueAsInt();
-        } else if (transportPacket instanceof UdpPacket) {
-            UdpPacket udp = (UdpPacket) transportPacket;
-            return isSrc ? udp.getHeader().getSrcPort().valueAsInt()
-                    : udp.getHeader().getDstPort().valueAsInt();
-        }
-        return -1;
-    }
-
-    private static byte[] getPayload(TransportPacket transportPacket) {
-        if (transportPacket.getPayload() != null) {
-            return transportPacket.getPayload().getRawData();
-        }
-        return null;
-    }
-
     static class ProtocolFilter {
-        private final Class<? extends Packet> transportLayerClass;
+        private final Class<? extends TransportPacket> transportLayerClass;
         private final List<Integer> ports;
 
-        public ProtocolFilter(Class<? extends Packet> transportLayerClass, List<Integer> ports) {
+        public ProtocolFilter(Class<? extends TransportPacket> transportLayerClass, List<Integer> ports) {
             this.transportLayerClass = transportLayerClass;
             this.ports = ports;
         }
 
-        public boolean matches(Packet packet) {
-            if (!packet.contains(transportLayerClass)) return false;
+        public boolean matches(PacketRecord record) {
+            if (!transportLayerClass.isInstance(record.getTransportPacket())) return false;
 
             if (ports == null || ports.isEmpty()) return true;
 
-            TransportPacket tp = (TransportPacket) packet.get(transportLayerClass);
-            int srcPort = getPort(tp, true);
-            int dstPort = getPort(tp, false);
-            return ports.contains(srcPort) || ports.contains(dstPort);
+            return ports.contains(record.getSrcPort()) || ports.contains(record.getDstPort());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.wgcloud.analysis;
+
+/**
+ * 按滑动窗口统计频次的Count-Min Sketch，窗口分成若干桶，每个桶一张depth×width的计数表，
+ * 内存固定为buckets×depth×width个int，与key的数量无关。估计值只会偏大，不会偏小；
+ * 计数时采用保守更新，只增加当前最小的计数，减小哈希冲突带来的偏差
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final int buckets;
+    private final long bucketMillis;
+
+    /**
+     * 按[桶][行][列]展开的计数表
+     */
+    private final int[] counts;
+
+    /**
+     * 每个桶当前对应的时间段，-1表示未使用
+     */
+    private final long[] bucketIds;
+
+    private final int[] indexes;
+
+    /**
+     * @param windowMillis 窗口长度，单位：ms
+     * @param buckets      窗口分桶数
+     * @param depth        哈希函数个数
+     * @param width        每行计数器个数，会向上取整为2的幂
+     */
+    public CountMinSketch(long windowMillis, int buckets, int depth, int width) {
+        this.buckets = Math.max(1, buckets);
+        this.bucketMillis = Math.max(1, windowMillis / this.buckets);
+        this.depth = Math.max(1, depth);
+        this.width = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.counts = new int[this.buckets * this.depth * this.width];
+        this.bucketIds = new long[this.buckets];
+        this.indexes = new int[this.depth];
+        for (int i = 0; i < this.buckets; i++) {
+            bucketIds[i] = -1;
+        }
+    }
+
+    /**
+     * 计数加1
+     *
+     * @return 加1后key在窗口内的估计计数，数据包早于窗口时返回-1
+     */
+    public long increment(long key, long timestamp) {
+        long bucketId = Math.floorDiv(timestamp, bucketMillis);
+        int bucket = (int) Math.floorMod(bucketId, (long) buckets);
+        if (bucketIds[bucket] != bucketId) {
+            if (bucketIds[bucket] > bucketId) {
+                return -1;
+            }
+            //桶对应的时间段已滑出窗口，清空后复用
+            int from = bucket * depth * width;
+            for (int i = from; i < from + depth * width; i++) {
+                counts[i] = 0;
+            }
+            bucketIds[bucket] = bucketId;
+        }
+        long minWindow = Long.MAX_VALUE;
+        int minCurrent = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int column = index(key, row);
+            indexes[row] = column;
+            minCurrent = Math.min(minCurrent, counts[(bucket * depth + row) * width + column]);
+        }
+        for (int row = 0; row < depth; row++) {
+            int index = (bucket * depth + row) * width + indexes[row];
+            if (counts[index] == minCurrent && minCurrent < Integer.MAX_VALUE) {
+                counts[index]++;
+            }
+            minWindow = Math.min(minWindow, rowSum(row, indexes[row], bucketId));
+        }
+        return minWindow;
+    }
+
+    /**
+     * key在窗口内的估计计数
+     */
+    public long estimate(long key, long timestamp) {
+        long bucketId = Math.floorDiv(timestamp, bucketMillis);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, rowSum(row, index(key, row), bucketId));
+        }
+        return min;
+    }
+
+    /**
+     * 占用的内存字节数
+     */
+    public long memoryBytes() {
+        return counts.length * 4L + bucketIds.length * 8L;
+    }
+
+    private long rowSum(int row, int column, long currentBucketId) {
+        long sum = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            long id = bucketIds[bucket];
+            if (id > currentBucketId - buckets && id <= currentBucketId) {
+                sum += counts[(bucket * depth + row) * width + column];
+            }
+        }
+        return sum;
+    }
+
+    private int index(long key, int row) {
+        long h = (key + row * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return (int) h & (width - 1);
+    }
+}
@@ -1,116 +1,236 @@
 package com.wgcloud.analysis;
 
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.dto.TopTalker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
-public class DdosAnalysis {
+public class DdosAnalysis implements TrafficDetector {
 
     @Autowired
     private AlarmInfoService alarmStorageService;
 
-    // DDoS 检测参数（可配置化）
-    private static final int TIME_WINDOW_SECONDS = 10; // 检测时间窗口（秒）
-    private static final int SYN_THRESHOLD = 1000;     // SYN包阈值（10秒内超过1000次）
-    private static final int UDP_THRESHOLD = 5000;     // UDP包阈值（10秒内超过5000次）
-    private static final int REQUEST_THRESHOLD = 100;  // 单IP请求阈值（10秒内超过100次）
+    @Autowired
+    private CommonConfig commonConfig;
 
-    // 文件上传请求标识（新增）
-    private static final Pattern FILE_UPLOAD_INDICATORS = Pattern.compile(
-            "(?i)(Content-Type:\\s*multipart/form-data|filename\\s*=\\s*\"[^\"]+\\.\\w+\")");
+    /**
+     * agent不再上传文件后保留滑动窗口状态的时间
+     */
+    private static final long STATE_EXPIRE_MILLIS = 30 * 60 * 1000L;
 
     /**
-     * 分析流量数据，检测 DDoS 攻击
+     * 流量最大源IP的统计周期（按抓包时间）
      */
-    public void analyzeAndSaveDdosAlert(Map<String, List<Long>> trafficData, String protocolType) {
-        Map<String, Integer> sourceIpCounts = new HashMap<>();
-        int totalPackets = 0;
-
-        // 统计每个源IP的请求次数（排除文件上传）
-        for (Map.Entry<String, List<Long>> entry : trafficData.entrySet()) {
-            String streamKey = entry.getKey();
-            String payload = extractPayloadFromStreamKey(streamKey); // 假设可以从streamKey获取payload
-
-            // 排除文件上传请求（新增）
-            if (isFileUploadRequest(payload)) {
-                continue;
+    private static final long TOP_TALKER_PERIOD_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * 每个agent最多记录的已报警源IP+目标端口数，用于避免重复报警
+     */
+    private static final int MAX_ALERTED_SOURCES = 4096;
+
+    /**
+     * 每个agent的滑动窗口状态，同一agent连续上传的文件按抓包时间接续统计，跨文件的攻击也能检测到
+     */
+    private final Map<String, RateState> agentStates = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return "DDoS检测";
+    }
+
+    /**
+     * 创建单个pcap文件的检测阶段，按抓包时间统计滑动窗口内的SYN包和UDP包，超过阈值的报警在文件读取完毕后统一保存
+     *
+     * @param agent 上传文件的agent标识
+     */
+    @Override
+    public DetectorStage newStage(String agent) {
+        final RateState state = agentStates.computeIfAbsent(agent, k -> new RateState(
+                commonConfig.getDdosWindowSeconds() * 1000L, commonConfig.getDdosWindowBuckets(),
+                commonConfig.getDdosSketchWidth(), commonConfig.getTopTalkerCapacity()));
+        final List<Alert> alerts = new ArrayList<>();
+        return new DetectorStage() {
+            @Override
+            public boolean onPacket(PacketRecord record) {
+                //同一agent的多个文件可能被不同分析线程同时处理
+                synchronized (state) {
+                    state.lastUsed = System.currentTimeMillis();
+                    countTalker(state, record);
+                    boolean udp = record.isUdp();
+                    if (udp || record.isSyn()) {
+                        int before = alerts.size();
+                        countPacket(state, record, udp, alerts);
+                        return alerts.size() > before;
+                    }
+                    return false;
+                }
+            }
+
+            @Override
+            public void onWindowClose() {
+                for (Alert alert : alerts) {
+                    alarmStorageService.saveSecurityAlert(alert.alarmTypeIndex, alert.content, alert.sourceIp, alert.streamKey);
+                }
             }
+        };
+    }
 
-            String sourceIp = extractIpFromStream(streamKey);
-            sourceIpCounts.put(sourceIp, sourceIpCounts.getOrDefault(sourceIp, 0) + 1);
-            totalPackets++;
+    /**
+     * 分别按（源IP，目标端口）和目标端口计数，计数超过阈值时生成报警，计数回落到阈值一半以下后才会再次报警
+     */
+    private void countPacket(RateState state, PacketRecord record, boolean udp, List<Alert> alerts) {
+        int dstPort = record.getDstPort();
+        long portKey = ((long) dstPort << 1) | (udp ? 1 : 0);
+        long sourceKey = ((record.getSrcAddrAsInt() & 0xFFFFFFFFL) << 17) | portKey;
+        long timestamp = record.getTimestamp();
+        String protocolType = udp ? "UDP" : "TCP";
+        int windowSeconds = commonConfig.getDdosWindowSeconds();
+
+        long sourceCount = state.sources.increment(sourceKey, timestamp);
+        if (checkSourceThreshold(state, sourceKey, sourceCount, commonConfig.getDdosSourceThreshold())) {
+            String sourceIp = FlowKey.ipv4ToString(record.getSrcAddrAsInt());
+            alerts.add(new Alert(1,
+                    String.format("[高频请求] 源IP %s 在 %d 秒内向端口 %d 发送 %d 个 %s 包",
+                            sourceIp, windowSeconds, dstPort, sourceCount, udp ? "UDP" : "SYN"),
+                    sourceIp,
+                    "协议类型: " + protocolType + ", 目标端口: " + dstPort));
         }
 
-        // 检测高频请求攻击（单IP）
-        detectHighFrequencyAttacks(sourceIpCounts, protocolType);
+        long portCount = state.ports.increment(portKey, timestamp);
+        long floodThreshold = udp ? commonConfig.getDdosUdpThreshold() : commonConfig.getDdosSynThreshold();
+        if (state.ports.checkThreshold(portKey, portCount, floodThreshold)) {
+            alerts.add(new Alert(2,
+                    String.format("[%s Flood] 在 %d 秒内检测到发往端口 %d 的 %d 个 %s 包",
+                            udp ? "UDP" : "SYN", windowSeconds, dstPort, portCount, udp ? "UDP" : "SYN"),
+                    "N/A",
+                    "协议类型: " + protocolType + ", 目标端口: " + dstPort));
+        }
+    }
 
-        // 检测 SYN/UDP Flood（总包数）
-        detectFloodAttacks(totalPackets, protocolType);
+    /**
+     * 按源IP统计字节数，统计周期结束时保存上一周期的结果
+     */
+    private void countTalker(RateState state, PacketRecord record) {
+        long period = Math.floorDiv(record.getTimestamp(), TOP_TALKER_PERIOD_MILLIS);
+        if (period > state.talkerPeriod) {
+            if (state.talkerPeriod >= 0) {
+                state.previousTalkers = toTopTalkers(state.talkers.top(state.talkers.size()));
+            }
+            state.talkers.clear();
+            state.talkerPeriod = period;
+        }
+        state.talkers.add(record.getSrcAddrAsInt() & 0xFFFFFFFFL, record.getLength());
     }
 
     /**
-     * 检测高频请求攻击（重构为独立方法）
+     * Count-Min Sketch只能估计计数，报警状态另外记录在固定大小的LRU表中，计数回落到阈值一半以下后才会再次报警
      */
-    private void detectHighFrequencyAttacks(Map<String, Integer> sourceIpCounts, String protocolType) {
-        sourceIpCounts.entrySet().stream()
-                .filter(entry -> entry.getValue() > REQUEST_THRESHOLD)
-                .forEach(entry -> {
-                    alarmStorageService.saveSecurityAlert(
-                            1,
-                            String.format("[高频请求] 源IP %s 在 %d 秒内发送 %d 次请求（非文件上传）",
-                                    entry.getKey(), TIME_WINDOW_SECONDS, entry.getValue()),
-                            entry.getKey(),
-                            "协议类型: " + protocolType
-                    );
-                });
+    private boolean checkSourceThreshold(RateState state, long sourceKey, long count, long threshold) {
+        if (count > threshold) {
+            return state.alertedSources.put(sourceKey, Boolean.TRUE) == null;
+        }
+        if (count < threshold / 2 && !state.alertedSources.isEmpty()) {
+            state.alertedSources.remove(sourceKey);
+        }
+        return false;
     }
 
     /**
-     * 检测Flood攻击（重构为独立方法）
+     * 发往agent所在主机流量最大的源IP，返回当前统计周期的结果，当前周期还没有数据时返回上一周期的结果
+     *
+     * @param agent agent标识（主机IP）
+     * @param limit 返回的最大条数
      */
-    private void detectFloodAttacks(int totalPackets, String protocolType) {
-        if ("TCP".equals(protocolType) && totalPackets > SYN_THRESHOLD) {
-            alarmStorageService.saveSecurityAlert(
-                    2,
-                    String.format("[SYN Flood] 在 %d 秒内检测到 %d 个 SYN 包（非文件上传）",
-                            TIME_WINDOW_SECONDS, totalPackets),
-                    "N/A",
-                    "协议类型: " + protocolType
-            );
-        } else if ("UDP".equals(protocolType) && totalPackets > UDP_THRESHOLD) {
-            alarmStorageService.saveSecurityAlert(
-                    2,
-                    String.format("[UDP Flood] 在 %d 秒内检测到 %d 个 UDP 包（非文件上传）",
-                            TIME_WINDOW_SECONDS, totalPackets),
-                    "N/A",
-                    "协议类型: " + protocolType
-            );
+    public List<TopTalker> getTopTalkers(String agent, int limit) {
+        RateState state = agentStates.get(agent);
+        if (state == null) {
+            return new ArrayList<>();
+        }
+        List<TopTalker> result;
+        synchronized (state) {
+            result = state.talkers.size() > 0 ? toTopTalkers(state.talkers.top(limit)) : state.previousTalkers;
         }
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
     }
 
     /**
-     * 检测是否为文件上传请求（新增方法）
+     * 已有统计数据的agent
      */
-    private boolean isFileUploadRequest(String payload) {
-        return payload != null && FILE_UPLOAD_INDICATORS.matcher(payload).find();
+    public Set<String> getAgents() {
+        return new TreeSet<>(agentStates.keySet());
+    }
+
+    private static List<TopTalker> toTopTalkers(List<SpaceSaving.Entry> entries) {
+        List<TopTalker> result = new ArrayList<>(entries.size());
+        for (SpaceSaving.Entry entry : entries) {
+            result.add(new TopTalker(FlowKey.ipv4ToString((int) entry.getKey()), entry.getCount(), entry.getError()));
+        }
+        return result;
     }
 
     /**
-     * 从streamKey中提取payload（示例方法，需根据实际实现调整）
+     * 每10分钟清理一次长时间没有上传文件的agent的滑动窗口状态
      */
-    private String extractPayloadFromStreamKey(String streamKey) {
-        // 实际实现应根据streamKey的结构获取对应的payload
-        // 这里只是示例，可能需要从其他数据源获取
-        return "";
+    @Scheduled(initialDelay = 10 * 60 * 1000L, fixedRate = 10 * 60 * 1000L)
+    public void cleanTask() {
+        long expire = System.currentTimeMillis() - STATE_EXPIRE_MILLIS;
+        agentStates.values().removeIf(state -> state.lastUsed < expire);
+    }
+
+    private static class RateState {
+
+        /**
+         * key为源IP、目标端口和协议，伪造源IP的攻击也不会让内存增长
+         */
+        private final CountMinSketch sources;
+
+        private final Map<Long, Boolean> alertedSources = new LinkedHashMap<Long, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > MAX_ALERTED_SOURCES;
+            }
+        };
+
+        /**
+         * 按源IP统计字节数
+         */
+        private final SpaceSaving talkers;
+
+        private long talkerPeriod = -1;
+
+        private List<TopTalker> previousTalkers = new ArrayList<>();
+
+        /**
+         * key为目标端口和协议，统计所有源IP的总量
+         */
+        private final SlidingWindowCounter ports;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        RateState(long windowMillis, int buckets, int sketchWidth, int talkerCapacity) {
+            this.sources = new CountMinSketch(windowMillis, buckets, 4, sketchWidth);
+            this.ports = new SlidingWindowCounter(windowMillis, buckets, 65536 * 2);
+            this.talkers = new SpaceSaving(talkerCapacity);
+        }
     }
 
-    private String extractIpFromStream(String streamKey) {
-        if (streamKey == null || streamKey.isEmpty()) return "未知IP";
-        String[] parts = streamKey.split("->")[0].split(":");
-        return (parts.length > 0) ? parts[0] : "未知IP";
+    private static class Alert {
+
+        private final int alarmTypeIndex;
+        private final String content;
+        private final String sourceIp;
+        private final String streamKey;
+
+        Alert(int alarmTypeIndex, String content, String sourceIp, String streamKey) {
+            this.alarmTypeIndex = alarmTypeIndex;
+            this.content = content;
+            this.sourceIp = sourceIp;
+            this.streamKey = streamKey;
+        }
     }
-}
\ No newline at end of file
+}
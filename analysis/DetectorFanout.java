@@ -0,0 +1,221 @@
+package com.wgcloud.analysis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * 把解码后的数据包和重组出的HTTP请求按批分发给各检测器。
+ * 并行模式下每个检测器一个工作线程和一个有界队列，所有检测器共享同一批只读的事件，按相同顺序处理，
+ * 某个检测器处理不过来时队列写满，解码线程等待，内存占用有上限；非并行模式下在解码线程中依次处理。
+ * 非线程安全，只由解码线程调用
+ */
+class DetectorFanout {
+
+    private static final Logger logger = LoggerFactory.getLogger(DetectorFanout.class);
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+    /**
+     * 文件读取完毕的标记
+     */
+    private static final Batch END = new Batch(0);
+
+    private final List<Lane> lanes = new ArrayList<>();
+
+    private final boolean parallel;
+
+    private Batch batch = new Batch(BATCH_SIZE);
+
+    /**
+     * @param executor 为null时在解码线程中依次处理
+     */
+    DetectorFanout(List<TrafficDetector> detectors, String agent, Map<String, DetectorMetrics> metrics,
+                   ExecutorService executor, int queueCapacity) {
+        for (TrafficDetector detector : detectors) {
+            DetectorStage stage;
+            try {
+                stage = detector.newStage(agent);
+            } catch (Exception e) {
+                logger.error("创建检测阶段错误: " + detector.getName(), e);
+                continue;
+            }
+            DetectorMetrics detectorMetrics = metrics.computeIfAbsent(detector.getName(), DetectorMetrics::new);
+            detectorMetrics.recordFile();
+            lanes.add(new Lane(detector, stage, detectorMetrics, queueCapacity));
+        }
+        this.parallel = executor != null && lanes.size() > 1;
+        if (parallel) {
+            for (Lane lane : lanes) {
+                lane.future = executor.submit(lane);
+            }
+        }
+    }
+
+    void onPacket(PacketRecord record) {
+        add(record);
+    }
+
+    void onStreamComplete(HttpRequest request) {
+        add(request);
+    }
+
+    /**
+     * 处理剩余的事件，等待所有检测器处理完毕并输出检测结果
+     */
+    void finish() {
+        if (batch.size > 0) {
+            publish(batch);
+            batch = new Batch(BATCH_SIZE);
+        }
+        if (!parallel) {
+            for (Lane lane : lanes) {
+                lane.close();
+            }
+            return;
+        }
+        publish(END);
+        for (Lane lane : lanes) {
+            try {
+                lane.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.future.cancel(true);
+            } catch (ExecutionException | CancellationException e) {
+                logger.error("检测器执行错误: " + lane.detector.getName(), e);
+            }
+        }
+    }
+
+    private void add(Object event) {
+        batch.events[batch.size++] = event;
+        if (batch.size == BATCH_SIZE) {
+            publish(batch);
+            //已发布的批次可能仍在被其他线程读取，不能复用
+            batch = new Batch(BATCH_SIZE);
+        }
+    }
+
+    private void publish(Batch published) {
+        if (!parallel) {
+            for (Lane lane : lanes) {
+                lane.process(published);
+            }
+            return;
+        }
+        for (Lane lane : lanes) {
+            if (lane.failed) {
+                continue;
+            }
+            try {
+                while (!lane.queue.offer(published, 1, TimeUnit.SECONDS)) {
+                    //工作线程异常退出后不再等待
+                    if (lane.future.isDone()) {
+                        lane.failed = true;
+                        logger.error("检测器工作线程已退出，跳过剩余数据: " + lane.detector.getName());
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Lane other : lanes) {
+                    other.failed = true;
+                    other.future.cancel(true);
+                }
+                return;
+            }
+        }
+    }
+
+    private static long cpuTime() {
+        return THREAD_MX.isCurrentThreadCpuTimeSupported() ? THREAD_MX.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static class Batch {
+        final Object[] events;
+        int size;
+
+        Batch(int capacity) {
+            this.events = new Object[capacity];
+        }
+    }
+
+    /**
+     * 单个检测器的检测阶段、队列和指标
+     */
+    private static class Lane implements Runnable {
+        final TrafficDetector detector;
+        final DetectorStage stage;
+        final DetectorMetrics metrics;
+        final BlockingQueue<Batch> queue;
+        Future<?> future;
+        volatile boolean failed;
+
+        Lane(TrafficDetector detector, DetectorStage stage, DetectorMetrics metrics, int queueCapacity) {
+            this.detector = detector;
+            this.stage = stage;
+            this.metrics = metrics;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Batch next = queue.take();
+                    if (next == END) {
+                        break;
+                    }
+                    process(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            close();
+        }
+
+        void process(Batch events) {
+            long start = cpuTime();
+            int hits = 0;
+            int errors = 0;
+            for (int i = 0; i < events.size; i++) {
+                Object event = events.events[i];
+                try {
+                    boolean hit = event instanceof PacketRecord
+                            ? stage.onPacket((PacketRecord) event)
+                            : stage.onStreamComplete((HttpRequest) event);
+                    if (hit) {
+                        hits++;
+                    }
+                } catch (Exception e) {
+                    //同一批只记录第一个错误，避免刷屏
+                    if (errors++ == 0) {
+                        logger.error("检测器处理数据错误: " + detector.getName(), e);
+                    }
+                }
+            }
+            metrics.record(events.size, hits, errors, cpuTime() - start);
+        }
+
+        void close() {
+            long start = cpuTime();
+            int errors = 0;
+            try {
+                stage.onWindowClose();
+            } catch (Exception e) {
+                errors++;
+                logger.error("检测阶段输出结果错误: " + detector.getName(), e);
+            }
+            metrics.record(0, 0, errors, cpuTime() - start);
+        }
+    }
+}
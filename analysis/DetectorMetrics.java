@@ -0,0 +1,78 @@
+package com.wgcloud.analysis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个检测器的累计指标：处理的事件数（数据包和HTTP请求）、命中数、出错数和占用的CPU时间
+ */
+public class DetectorMetrics {
+
+    private final String name;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    public DetectorMetrics(String name) {
+        this.name = name;
+    }
+
+    void recordFile() {
+        files.incrementAndGet();
+    }
+
+    void record(int eventCount, int hitCount, int errorCount, long nanos) {
+        events.addAndGet(eventCount);
+        hits.addAndGet(hitCount);
+        errors.addAndGet(errorCount);
+        cpuNanos.addAndGet(nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getCpuMillis() {
+        return cpuNanos.get() / 1000000L;
+    }
+
+    /**
+     * 命中事件占处理事件的比例
+     */
+    public double getHitRate() {
+        long count = events.get();
+        return count == 0 ? 0 : (double) hits.get() / count;
+    }
+
+    /**
+     * 平均每个事件占用的CPU时间，单位：纳秒
+     */
+    public long getNanosPerEvent() {
+        long count = events.get();
+        return count == 0 ? 0 : cpuNanos.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[files=%d, events=%d, hits=%d, hitRate=%.4f%%, cpu=%dms, %dns/event, errors=%d]",
+                name, getFiles(), getEvents(), getHits(), getHitRate() * 100, getCpuMillis(), getNanosPerEvent(), getErrors());
+    }
+}
@@ -0,0 +1,32 @@
+package com.wgcloud.analysis;
+
+/**
+ * 检测阶段，每分析一个pcap文件由各检测器创建一个新的阶段，阶段内部保存各自的按流状态。
+ * 同一阶段的方法只在一个线程中按数据包顺序调用，不需要加锁
+ */
+public interface DetectorStage {
+
+    /**
+     * 解码循环每读到一个数据包调用一次
+     *
+     * @return 是否命中检测规则
+     */
+    default boolean onPacket(PacketRecord record) {
+        return false;
+    }
+
+    /**
+     * TCP流重组每切分出一个完整的HTTP请求调用一次
+     *
+     * @return 是否命中检测规则
+     */
+    default boolean onStreamComplete(HttpRequest request) {
+        return false;
+    }
+
+    /**
+     * 文件读取完毕、本次检测窗口结束时调用，输出检测结果
+     */
+    default void onWindowClose() {
+    }
+}
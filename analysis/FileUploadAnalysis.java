@@ -8,7 +8,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Component
-public class FileUploadAnalysis {
+public class FileUploadAnalysis implements TrafficDetector {
 
     @Autowired
     private AlarmInfoService alarmStorageService; // 复用报警服务
@@ -34,41 +34,57 @@ public class FileUploadAnalysis {
     );
 
     /**
-     * 分析流量数据，检测文件上传攻击
+     * 分析单个HTTP请求，检测文件上传攻击
+     *
+     * @return 是否检测到攻击并保存报警
      */
-    public void analyzeAndSaveUploadAttack(Map<String, StringBuilder> streamData) {
-        for (Map.Entry<String, StringBuilder> entry : streamData.entrySet()) {
-            String streamKey = entry.getKey();
-            String payload = getPayloadAsString(entry.getValue());
+    public boolean analyzeAndSaveUploadAttack(HttpRequest request) {
+        String payload = request.getText();
 
-            // 检测文件上传特征
-            List<String> detectedPatterns = new ArrayList<>();
-            Matcher matcher = FILE_UPLOAD_PATTERNS.matcher(payload);
-            while (matcher.find()) {
-                detectedPatterns.add(matcher.group());
-            }
+        // 检测文件上传特征，能解析为HTTP请求时检测请求头和解码后的请求体（multipart各部分的头和文件内容）
+        String scanText = request.isHttp()
+                ? request.getHeaderText() + "\n" + request.getBodyText()
+                : payload;
+        List<String> detectedPatterns = new ArrayList<>();
+        Matcher matcher = FILE_UPLOAD_PATTERNS.matcher(scanText);
+        while (matcher.find()) {
+            detectedPatterns.add(matcher.group());
+        }
 
-            // 如果检测到特征，存储报警信息
-            if (!detectedPatterns.isEmpty()) {
-                String sourceIp = extractIpFromStream(streamKey);
-                alarmStorageService.saveSecurityAlert(
-                        1, // 文件上传攻击的索引
-                        payload,
-                        sourceIp,
-                        streamKey
-                );
-            }
+        // 如果检测到特征，存储报警信息
+        if (detectedPatterns.isEmpty()) {
+            return false;
         }
+        alarmStorageService.saveSecurityAlert(
+                1, // 文件上传攻击的索引
+                payload,
+                request.getSourceIp(),
+                request.getStreamKey()
+        );
+        return true;
     }
 
-    // 复用 SQL 注入分析类中的工具方法 ---------------
-    private String extractIpFromStream(String streamKey) {
-        if (streamKey == null || streamKey.isEmpty()) return "未知IP";
-        String[] parts = streamKey.split("->")[0].split(":");
-        return (parts.length > 0) ? parts[0] : "未知IP";
+    @Override
+    public String getName() {
+        return "文件上传检测";
     }
 
-    private String getPayloadAsString(StringBuilder sb) {
-        return (sb != null) ? sb.toString() : "";
+    /**
+     * 创建单个pcap文件的检测阶段，每重组出一个完整HTTP请求检测一次，同一条流只报警一次
+     */
+    @Override
+    public DetectorStage newStage(String agent) {
+        final Set<FlowKey> alertedStreams = new HashSet<>();
+        return new DetectorStage() {
+            @Override
+            public boolean onStreamComplete(HttpRequest request) {
+                if (alertedStreams.contains(request.getFlowKey())) return false;
+                if (analyzeAndSaveUploadAttack(request)) {
+                    alertedStreams.add(request.getFlowKey());
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.wgcloud.analysis;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 五元组流标识，地址按IPv6的128位存储（IPv4使用IPv4映射地址::ffff:a.b.c.d），端口和协议合并为一个long，
+ * 比较和哈希只用基本类型，只有输出报警时才转换为字符串
+ */
+public final class FlowKey {
+
+    public static final int PROTOCOL_TCP = 6;
+
+    public static final int PROTOCOL_UDP = 17;
+
+    /**
+     * IPv4映射地址的高位前缀
+     */
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+    private final long srcHi;
+    private final long srcLo;
+    private final long dstHi;
+    private final long dstLo;
+    private final long meta;
+    private String text;
+
+    FlowKey(long srcHi, long srcLo, long dstHi, long dstLo, long meta) {
+        this.srcHi = srcHi;
+        this.srcLo = srcLo;
+        this.dstHi = dstHi;
+        this.dstLo = dstLo;
+        this.meta = meta;
+    }
+
+    public static FlowKey ofIpv4(int srcIp, int srcPort, int dstIp, int dstPort, int protocol) {
+        return new FlowKey(0, ipv4Lo(srcIp), 0, ipv4Lo(dstIp), meta(srcPort, dstPort, protocol));
+    }
+
+    public static FlowKey of(InetAddress src, int srcPort, InetAddress dst, int dstPort, int protocol) {
+        byte[] s = toIpv6Bytes(src);
+        byte[] d = toIpv6Bytes(dst);
+        return new FlowKey(readLong(s, 0), readLong(s, 8), readLong(d, 0), readLong(d, 8), meta(srcPort, dstPort, protocol));
+    }
+
+    static long ipv4Lo(int ip) {
+        return IPV4_MAPPED | (ip & 0xFFFFFFFFL);
+    }
+
+    static long meta(int srcPort, int dstPort, int protocol) {
+        return ((long) (srcPort & 0xFFFF) << 24) | ((long) (dstPort & 0xFFFF) << 8) | (protocol & 0xFF);
+    }
+
+    long getSrcHi() {
+        return srcHi;
+    }
+
+    long getSrcLo() {
+        return srcLo;
+    }
+
+    long getDstHi() {
+        return dstHi;
+    }
+
+    long getDstLo() {
+        return dstLo;
+    }
+
+    long getMeta() {
+        return meta;
+    }
+
+    public boolean isIpv4() {
+        return srcHi == 0 && (srcLo >>> 32) == 0xFFFF;
+    }
+
+    public int getSrcPort() {
+        return (int) (meta >>> 24) & 0xFFFF;
+    }
+
+    public int getDstPort() {
+        return (int) (meta >>> 8) & 0xFFFF;
+    }
+
+    public int getProtocol() {
+        return (int) meta & 0xFF;
+    }
+
+    public String getSrcAddress() {
+        return address(srcHi, srcLo);
+    }
+
+    public String getDstAddress() {
+        return address(dstHi, dstLo);
+    }
+
+    /**
+     * IPv4地址转换为int
+     */
+    public static int ipv4ToInt(InetAddress address) {
+        byte[] addr = address.getAddress();
+        return ((addr[0] & 0xFF) << 24) | ((addr[1] & 0xFF) << 16) | ((addr[2] & 0xFF) << 8) | (addr[3] & 0xFF);
+    }
+
+    public static String ipv4ToString(int ip) {
+        return (ip >>> 24) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    static int hash(long srcHi, long srcLo, long dstHi, long dstLo, long meta) {
+        long h = srcLo * 0x9E3779B97F4A7C15L;
+        h = (h ^ dstLo) * 0x9E3779B97F4A7C15L;
+        h = (h ^ meta) * 0x9E3779B97F4A7C15L;
+        h = (h ^ srcHi ^ (dstHi << 1)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowKey)) {
+            return false;
+        }
+        FlowKey other = (FlowKey) o;
+        return srcLo == other.srcLo && dstLo == other.dstLo && meta == other.meta
+                && srcHi == other.srcHi && dstHi == other.dstHi;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(srcHi, srcLo, dstHi, dstLo, meta);
+    }
+
+    /**
+     * 与原字符串流标识格式一致：源地址:端口 -> 目标地址:端口 (协议)
+     */
+    @Override
+    public String toString() {
+        if (text == null) {
+            int protocol = getProtocol();
+            String name = protocol == PROTOCOL_TCP ? "TcpPacket" : protocol == PROTOCOL_UDP ? "UdpPacket" : String.valueOf(protocol);
+            String src = srcHi == 0 && (srcLo >>> 32) == 0xFFFF ? getSrcAddress() : "[" + getSrcAddress() + "]";
+            String dst = dstHi == 0 && (dstLo >>> 32) == 0xFFFF ? getDstAddress() : "[" + getDstAddress() + "]";
+            text = src + ":" + getSrcPort() + " -> " + dst + ":" + getDstPort() + " (" + name + ")";
+        }
+        return text;
+    }
+
+    private static String address(long hi, long lo) {
+        if (hi == 0 && (lo >>> 32) == 0xFFFF) {
+            return ipv4ToString((int) lo);
+        }
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (hi >>> (56 - i * 8));
+            bytes[i + 8] = (byte) (lo >>> (56 - i * 8));
+        }
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] toIpv6Bytes(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            byte[] bytes = new byte[16];
+            bytes[10] = (byte) 0xFF;
+            bytes[11] = (byte) 0xFF;
+            System.arraycopy(address.getAddress(), 0, bytes, 12, 4);
+            return bytes;
+        }
+        return address.getAddress();
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,225 @@
+package com.wgcloud.analysis;
+
+import java.util.Arrays;
+
+/**
+ * 以五元组为key的开放寻址哈希表，key按基本类型数组存储，查找时不创建key对象。
+ * 同时按访问顺序维护双向链表，最久未访问的流排在最前面，用于空闲超时和内存超限时淘汰。
+ * 非线程安全
+ */
+public class FlowTable<V> {
+
+    private static final int KEY_LONGS = 5;
+
+    private static final int NONE = -1;
+
+    private long[] keys;
+    private Object[] values;
+    private int[] prev;
+    private int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+
+    public FlowTable() {
+        allocate(64);
+    }
+
+    public V get(FlowKey key) {
+        return get(key.getSrcHi(), key.getSrcLo(), key.getDstHi(), key.getDstLo(), key.getMeta());
+    }
+
+    /**
+     * 查找并把该流移到访问顺序的末尾
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long srcHi, long srcLo, long dstHi, long dstLo, long meta) {
+        int slot = findSlot(srcHi, srcLo, dstHi, dstLo, meta);
+        if (values[slot] == null) {
+            return null;
+        }
+        moveToTail(slot);
+        return (V) values[slot];
+    }
+
+    public void put(FlowKey key, V value) {
+        long srcHi = key.getSrcHi();
+        long srcLo = key.getSrcLo();
+        long dstHi = key.getDstHi();
+        long dstLo = key.getDstLo();
+        long meta = key.getMeta();
+        int slot = findSlot(srcHi, srcLo, dstHi, dstLo, meta);
+        if (values[slot] != null) {
+            values[slot] = value;
+            moveToTail(slot);
+            return;
+        }
+        int base = slot * KEY_LONGS;
+        keys[base] = srcHi;
+        keys[base + 1] = srcLo;
+        keys[base + 2] = dstHi;
+        keys[base + 3] = dstLo;
+        keys[base + 4] = meta;
+        values[slot] = value;
+        linkLast(slot);
+        if (++size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(FlowKey key) {
+        int slot = findSlot(key.getSrcHi(), key.getSrcLo(), key.getDstHi(), key.getDstLo(), key.getMeta());
+        if (values[slot] == null) {
+            return null;
+        }
+        V value = (V) values[slot];
+        removeSlot(slot);
+        return value;
+    }
+
+    /**
+     * 最久未访问的流，表为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V first() {
+        return head == NONE ? null : (V) values[head];
+    }
+
+    /**
+     * 删除并返回最久未访问的流，表为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V removeFirst() {
+        if (head == NONE) {
+            return null;
+        }
+        V value = (V) values[head];
+        removeSlot(head);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int findSlot(long srcHi, long srcLo, long dstHi, long dstLo, long meta) {
+        int mask = values.length - 1;
+        int slot = FlowKey.hash(srcHi, srcLo, dstHi, dstLo, meta) & mask;
+        while (values[slot] != null) {
+            int base = slot * KEY_LONGS;
+            if (keys[base + 1] == srcLo && keys[base + 3] == dstLo && keys[base + 4] == meta
+                    && keys[base] == srcHi && keys[base + 2] == dstHi) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 删除后把后续冲突的项前移，保证查找不会提前遇到空位
+     */
+    private void removeSlot(int slot) {
+        unlink(slot);
+        values[slot] = null;
+        size--;
+        int mask = values.length - 1;
+        int hole = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & mask;
+            if (values[current] == null) {
+                return;
+            }
+            int base = current * KEY_LONGS;
+            int home = FlowKey.hash(keys[base], keys[base + 1], keys[base + 2], keys[base + 3], keys[base + 4]) & mask;
+            //home不在(hole, current]之间时可以前移到hole
+            boolean movable = hole <= current ? (home <= hole || home > current) : (home <= hole && home > current);
+            if (movable) {
+                move(current, hole);
+                hole = current;
+            }
+        }
+    }
+
+    private void move(int from, int to) {
+        System.arraycopy(keys, from * KEY_LONGS, keys, to * KEY_LONGS, KEY_LONGS);
+        values[to] = values[from];
+        values[from] = null;
+        prev[to] = prev[from];
+        next[to] = next[from];
+        if (prev[to] == NONE) {
+            head = to;
+        } else {
+            next[prev[to]] = to;
+        }
+        if (next[to] == NONE) {
+            tail = to;
+        } else {
+            prev[next[to]] = to;
+        }
+    }
+
+    private void moveToTail(int slot) {
+        if (slot != tail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+    }
+
+    private void linkLast(int slot) {
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail == NONE) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] == NONE) {
+            head = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE) {
+            tail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+    }
+
+    /**
+     * 扩容时按访问顺序重新插入，保持淘汰顺序不变
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldNext = next;
+        int oldHead = head;
+        allocate(capacity);
+        for (int slot = oldHead; slot != NONE; slot = oldNext[slot]) {
+            int base = slot * KEY_LONGS;
+            int newSlot = findSlot(oldKeys[base], oldKeys[base + 1], oldKeys[base + 2], oldKeys[base + 3], oldKeys[base + 4]);
+            System.arraycopy(oldKeys, base, keys, newSlot * KEY_LONGS, KEY_LONGS);
+            values[newSlot] = oldValues[slot];
+            linkLast(newSlot);
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * KEY_LONGS];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        Arrays.fill(prev, NONE);
+        Arrays.fill(next, NONE);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+}
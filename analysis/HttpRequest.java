@@ -0,0 +1,362 @@
+package com.wgcloud.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * TCP流重组后切分出的一个完整HTTP请求（或流结束时剩余的不完整数据）。
+ * 请求行、请求头和请求体只记录在原始数据中的位置，不复制数据；URL解码、chunked和gzip/deflate解码在检测器首次使用时进行
+ */
+public class HttpRequest {
+
+    /**
+     * 解码后请求体的最大字节数，防止压缩炸弹
+     */
+    static final int MAX_DECODED_BODY = 4 * 1024 * 1024;
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    private final FlowKey flowKey;
+    private final byte[] data;
+    private final long timestamp;
+    private final boolean truncated;
+    private String text;
+
+    private boolean parsed;
+    private int methodEnd = -1;
+    private int uriStart;
+    private int uriEnd;
+    private int requestLineEnd;
+    private int headerEnd = -1;
+    private int bodyStart;
+    private String decodedUri;
+    private byte[] body;
+    private String bodyText;
+
+    public HttpRequest(FlowKey flowKey, byte[] data, long timestamp, boolean truncated) {
+        this.flowKey = flowKey;
+        this.data = data;
+        this.timestamp = timestamp;
+        this.truncated = truncated;
+    }
+
+    public FlowKey getFlowKey() {
+        return flowKey;
+    }
+
+    /**
+     * 字符串格式的流标识，用于保存报警
+     */
+    public String getStreamKey() {
+        return flowKey.toString();
+    }
+
+    public String getSourceIp() {
+        return flowKey.getSrcAddress();
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * 请求最后一个数据包的抓包时间（毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 请求超过单流内存上限被截断
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * 按UTF-8解码的请求内容，首次使用时生成。
+     * 同一请求会交给多个检测器线程，延迟解析和缓存的方法需要加锁
+     */
+    public synchronized String getText() {
+        if (text == null) {
+            text = new String(data, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    /**
+     * 数据以HTTP/1.x请求行开头，且请求头完整
+     */
+    public boolean isHttp() {
+        parse();
+        return methodEnd > 0 && headerEnd >= 0;
+    }
+
+    public String getMethod() {
+        parse();
+        return methodEnd > 0 ? new String(data, 0, methodEnd, StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * 请求行中的原始URI
+     */
+    public String getUri() {
+        parse();
+        return methodEnd > 0 ? new String(data, uriStart, uriEnd - uriStart, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * URL解码后的URI
+     */
+    public synchronized String getDecodedUri() {
+        if (decodedUri == null) {
+            String uri = getUri();
+            decodedUri = uri == null ? "" : urlDecode(uri);
+        }
+        return decodedUri;
+    }
+
+    /**
+     * 按名称（忽略大小写）取请求头的值，有多个同名请求头时取第一个，不存在时返回null
+     */
+    public String getHeader(String name) {
+        parse();
+        if (headerEnd < 0) {
+            return null;
+        }
+        String prefix = name.toLowerCase() + ":";
+        int lineStart = requestLineEnd + LINE_END.length;
+        while (lineStart < headerEnd) {
+            int lineEnd = TcpReassembler.indexOf(data, lineStart, headerEnd, LINE_END);
+            if (lineEnd < 0) {
+                lineEnd = headerEnd;
+            }
+            if (TcpReassembler.startsWithIgnoreCase(data, lineStart, lineEnd, prefix)) {
+                return new String(data, lineStart + prefix.length(), lineEnd - lineStart - prefix.length(),
+                        StandardCharsets.ISO_8859_1).trim();
+            }
+            lineStart = lineEnd + LINE_END.length;
+        }
+        return null;
+    }
+
+    /**
+     * 请求头部分（不含请求行），请求头不完整时返回空字符串
+     */
+    public String getHeaderText() {
+        parse();
+        if (headerEnd < 0 || headerEnd <= requestLineEnd) {
+            return "";
+        }
+        return new String(data, requestLineEnd + LINE_END.length, headerEnd - requestLineEnd - LINE_END.length,
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 按Transfer-Encoding和Content-Encoding解码后的请求体，解码出错时返回已解码的部分
+     */
+    public synchronized byte[] getBody() {
+        if (body == null) {
+            body = decodeBody();
+        }
+        return body;
+    }
+
+    /**
+     * 按UTF-8解码的请求体，表单请求体同时做URL解码
+     */
+    public synchronized String getBodyText() {
+        if (bodyText == null) {
+            String value = new String(getBody(), StandardCharsets.UTF_8);
+            String contentType = getHeader("Content-Type");
+            if (contentType != null && contentType.toLowerCase().contains("application/x-www-form-urlencoded")) {
+                value = urlDecode(value);
+            }
+            bodyText = value;
+        }
+        return bodyText;
+    }
+
+    /**
+     * 请求体是否为文本内容，没有Content-Type时按文本处理
+     */
+    public boolean isTextBody() {
+        String contentType = getHeader("Content-Type");
+        if (contentType == null) {
+            return true;
+        }
+        contentType = contentType.toLowerCase();
+        return contentType.startsWith("text/") || contentType.contains("json") || contentType.contains("xml")
+                || contentType.contains("x-www-form-urlencoded") || contentType.contains("javascript");
+    }
+
+    /**
+     * 是否为multipart/form-data文件上传请求
+     */
+    public boolean isMultipart() {
+        String contentType = getHeader("Content-Type");
+        return contentType != null && contentType.toLowerCase().contains("multipart/form-data");
+    }
+
+    /**
+     * 只定位请求行和请求头结束位置，不复制数据
+     */
+    private synchronized void parse() {
+        if (parsed) {
+            return;
+        }
+        parsed = true;
+        int lineEnd = TcpReassembler.indexOf(data, 0, data.length, LINE_END);
+        if (lineEnd < 0) {
+            return;
+        }
+        int sp1 = indexOf(data, 0, lineEnd, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(data, sp1 + 1, lineEnd, (byte) ' ');
+        if (sp1 <= 0 || sp2 < 0 || !isToken(data, 0, sp1)
+                || !TcpReassembler.startsWithIgnoreCase(data, sp2 + 1, lineEnd, "http/1.")) {
+            return;
+        }
+        methodEnd = sp1;
+        uriStart = sp1 + 1;
+        uriEnd = sp2;
+        requestLineEnd = lineEnd;
+        int end = TcpReassembler.indexOf(data, lineEnd, data.length, HEADER_END);
+        if (end >= 0) {
+            headerEnd = end;
+            bodyStart = end + HEADER_END.length;
+        }
+    }
+
+    private byte[] decodeBody() {
+        if (!isHttp()) {
+            return new byte[0];
+        }
+        byte[] raw;
+        String transferEncoding = getHeader("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            raw = dechunk(data, bodyStart, data.length);
+        } else {
+            raw = Arrays.copyOfRange(data, bodyStart, data.length);
+        }
+        String contentEncoding = getHeader("Content-Encoding");
+        if (contentEncoding == null || raw.length == 0) {
+            return raw;
+        }
+        contentEncoding = contentEncoding.toLowerCase();
+        try {
+            if (contentEncoding.contains("gzip")) {
+                return inflate(new GZIPInputStream(new ByteArrayInputStream(raw)));
+            }
+            if (contentEncoding.contains("deflate")) {
+                //deflate按规范是zlib格式，部分客户端发送不带头的原始deflate数据
+                boolean zlib = raw.length > 1 && (raw[0] & 0x0F) == 8 && ((raw[0] & 0xFF) * 256 + (raw[1] & 0xFF)) % 31 == 0;
+                return inflate(new InflaterInputStream(new ByteArrayInputStream(raw), new Inflater(!zlib)));
+            }
+        } catch (IOException e) {
+            return raw;
+        }
+        return raw;
+    }
+
+    private static byte[] inflate(InputStream in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try (InputStream input = in) {
+            int n;
+            while ((n = input.read(buf)) > 0 && out.size() < MAX_DECODED_BODY) {
+                out.write(buf, 0, Math.min(n, MAX_DECODED_BODY - out.size()));
+            }
+        } catch (IOException e) {
+            //请求被截断时压缩数据不完整，保留已解压的部分
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 合并chunked编码的数据块，数据不完整或格式错误时返回已合并的部分
+     */
+    static byte[] dechunk(byte[] buf, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = from;
+        while (pos < to) {
+            int lineEnd = TcpReassembler.indexOf(buf, pos, to, LINE_END);
+            if (lineEnd < 0) {
+                break;
+            }
+            long size = TcpReassembler.parseHex(buf, pos, lineEnd);
+            if (size <= 0) {
+                break;
+            }
+            int dataStart = lineEnd + LINE_END.length;
+            int dataEnd = (int) Math.min(to, dataStart + size);
+            out.write(buf, dataStart, dataEnd - dataStart);
+            pos = dataEnd + LINE_END.length;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 宽松的URL解码，+转为空格，无效的%序列原样保留；解码后仍有%编码时再解码一次，处理二次编码
+     */
+    static String urlDecode(String text) {
+        String decoded = urlDecodeOnce(text);
+        return decoded.indexOf('%') >= 0 ? urlDecodeOnce(decoded) : decoded;
+    }
+
+    private static String urlDecodeOnce(String text) {
+        if (text.indexOf('%') < 0 && text.indexOf('+') < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        //连续的%XX先解成字节，再按UTF-8转为字符，多字节的中文等字符才能正确还原
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%' && i + 2 < text.length()
+                    && Character.digit(text.charAt(i + 1), 16) >= 0 && Character.digit(text.charAt(i + 2), 16) >= 0) {
+                bytes.write(Character.digit(text.charAt(i + 1), 16) * 16 + Character.digit(text.charAt(i + 2), 16));
+                i += 2;
+                continue;
+            }
+            if (bytes.size() > 0) {
+                sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                bytes.reset();
+            }
+            sb.append(c == '+' ? ' ' : c);
+        }
+        if (bytes.size() > 0) {
+            sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 请求方法只能由大写字母组成
+     */
+    private static boolean isToken(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] < 'A' || buf[i] > 'Z') {
+                return false;
+            }
+        }
+        return to - from <= 16;
+    }
+}
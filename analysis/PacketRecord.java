@@ -0,0 +1,130 @@
+package com.wgcloud.analysis;
+
+import org.pcap4j.packet.IpV4Packet;
+import org.pcap4j.packet.TcpPacket;
+import org.pcap4j.packet.TransportPacket;
+import org.pcap4j.packet.UdpPacket;
+
+/**
+ * 单个数据包解码后的结果，解码循环只解析一次，所有检测阶段共用；
+ * 多个检测器线程会同时读取，延迟生成的字段加锁
+ */
+public class PacketRecord {
+
+    private final IpV4Packet ipv4Packet;
+    private final TransportPacket transportPacket;
+    private final long timestamp;
+    private final int srcPort;
+    private final int dstPort;
+    private final int srcIp;
+    private final int dstIp;
+    private FlowKey flowKey;
+    private byte[] payload;
+
+    public PacketRecord(IpV4Packet ipv4Packet, TransportPacket transportPacket, long timestamp) {
+        this(ipv4Packet, transportPacket, timestamp, FlowKey.ipv4ToInt(ipv4Packet.getHeader().getDstAddr()));
+    }
+
+    /**
+     * @param dstIp 调用方已解析的目标IP，避免重复转换
+     */
+    public PacketRecord(IpV4Packet ipv4Packet, TransportPacket transportPacket, long timestamp, int dstIp) {
+        this.ipv4Packet = ipv4Packet;
+        this.srcIp = FlowKey.ipv4ToInt(ipv4Packet.getHeader().getSrcAddr());
+        this.dstIp = dstIp;
+        this.transportPacket = transportPacket;
+        this.timestamp = timestamp;
+        if (transportPacket instanceof TcpPacket) {
+            TcpPacket tcp = (TcpPacket) transportPacket;
+            this.srcPort = tcp.getHeader().getSrcPort().valueAsInt();
+            this.dstPort = tcp.getHeader().getDstPort().valueAsInt();
+        } else if (transportPacket instanceof UdpPacket) {
+            UdpPacket udp = (UdpPacket) transportPacket;
+            this.srcPort = udp.getHeader().getSrcPort().valueAsInt();
+            this.dstPort = udp.getHeader().getDstPort().valueAsInt();
+        } else {
+            this.srcPort = -1;
+            this.dstPort = -1;
+        }
+    }
+
+    public IpV4Packet getIpv4Packet() {
+        return ipv4Packet;
+    }
+
+    public TransportPacket getTransportPacket() {
+        return transportPacket;
+    }
+
+    /**
+     * 抓包时间（毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getSrcPort() {
+        return srcPort;
+    }
+
+    public int getDstPort() {
+        return dstPort;
+    }
+
+    public boolean isTcp() {
+        return transportPacket instanceof TcpPacket;
+    }
+
+    public boolean isUdp() {
+        return transportPacket instanceof UdpPacket;
+    }
+
+    /**
+     * 是否为建立连接的SYN包（不含SYN+ACK）
+     */
+    public boolean isSyn() {
+        if (!(transportPacket instanceof TcpPacket)) {
+            return false;
+        }
+        TcpPacket.TcpHeader header = ((TcpPacket) transportPacket).getHeader();
+        return header.getSyn() && !header.getAck();
+    }
+
+    /**
+     * IP包总长度（字节）
+     */
+    public int getLength() {
+        return ipv4Packet.getHeader().getTotalLengthAsInt();
+    }
+
+    /**
+     * 源IP转换为int，用作计数的key
+     */
+    public int getSrcAddrAsInt() {
+        return srcIp;
+    }
+
+    public int getDstAddrAsInt() {
+        return dstIp;
+    }
+
+    /**
+     * 流标识，首次使用时生成
+     */
+    public synchronized FlowKey getFlowKey() {
+        if (flowKey == null) {
+            flowKey = FlowKey.ofIpv4(srcIp, srcPort, dstIp, dstPort, isTcp() ? FlowKey.PROTOCOL_TCP : FlowKey.PROTOCOL_UDP);
+        }
+        return flowKey;
+    }
+
+    /**
+     * 传输层负载，没有负载时返回长度为0的数组
+     */
+    public synchronized byte[] getPayload() {
+        if (payload == null) {
+            payload = transportPacket.getPayload() != null ? transportPacket.getPayload().getRawData() : new byte[0];
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,354 @@
+package com.wgcloud.analysis;
+
+import com.wgcloud.config.CommonConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * pcap文件分析队列，agent上传的文件先写入缓存目录并立即返回，由分析线程异步处理。
+ * 按agent轮流取任务，单个agent上传过多不会挤占其他agent；服务重启后继续处理缓存目录中未分析的文件
+ */
+@Component
+public class PcapAnalysisQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(PcapAnalysisQueue.class);
+
+    private static final String PCAP_SUFFIX = ".pcap";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String FAILED_SUFFIX = ".failed";
+
+    /**
+     * 缓存文件名中agent标识和原文件名的分隔符
+     */
+    private static final String NAME_SEPARATOR = "__";
+
+    @Autowired
+    private AnlysisPcap anlysisPcap;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    private File spoolDir;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 每个agent待分析的文件
+     */
+    private final Map<String, ArrayDeque<Job>> agentJobs = new HashMap<>();
+
+    /**
+     * 有待分析文件的agent，按轮流顺序排列
+     */
+    private final ArrayDeque<String> agentOrder = new ArrayDeque<>();
+
+    private int queued;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicLong totalAnalyzeMillis = new AtomicLong();
+    private final AtomicLong maxAnalyzeMillis = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        spoolDir = new File(commonConfig.getPcapSpoolDir());
+        if (!spoolDir.exists()) {
+            spoolDir.mkdirs();
+        }
+        recover();
+        running = true;
+        int threads = Math.max(1, commonConfig.getPcapWorkers());
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::workLoop, "pcap-analysis-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("pcap分析队列启动，缓存目录：" + spoolDir.getAbsolutePath() + "，分析线程数：" + threads + "，待分析文件：" + queued);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        //未分析完的文件留在缓存目录，下次启动时继续处理
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * 把上传的文件写入缓存目录并加入分析队列
+     *
+     * @param agent        上传文件的agent标识
+     * @param originalName 上传的原始文件名
+     * @param in           文件内容
+     * @return 缓存文件，队列已满时返回null
+     */
+    public File spool(String agent, String originalName, InputStream in) throws IOException {
+        String agentKey = sanitize(agent);
+        if (!hasCapacity(agentKey)) {
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        String fileName = agentKey + NAME_SEPARATOR + System.currentTimeMillis() + "_" + sanitize(originalName);
+        if (!fileName.endsWith(PCAP_SUFFIX)) {
+            fileName += PCAP_SUFFIX;
+        }
+        //先写临时文件再改名，重启恢复时不会读到写了一半的文件
+        File tmpFile = new File(spoolDir, fileName + TMP_SUFFIX);
+        File destFile = new File(spoolDir, fileName);
+        try {
+            Files.copy(in, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (!offer(new Job(agentKey, destFile, System.currentTimeMillis()))) {
+            destFile.delete();
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        return destFile;
+    }
+
+    private boolean hasCapacity(String agentKey) {
+        lock.lock();
+        try {
+            return canAccept(agentKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAccept(String agentKey) {
+        if (queued >= commonConfig.getPcapQueueSize()) {
+            return false;
+        }
+        ArrayDeque<Job> jobs = agentJobs.get(agentKey);
+        return jobs == null || jobs.size() < commonConfig.getPcapQueuePerAgent();
+    }
+
+    private boolean offer(Job job) {
+        lock.lock();
+        try {
+            if (!canAccept(job.agent)) {
+                return false;
+            }
+            enqueue(job);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Job job) {
+        ArrayDeque<Job> jobs = agentJobs.get(job.agent);
+        if (jobs == null) {
+            jobs = new ArrayDeque<>();
+            agentJobs.put(job.agent, jobs);
+            agentOrder.addLast(job.agent);
+        }
+        jobs.addLast(job);
+        queued++;
+        enqueuedCount.incrementAndGet();
+        notEmpty.signal();
+    }
+
+    /**
+     * 轮流从每个agent取一个文件
+     */
+    private Job take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (agentOrder.isEmpty()) {
+                notEmpty.await();
+            }
+            String agent = agentOrder.pollFirst();
+            ArrayDeque<Job> jobs = agentJobs.get(agent);
+            Job job = jobs.pollFirst();
+            if (jobs.isEmpty()) {
+                agentJobs.remove(agent);
+            } else {
+                agentOrder.addLast(agent);
+            }
+            queued--;
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long start = System.currentTimeMillis();
+            record(totalWaitMillis, maxWaitMillis, start - job.enqueueTime);
+            try {
+                anlysisPcap.analyzePcapFile(job.file.getAbsolutePath(), job.agent);
+                processedCount.incrementAndGet();
+                if (!job.file.delete()) {
+                    logger.warn("删除已分析的pcap文件失败：" + job.file.getAbsolutePath());
+                }
+            } catch (Throwable e) {
+                failedCount.incrementAndGet();
+                logger.error("分析pcap文件错误：" + job.file.getAbsolutePath(), e);
+                //改名后不再重复分析，保留文件便于排查
+                job.file.renameTo(new File(job.file.getAbsolutePath() + FAILED_SUFFIX));
+            } finally {
+                record(totalAnalyzeMillis, maxAnalyzeMillis, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * 启动时把缓存目录中未分析的文件按上传时间重新加入队列
+     */
+    private void recover() {
+        File[] files = spoolDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> pending = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile() && file.getName().endsWith(PCAP_SUFFIX)) {
+                pending.add(file);
+            }
+        }
+        pending.sort(Comparator.comparingLong(File::lastModified));
+        lock.lock();
+        try {
+            for (File file : pending) {
+                String name = file.getName();
+                int index = name.indexOf(NAME_SEPARATOR);
+                String agent = index > 0 ? name.substring(0, index) : "unknown";
+                enqueue(new Job(agent, file, file.lastModified()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long millis) {
+        total.addAndGet(millis);
+        long current = max.get();
+        while (current < millis && !max.compareAndSet(current, millis)) {
+            current = max.get();
+        }
+    }
+
+    private static String sanitize(String name) {
+        if (name == null || name.isEmpty()) {
+            return "unknown";
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "_").replaceAll("_{2,}", "_");
+    }
+
+    /**
+     * 每10分钟打印一次队列状态
+     */
+    @Scheduled(initialDelay = 60000L, fixedRate = 10 * 60 * 1000)
+    public void statTask() {
+        logger.info("pcap分析队列状态----------" + this);
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 平均排队等待时间，单位：ms
+     */
+    public long getAvgWaitMillis() {
+        long done = processedCount.get() + failedCount.get();
+        return done == 0 ? 0 : totalWaitMillis.get() / done;
+    }
+
+    /**
+     * 平均分析耗时，单位：ms
+     */
+    public long getAvgAnalyzeMillis() {
+        long done = processedCount.get() + failedCount.get();
+        return done == 0 ? 0 : totalAnalyzeMillis.get() / done;
+    }
+
+    @Override
+    public String toString() {
+        return "PcapAnalysisQueue[depth=" + getQueueDepth() + ", enqueued=" + enqueuedCount.get()
+                + ", rejected=" + rejectedCount.get() + ", processed=" + processedCount.get()
+                + ", failed=" + failedCount.get() + ", avgWait=" + getAvgWaitMillis() + "ms, maxWait="
+                + maxWaitMillis.get() + "ms, avgAnalyze=" + getAvgAnalyzeMillis() + "ms, maxAnalyze="
+                + maxAnalyzeMillis.get() + "ms]";
+    }
+
+    private static class Job {
+
+        private final String agent;
+
+        private final File file;
+
+        private final long enqueueTime;
+
+        Job(String agent, File file, long enqueueTime) {
+            this.agent = agent;
+            this.file = file;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.wgcloud.analysis;
+
+import com.wgcloud.config.CommonConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * agent分块上传pcap文件，每块直接追加写入磁盘，中断后可从已写入的位置续传。
+ * 上传文件为gzip压缩，全部上传完成后校验SHA-256，解压写入分析队列
+ */
+@Component
+public class PcapChunkUpload {
+
+    private static final Logger logger = LoggerFactory.getLogger(PcapChunkUpload.class);
+
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * 未完成的上传保留时间，超过后删除
+     */
+    private static final long PART_EXPIRE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @Autowired
+    private PcapAnalysisQueue pcapAnalysisQueue;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    private File partDir;
+
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        partDir = new File(commonConfig.getPcapSpoolDir(), "parts");
+        if (!partDir.exists()) {
+            partDir.mkdirs();
+        }
+    }
+
+    /**
+     * 开始或继续一次上传，上传标识为压缩文件的SHA-256，同一文件重复上传时从已写入的位置继续
+     *
+     * @return 服务端已接收的字节数
+     */
+    public long init(String hostname, String fileName, long size, String sha256) throws IOException {
+        String uploadId = checkUploadId(sha256);
+        if (size <= 0 || size > commonConfig.getPcapUploadMaxBytes()) {
+            throw new IllegalArgumentException("invalid size: " + size);
+        }
+        synchronized (lock(uploadId)) {
+            File meta = new File(partDir, uploadId + META_SUFFIX);
+            File part = new File(partDir, uploadId + PART_SUFFIX);
+            if (!meta.exists()) {
+                Properties props = new Properties();
+                props.setProperty("hostname", hostname == null ? "" : hostname);
+                props.setProperty("fileName", fileName == null ? "" : fileName);
+                props.setProperty("size", String.valueOf(size));
+                try (OutputStream out = new FileOutputStream(meta)) {
+                    props.store(out, null);
+                }
+                Files.deleteIfExists(part.toPath());
+            }
+            return part.exists() ? part.length() : 0;
+        }
+    }
+
+    /**
+     * 追加写入一块数据，offset与已接收字节数不一致时不写入，返回已接收字节数由agent从该位置重发
+     *
+     * @return 服务端已接收的字节数
+     */
+    public long append(String uploadId, long offset, InputStream in) throws IOException {
+        checkUploadId(uploadId);
+        synchronized (lock(uploadId)) {
+            Properties props = loadMeta(uploadId);
+            long size = Long.parseLong(props.getProperty("size"));
+            File part = new File(partDir, uploadId + PART_SUFFIX);
+            long received = part.exists() ? part.length() : 0;
+            if (offset != received) {
+                return received;
+            }
+            byte[] buf = new byte[64 * 1024];
+            try (OutputStream out = Files.newOutputStream(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    received += n;
+                    if (received > size) {
+                        throw new IOException("upload exceeds declared size: " + uploadId);
+                    }
+                    out.write(buf, 0, n);
+                }
+            }
+            return received;
+        }
+    }
+
+    /**
+     * 上传完成，校验后解压写入分析队列
+     *
+     * @return 写入分析队列的文件，分析队列已满时返回null，已上传的数据保留，agent稍后重试
+     */
+    public File complete(String uploadId) throws IOException {
+        checkUploadId(uploadId);
+        synchronized (lock(uploadId)) {
+            Properties props = loadMeta(uploadId);
+            long size = Long.parseLong(props.getProperty("size"));
+            File part = new File(partDir, uploadId + PART_SUFFIX);
+            if (!part.exists() || part.length() != size) {
+                throw new IOException("upload incomplete: " + uploadId + ", received " + (part.exists() ? part.length() : 0) + " of " + size);
+            }
+            if (!uploadId.equals(sha256(part))) {
+                discard(uploadId);
+                throw new IOException("upload checksum mismatch: " + uploadId);
+            }
+            File spoolFile;
+            LimitedInputStream limited = null;
+            try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(part)))) {
+                limited = new LimitedInputStream(in, commonConfig.getPcapUnzipMaxBytes());
+                spoolFile = pcapAnalysisQueue.spool(props.getProperty("hostname"), props.getProperty("fileName"), limited);
+            } catch (IOException e) {
+                //解压后超过上限的上传重试也不会成功，直接丢弃；分析队列已删除写了一半的临时文件
+                if (limited != null && limited.exceeded) {
+                    discard(uploadId);
+                }
+                throw e;
+            }
+            if (spoolFile != null) {
+                discard(uploadId);
+            }
+            return spoolFile;
+        }
+    }
+
+    /**
+     * 每小时清理一次长时间未完成的上传
+     */
+    @Scheduled(initialDelay = 10 * 60 * 1000L, fixedRate = 60 * 60 * 1000L)
+    public void cleanTask() {
+        File[] files = partDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long expire = System.currentTimeMillis() - PART_EXPIRE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < expire && file.delete()) {
+                logger.info("删除过期的pcap分块上传文件：" + file.getName());
+                String name = file.getName();
+                int dot = name.lastIndexOf('.');
+                if (dot > 0) {
+                    locks.remove(name.substring(0, dot));
+                }
+            }
+        }
+    }
+
+    private Properties loadMeta(String uploadId) throws IOException {
+        File meta = new File(partDir, uploadId + META_SUFFIX);
+        if (!meta.exists()) {
+            throw new FileNotFoundException("upload not found: " + uploadId);
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(meta)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    private void discard(String uploadId) {
+        new File(partDir, uploadId + PART_SUFFIX).delete();
+        new File(partDir, uploadId + META_SUFFIX).delete();
+        locks.remove(uploadId);
+    }
+
+    private Object lock(String uploadId) {
+        return locks.computeIfAbsent(uploadId, k -> new Object());
+    }
+
+    /**
+     * 限制解压后读取的字节数，超过后抛出异常
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        private boolean exceeded;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                checkLimit(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                checkLimit(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            checkLimit(skipped);
+            return skipped;
+        }
+
+        private void checkLimit(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                exceeded = true;
+                throw new IOException("pcap exceeds max unzipped size: " + limit);
+            }
+        }
+    }
+
+    /**
+     * 上传标识同时用作文件名，只允许64位小写十六进制
+     */
+    private static String checkUploadId(String uploadId) {
+        if (uploadId == null || !UPLOAD_ID_PATTERN.matcher(uploadId).matches()) {
+            throw new IllegalArgumentException("invalid uploadId: " + uploadId);
+        }
+        return uploadId;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
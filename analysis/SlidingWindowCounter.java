@@ -0,0 +1,176 @@
+package com.wgcloud.analysis;
+
+import java.util.Arrays;
+
+/**
+ * 按key统计滑动窗口内的计数，每个key一个环形分桶数组，全部用基本类型数组存储（开放寻址），
+ * 内存只和key的数量有关，与数据包数量无关。时间使用抓包时间，乱序到达的数据包只要还在窗口内就计入
+ */
+public class SlidingWindowCounter {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final int maxKeys;
+
+    private long[] keys;
+    private long[] counts;
+    private long[] lastBucket;
+    private long[] sums;
+    private boolean[] alerting;
+    private int size;
+
+    /**
+     * 计数时找不到空位被丢弃的次数
+     */
+    private long dropped;
+
+    private long lastEvictBucket = Long.MIN_VALUE;
+
+    /**
+     * @param windowMillis 窗口长度，单位：ms
+     * @param buckets      窗口分桶数
+     * @param maxKeys      最多跟踪的key数量
+     */
+    public SlidingWindowCounter(long windowMillis, int buckets, int maxKeys) {
+        this.buckets = Math.max(1, buckets);
+        this.bucketMillis = Math.max(1, windowMillis / this.buckets);
+        this.maxKeys = Math.max(16, maxKeys);
+        allocate(64);
+    }
+
+    /**
+     * 计数加1
+     *
+     * @return 加1后key在窗口内的计数，数据包早于窗口或key数量已满时返回-1
+     */
+    public long increment(long key, long timestamp) {
+        long bucket = Math.floorDiv(timestamp, bucketMillis);
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            if (size >= maxKeys && bucket != lastEvictBucket) {
+                //key数量已满时每个分桶时间段最多清理一次，避免大量源IP时每个包都重建哈希表
+                lastEvictBucket = bucket;
+                evict(bucket);
+                slot = findSlot(key);
+            }
+            if (size >= maxKeys) {
+                dropped++;
+                return -1;
+            }
+            keys[slot] = key;
+            lastBucket[slot] = bucket;
+            size++;
+            if (size * 2 > keys.length) {
+                resize(keys.length * 2, bucket);
+                slot = findSlot(key);
+            }
+        }
+        long last = lastBucket[slot];
+        if (bucket > last) {
+            //窗口向前滑动，清空滑出窗口的分桶
+            long clear = Math.min(bucket - last, buckets);
+            for (long b = bucket - clear + 1; b <= bucket; b++) {
+                int index = slot * buckets + (int) Math.floorMod(b, (long) buckets);
+                sums[slot] -= counts[index];
+                counts[index] = 0;
+            }
+            lastBucket[slot] = bucket;
+        } else if (bucket <= last - buckets) {
+            return -1;
+        }
+        counts[slot * buckets + (int) Math.floorMod(bucket, (long) buckets)]++;
+        return ++sums[slot];
+    }
+
+    /**
+     * 窗口计数超过阈值时标记报警状态，同一个key在计数回落到阈值一半以下之前只返回一次true
+     */
+    public boolean checkThreshold(long key, long count, long threshold) {
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            return false;
+        }
+        if (count > threshold) {
+            if (!alerting[slot]) {
+                alerting[slot] = true;
+                return true;
+            }
+        } else if (count < threshold / 2) {
+            alerting[slot] = false;
+        }
+        return false;
+    }
+
+    /**
+     * 删除窗口内已没有计数的key
+     */
+    public void evictExpired(long timestamp) {
+        evict(Math.floorDiv(timestamp, bucketMillis));
+    }
+
+    private void evict(long bucket) {
+        int capacity = keys.length;
+        while (capacity > 64 && size * 8 < capacity) {
+            capacity >>= 1;
+        }
+        resize(capacity, bucket);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 重建哈希表，同时丢弃已滑出窗口的key
+     */
+    private void resize(int capacity, long currentBucket) {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        long[] oldLastBucket = lastBucket;
+        long[] oldSums = sums;
+        boolean[] oldAlerting = alerting;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || oldLastBucket[i] <= currentBucket - buckets) {
+                continue;
+            }
+            int slot = findSlot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            lastBucket[slot] = oldLastBucket[i];
+            sums[slot] = oldSums[i];
+            alerting[slot] = oldAlerting[i];
+            System.arraycopy(oldCounts, i * buckets, counts, slot * buckets, buckets);
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new long[capacity * buckets];
+        lastBucket = new long[capacity];
+        sums = new long[capacity];
+        alerting = new boolean[capacity];
+        size = 0;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,203 @@
+package com.wgcloud.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Space-Saving算法统计加权计数最大的前K个key，最多跟踪capacity个key，内存固定。
+ * 跟踪的key已满时新key替换计数最小的key，并继承其计数作为误差上限。
+ * 计数最小的key用小顶堆维护，key到堆位置用开放寻址表索引，全部为基本类型数组
+ */
+public class SpaceSaving {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int capacity;
+
+    /**
+     * 小顶堆，按计数排序
+     */
+    private final long[] heapKeys;
+    private final long[] heapCounts;
+    private final long[] heapErrors;
+    private int size;
+
+    /**
+     * key到堆位置的索引
+     */
+    private final long[] tableKeys;
+    private final int[] tablePositions;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.heapKeys = new long[this.capacity];
+        this.heapCounts = new long[this.capacity];
+        this.heapErrors = new long[this.capacity];
+        int tableSize = Integer.highestOneBit(this.capacity * 4 - 1) << 1;
+        this.tableKeys = new long[tableSize];
+        this.tablePositions = new int[tableSize];
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    public void add(long key, long weight) {
+        int slot = findSlot(key);
+        int position;
+        if (tableKeys[slot] == key) {
+            position = tablePositions[slot];
+            heapCounts[position] += weight;
+        } else if (size < capacity) {
+            position = size++;
+            heapKeys[position] = key;
+            heapCounts[position] = weight;
+            heapErrors[position] = 0;
+            tableKeys[slot] = key;
+            tablePositions[slot] = position;
+            siftUp(position);
+            return;
+        } else {
+            //替换计数最小的key
+            position = 0;
+            removeFromTable(heapKeys[0]);
+            long min = heapCounts[0];
+            heapKeys[0] = key;
+            heapErrors[0] = min;
+            heapCounts[0] = min + weight;
+            slot = findSlot(key);
+            tableKeys[slot] = key;
+            tablePositions[slot] = 0;
+        }
+        siftDown(position);
+    }
+
+    /**
+     * 按计数从大到小返回前limit个key
+     */
+    public List<Entry> top(int limit) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(heapCounts[b], heapCounts[a]));
+        List<Entry> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, size); i++) {
+            int position = order[i];
+            result.add(new Entry(heapKeys[position], heapCounts[position], heapErrors[position]));
+        }
+        return result;
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (heapCounts[parent] <= heapCounts[position]) {
+                break;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int left = position * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left + 1 < size && heapCounts[left + 1] < heapCounts[left] ? left + 1 : left;
+            if (heapCounts[position] <= heapCounts[smallest]) {
+                break;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long key = heapKeys[a];
+        long count = heapCounts[a];
+        long error = heapErrors[a];
+        heapKeys[a] = heapKeys[b];
+        heapCounts[a] = heapCounts[b];
+        heapErrors[a] = heapErrors[b];
+        heapKeys[b] = key;
+        heapCounts[b] = count;
+        heapErrors[b] = error;
+        tablePositions[findSlot(heapKeys[a])] = a;
+        tablePositions[findSlot(heapKeys[b])] = b;
+    }
+
+    private int findSlot(long key) {
+        int mask = tableKeys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (tableKeys[slot] != EMPTY && tableKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 开放寻址表删除后把后续冲突的key前移，保证查找不会提前遇到空位
+     */
+    private void removeFromTable(long key) {
+        int mask = tableKeys.length - 1;
+        int slot = findSlot(key);
+        if (tableKeys[slot] == EMPTY) {
+            return;
+        }
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (tableKeys[next] == EMPTY) {
+                break;
+            }
+            long h = tableKeys[next] * 0x9E3779B97F4A7C15L;
+            int home = (int) (h ^ (h >>> 32)) & mask;
+            //home不在(slot, next]之间时可以前移到slot
+            if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+                tableKeys[slot] = tableKeys[next];
+                tablePositions[slot] = tablePositions[next];
+                slot = next;
+            }
+        }
+        tableKeys[slot] = EMPTY;
+    }
+
+    public static class Entry {
+
+        private final long key;
+        private final long count;
+        private final long error;
+
+        Entry(long key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * 计数，可能偏大，最多偏大error
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+}
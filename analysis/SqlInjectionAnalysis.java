@@ -1,35 +1,39 @@
 package com.wgcloud.analysis;
 
+import com.wgcloud.config.CommonConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 @Component
-public class SqlInjectionAnalysis {
+public class SqlInjectionAnalysis implements TrafficDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlInjectionAnalysis.class);
 
     @Autowired
     private AlarmInfoService alarmStorageService;
 
-    // SQL注入特征正则表达式
-    private static final Pattern SQL_INJECTION_PATTERNS = Pattern.compile(
-            "(?i)" +  // 忽略大小写
-                    "(" +
-                    // 特征1: 单引号结合逻辑运算符
-                    "'\\s+(OR|AND)\\s+[\\w\\d]+\\s*=\\s*[\\w\\d]+" +
-                    "|" +
-                    // 特征2: SQL关键字
-                    "\\b(ALTER|CREATE|DELETE|DROP|EXEC(UTE)?|INSERT( +INTO)?|MERGE|SELECT|UPDATE|UNION( +ALL)?)\\b" +
-                    "|" +
-                    // 特征3: 注释或语句分隔符
-                    ";|--|/\\*.*?\\*/" +
-                    "|" +
-                    // 特征4: 永真条件
-                    "\\bOR\\b\\s*\\d+\\s*=\\s*\\d+" +
-                    ")"
-    );
+    @Autowired
+    private CommonConfig commonConfig;
+
+    /**
+     * 当前使用的检测规则，规则文件修改后自动重新加载
+     */
+    private volatile SqlInjectionRules rules;
+
+    private volatile long ruleFileModified;
+
+    private final AtomicLong scannedBytes = new AtomicLong();
+
+    private final AtomicLong scanNanos = new AtomicLong();
 
     // 文件上传请求标识（新增）
     private static final Pattern FILE_UPLOAD_INDICATORS = Pattern.compile(
@@ -38,66 +42,121 @@ public class SqlInjectionAnalysis {
                     "filename\\s*=\\s*\"[^\"]+\\.\\w+\")"
     );
 
+    @PostConstruct
+    public void init() {
+        loadRules();
+    }
+
     /**
-     * 分析流量数据，检测SQL注入攻击
+     * 每分钟检查一次规则文件是否修改
      */
-    public void analyzeAndSaveSqlInjection(Map<String, StringBuilder> streamData) {
-        for (Map.Entry<String, StringBuilder> entry : streamData.entrySet()) {
-            String streamKey = entry.getKey();
-            String payload = getPayloadAsString(entry.getValue());
-
-            // 新增：排除文件上传请求（先检查是否为上传请求）
-            if (isFileUploadRequest(payload)) {
-                continue; // 跳过文件上传请求的SQL注入检测
-            }
-
-            List<String> detectedPatterns = detectSqlInjectionPatterns(payload);
-
-            if (!detectedPatterns.isEmpty()) {
-                String sourceIp = extractIpFromStream(streamKey);
-                alarmStorageService.saveSecurityAlert(
-                        0,
-                        payload,
-                        sourceIp,
-                        streamKey
-                );
-            }
+    @Scheduled(initialDelay = 60000L, fixedDelay = 60000L)
+    public void reloadRulesTask() {
+        File file = new File(commonConfig.getSqlRuleFile());
+        if (file.isFile() && file.lastModified() != ruleFileModified) {
+            loadRules();
         }
     }
 
     /**
-     * 检测是否为文件上传请求（新增方法）
+     * 每10分钟打印一次检测吞吐量
      */
-    private boolean isFileUploadRequest(String payload) {
-        if (payload == null || payload.isEmpty()) {
-            return false;
-        }
-        return FILE_UPLOAD_INDICATORS.matcher(payload).find();
+    @Scheduled(initialDelay = 60000L, fixedRate = 10 * 60 * 1000)
+    public void statTask() {
+        long nanos = scanNanos.get();
+        long bytes = scannedBytes.get();
+        double mbPerSecond = nanos == 0 ? 0 : bytes / 1048576.0 / (nanos / 1e9);
+        logger.info(String.format("SQL注入检测状态----------规则版本：%s，已检测：%d字节，吞吐量：%.1fMB/s",
+                rules.getVersion(), bytes, mbPerSecond));
+    }
+
+    private void loadRules() {
+        String ruleFile = commonConfig.getSqlRuleFile();
+        ruleFileModified = new File(ruleFile).lastModified();
+        SqlInjectionRules loaded = SqlInjectionRules.load(ruleFile);
+        rules = loaded;
+        logger.info("加载SQL注入检测规则，版本：" + loaded.getVersion() + "，规则数：" + loaded.getRuleCount());
     }
 
     /**
-     * 提取SQL注入特征（重构为独立方法）
+     * 分析单个HTTP请求，检测SQL注入攻击
+     *
+     * @return 是否检测到攻击并保存报警
      */
-    private List<String> detectSqlInjectionPatterns(String payload) {
-        List<String> patterns = new ArrayList<>();
-        if (payload == null || payload.isEmpty()) {
-            return patterns;
+    public boolean analyzeAndSaveSqlInjection(HttpRequest request) {
+        // 排除文件上传请求（先检查是否为上传请求）
+        if (isFileUploadRequest(request)) {
+            return false; // 跳过文件上传请求的SQL注入检测
         }
 
-        Matcher matcher = SQL_INJECTION_PATTERNS.matcher(payload);
-        while (matcher.find()) {
-            patterns.add(matcher.group());
+        List<String> detectedPatterns = detectSqlInjectionPatterns(request);
+
+        if (detectedPatterns.isEmpty()) {
+            return false;
         }
-        return patterns;
+        alarmStorageService.saveSecurityAlert(
+                0,
+                request.getText(),
+                request.getSourceIp(),
+                request.getStreamKey()
+        );
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "SQL注入检测";
+    }
+
+    /**
+     * 创建单个pcap文件的检测阶段，每重组出一个完整HTTP请求检测一次，同一条流只报警一次
+     */
+    @Override
+    public DetectorStage newStage(String agent) {
+        final Set<FlowKey> alertedStreams = new HashSet<>();
+        return new DetectorStage() {
+            @Override
+            public boolean onStreamComplete(HttpRequest request) {
+                if (alertedStreams.contains(request.getFlowKey())) return false;
+                if (analyzeAndSaveSqlInjection(request)) {
+                    alertedStreams.add(request.getFlowKey());
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
-    private String extractIpFromStream(String streamKey) {
-        if (streamKey == null || streamKey.isEmpty()) return "未知IP";
-        String[] parts = streamKey.split("->")[0].split(":");
-        return (parts.length > 0) ? parts[0] : "未知IP";
+    /**
+     * 检测是否为文件上传请求，无法解析为HTTP请求时按原始内容匹配
+     */
+    private boolean isFileUploadRequest(HttpRequest request) {
+        if (request.isHttp()) {
+            return request.isMultipart();
+        }
+        return FILE_UPLOAD_INDICATORS.matcher(request.getText()).find();
     }
 
-    private String getPayloadAsString(StringBuilder sb) {
-        return (sb != null) ? sb.toString() : "";
+    /**
+     * 提取SQL注入特征，只检测URL解码后的URI和文本请求体，请求头和二进制请求体不参与检测；
+     * 无法解析为HTTP请求时（如截断的请求）检测URL解码后的原始内容
+     */
+    private List<String> detectSqlInjectionPatterns(HttpRequest request) {
+        long start = System.nanoTime();
+        String scanText;
+        if (request.isHttp()) {
+            scanText = request.isTextBody()
+                    ? request.getDecodedUri() + "\n" + request.getBodyText()
+                    : request.getDecodedUri();
+        } else {
+            scanText = HttpRequest.urlDecode(request.getText());
+        }
+        if (scanText.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> patterns = rules.match(scanText);
+        scanNanos.addAndGet(System.nanoTime() - start);
+        scannedBytes.addAndGet(scanText.length());
+        return patterns;
     }
 }
\ No newline at end of file
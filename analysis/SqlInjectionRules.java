@@ -0,0 +1,157 @@
+package com.wgcloud.analysis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SQL注入检测规则集，两级匹配：先用关键字自动机一次扫描找出候选位置，
+ * 再只对候选位置附近的内容执行对应规则的正则，避免大正则在整个请求上反复回溯
+ */
+public class SqlInjectionRules {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlInjectionRules.class);
+
+    /**
+     * 规则正则匹配内容的最大长度，候选位置之前取这么多字符、之后取两倍参与正则匹配
+     */
+    private static final int WINDOW = 256;
+
+    /**
+     * 规则文件不存在时使用的内置规则，与 rules/sqli-rules.txt 相同
+     */
+    private static final String[] BUILT_IN_RULES = {
+            "# version: built-in",
+            "quote_tautology|',\"|['\"]\\s*(or|and)\\s+['\"]?\\w+['\"]?\\s*(=|<|>|like)\\s*['\"]?\\w+",
+            "numeric_tautology|or|\\bor\\s+\\d+\\s*=\\s*\\d+",
+            "union_select|union|\\bunion(\\s+all|\\s+distinct)?\\s+select\\b",
+            "select_from|select|\\bselect\\b[\\s\\S]{1,200}?\\bfrom\\b",
+            "insert_into|insert|\\binsert\\s+into\\b",
+            "delete_from|delete|\\bdelete\\s+from\\b",
+            "update_set|update|\\bupdate\\s+[\\w`.\\[\\]]+\\s+set\\b",
+            "drop_object|drop|\\bdrop\\s+(table|database|view|procedure|function|user)\\b",
+            "alter_create|alter,create|\\b(alter|create)\\s+(table|database|view|procedure|function|user)\\b",
+            "exec_proc|exec|\\bexec(ute)?\\s*(\\(|@|xp_|sp_)",
+            "stacked_query|;|;\\s*(select|insert|update|delete|drop|exec|declare|shutdown)\\b",
+            "quote_comment|--,#,/*|['\")]\\s*(--|#|/\\*)",
+            "time_blind|sleep,benchmark,waitfor,pg_sleep|\\b(sleep|pg_sleep|benchmark)\\s*\\(|\\bwaitfor\\s+delay\\b",
+            "schema_probe|information_schema,sysobjects,pg_catalog|\\b(information_schema|sysobjects|pg_catalog)\\b"
+    };
+
+    private final String version;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    /**
+     * 每个关键字对应的规则下标
+     */
+    private final List<Integer> keywordRules = new ArrayList<>();
+
+    private final AhoCorasick automaton;
+
+    private SqlInjectionRules(List<String> lines, String source) {
+        String ver = "unknown";
+        List<String> keywords = new ArrayList<>();
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                if (line.startsWith("# version:")) {
+                    ver = line.substring("# version:".length()).trim();
+                }
+                continue;
+            }
+            //正则中可能包含|，只按前两个|拆分
+            int first = line.indexOf('|');
+            int second = first < 0 ? -1 : line.indexOf('|', first + 1);
+            if (second < 0) {
+                logger.warn("SQL注入规则格式错误，已忽略：" + source + "，" + line);
+                continue;
+            }
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(line.substring(second + 1), Pattern.CASE_INSENSITIVE);
+            } catch (Exception e) {
+                logger.warn("SQL注入规则正则错误，已忽略：" + source + "，" + line, e);
+                continue;
+            }
+            int rule = names.size();
+            names.add(line.substring(0, first).trim());
+            patterns.add(pattern);
+            for (String keyword : line.substring(first + 1, second).split(",")) {
+                if (!keyword.trim().isEmpty()) {
+                    keywords.add(keyword.trim());
+                    keywordRules.add(rule);
+                }
+            }
+        }
+        this.version = ver;
+        this.automaton = new AhoCorasick(keywords);
+    }
+
+    /**
+     * 加载规则文件，文件不存在或读取失败时使用内置规则
+     */
+    public static SqlInjectionRules load(String ruleFile) {
+        if (ruleFile != null && !ruleFile.isEmpty()) {
+            File file = new File(ruleFile);
+            if (file.isFile()) {
+                try {
+                    return new SqlInjectionRules(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), ruleFile);
+                } catch (IOException e) {
+                    logger.error("读取SQL注入规则文件错误：" + ruleFile, e);
+                }
+            } else {
+                logger.warn("SQL注入规则文件不存在，使用内置规则：" + file.getAbsolutePath());
+            }
+        }
+        return new SqlInjectionRules(Arrays.asList(BUILT_IN_RULES), "built-in");
+    }
+
+    /**
+     * 检测文本，返回命中的规则和匹配内容，每条规则最多命中一次
+     */
+    public List<String> match(String text) {
+        List<String> hits = new ArrayList<>();
+        boolean[] matched = new boolean[patterns.size()];
+        //每条规则上一次执行正则的区域结束位置。候选位置之后WINDOW个字符仍在上一次区域内时，
+        //包含该位置且不超过WINDOW的匹配已在上一次区域内查找过，不再重复执行；两次执行的候选位置至少相隔WINDOW，保证总耗时线性
+        int[] regionEnds = new int[patterns.size()];
+        automaton.search(text, (keyword, end) -> {
+            int rule = keywordRules.get(keyword);
+            int start = end - automaton.getKeywordLength(keyword);
+            if (matched[rule] || start + WINDOW <= regionEnds[rule]) {
+                return true;
+            }
+            int regionEnd = Math.min(text.length(), end + 2 * WINDOW);
+            Matcher matcher = patterns.get(rule).matcher(text);
+            matcher.region(Math.max(0, start - WINDOW), regionEnd);
+            regionEnds[rule] = regionEnd;
+            if (matcher.find()) {
+                matched[rule] = true;
+                hits.add(names.get(rule) + ":" + matcher.group());
+            }
+            return true;
+        });
+        return hits;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int getRuleCount() {
+        return patterns.size();
+    }
+}
@@ -0,0 +1,595 @@
+package com.wgcloud.analysis;
+
+import org.pcap4j.packet.TcpPacket;
+
+import java.util.*;
+
+/**
+ * TCP流重组，按序号排序数据段并按HTTP请求切分，每切出一个完整请求立即交给监听方。
+ * 单流缓存和全部流缓存都有上限，流收到FIN/RST、空闲超时或超过总内存上限时结束并释放缓存。
+ * 非线程安全，每个pcap文件使用一个实例
+ */
+public class TcpReassembler {
+
+    public interface RequestListener {
+        void onHttpRequest(HttpRequest request);
+    }
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private static final byte[] CHUNKED_END = {'0', '\r', '\n', '\r', '\n'};
+
+    private static final int MIN_BUFFER_SIZE = 4096;
+
+    /**
+     * 每处理多少个数据包检查一次空闲流
+     */
+    private static final int IDLE_CHECK_INTERVAL = 1024;
+
+    private final int streamMaxBytes;
+
+    private final long maxBytes;
+
+    private final long idleTimeout;
+
+    private final RequestListener listener;
+
+    private final BufferPool pool;
+
+    /**
+     * 按最近活跃时间排序，最久未活跃的流排在最前面
+     */
+    private final FlowTable<Stream> streams = new FlowTable<>();
+
+    private long bufferedBytes;
+
+    private long packetCount;
+
+    private long requestCount;
+
+    private long evictedCount;
+
+    private long droppedBytes;
+
+    /**
+     * @param streamMaxBytes 单流最大缓存字节数，超过后当前请求截断输出
+     * @param maxBytes       所有流最大缓存字节数，超过后结束最久未活跃的流
+     * @param idleTimeout    流空闲超时时间（毫秒，按抓包时间计算）
+     * @param listener       完整请求的接收方
+     */
+    public TcpReassembler(int streamMaxBytes, long maxBytes, long idleTimeout, RequestListener listener) {
+        this.streamMaxBytes = Math.max(MIN_BUFFER_SIZE, streamMaxBytes);
+        this.maxBytes = Math.max(this.streamMaxBytes, maxBytes);
+        this.idleTimeout = idleTimeout;
+        this.listener = listener;
+        this.pool = new BufferPool(this.streamMaxBytes);
+    }
+
+    public void onPacket(PacketRecord record) {
+        if (!record.isTcp()) {
+            return;
+        }
+        TcpPacket.TcpHeader header = ((TcpPacket) record.getTransportPacket()).getHeader();
+        byte[] payload = record.getPayload();
+        long seq = header.getSequenceNumberAsLong();
+        boolean finished = header.getFin() || header.getRst();
+
+        //按基本类型查找流，只有新建流时才创建流标识对象
+        Stream stream = streams.get(0, FlowKey.ipv4Lo(record.getSrcAddrAsInt()), 0, FlowKey.ipv4Lo(record.getDstAddrAsInt()),
+                FlowKey.meta(record.getSrcPort(), record.getDstPort(), FlowKey.PROTOCOL_TCP));
+        if (stream == null) {
+            if (payload.length == 0 && (finished || !header.getSyn())) {
+                return;
+            }
+            stream = new Stream(record.getFlowKey(), header.getSyn() ? seq + 1 : seq);
+            streams.put(stream.flowKey, stream);
+        }
+        stream.lastSeen = record.getTimestamp();
+        if (payload.length > 0) {
+            stream.accept(header.getSyn() ? seq + 1 : seq, payload);
+        }
+        if (finished) {
+            streams.remove(stream.flowKey);
+            stream.close();
+        }
+
+        if (++packetCount % IDLE_CHECK_INTERVAL == 0) {
+            evictIdle(record.getTimestamp());
+        }
+        if (bufferedBytes > maxBytes) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * 文件读取完毕，结束所有流并输出剩余数据
+     */
+    public void finish() {
+        Stream stream;
+        while ((stream = streams.removeFirst()) != null) {
+            stream.close();
+        }
+    }
+
+    private void evictIdle(long now) {
+        Stream stream;
+        while ((stream = streams.first()) != null && now - stream.lastSeen >= idleTimeout) {
+            streams.removeFirst();
+            stream.close();
+            evictedCount++;
+        }
+    }
+
+    private void evictOldest() {
+        Stream stream;
+        while (bufferedBytes > maxBytes && (stream = streams.removeFirst()) != null) {
+            stream.close();
+            evictedCount++;
+        }
+    }
+
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TcpReassembler[streams=" + streams.size() + ", buffered=" + bufferedBytes + ", requests=" + requestCount
+                + ", evicted=" + evictedCount + ", dropped=" + droppedBytes + "]";
+    }
+
+    /**
+     * 单个方向的TCP流
+     */
+    private class Stream {
+
+        private final FlowKey flowKey;
+
+        /**
+         * 第一个数据字节的序号，流内位置都用相对该序号的偏移表示，可以处理序号回绕
+         */
+        private final long isn;
+
+        /**
+         * 下一个期望收到的相对偏移
+         */
+        private long nextOffset;
+
+        /**
+         * 乱序到达、等待前面数据补齐的数据段
+         */
+        private final TreeMap<Long, byte[]> pending = new TreeMap<>();
+
+        private int pendingBytes;
+
+        private byte[] buf;
+
+        private int length;
+
+        /**
+         * 当前请求头部结束符的查找起点，避免每次追加数据都从头查找
+         */
+        private int scanFrom;
+
+        /**
+         * 当前请求的结束位置，-1表示请求头还不完整，-2表示chunked编码、需要查找结束块
+         */
+        private int messageEnd = -1;
+
+        private int chunkedFrom;
+
+        /**
+         * 截断请求后剩余需要丢弃的字节数
+         */
+        private long skipRemaining;
+
+        /**
+         * 截断了chunked请求，丢弃数据直到chunked结束块
+         */
+        private boolean skipChunked;
+
+        private long lastSeen;
+
+        Stream(FlowKey flowKey, long isn) {
+            this.flowKey = flowKey;
+            this.isn = isn;
+        }
+
+        void accept(long seq, byte[] data) {
+            long offset = (seq - isn) & 0xFFFFFFFFL;
+            if (offset > Integer.MAX_VALUE) {
+                //序号在流开始之前，属于重传的旧数据
+                return;
+            }
+            long end = offset + data.length;
+            if (end <= nextOffset) {
+                return;
+            }
+            //乱序数据过多，认为中间的数据段已丢失，跳过缺口继续处理
+            while (offset > nextOffset && pendingBytes + data.length > streamMaxBytes && !pending.isEmpty()) {
+                skipGap();
+            }
+            if (offset > nextOffset) {
+                if (pendingBytes + data.length > streamMaxBytes) {
+                    droppedBytes += data.length;
+                } else if (pending.putIfAbsent(offset, data) == null) {
+                    pendingBytes += data.length;
+                    bufferedBytes += data.length;
+                }
+                return;
+            }
+            if (end <= nextOffset) {
+                return;
+            }
+            int start = (int) (nextOffset - offset);
+            nextOffset = end;
+            append(data, start, data.length - start);
+            drainPending();
+        }
+
+        private void drainPending() {
+            while (!pending.isEmpty()) {
+                Map.Entry<Long, byte[]> first = pending.firstEntry();
+                long offset = first.getKey();
+                if (offset > nextOffset) {
+                    return;
+                }
+                byte[] data = first.getValue();
+                pending.pollFirstEntry();
+                pendingBytes -= data.length;
+                bufferedBytes -= data.length;
+                long end = offset + data.length;
+                if (end > nextOffset) {
+                    int start = (int) (nextOffset - offset);
+                    nextOffset = end;
+                    append(data, start, data.length - start);
+                }
+            }
+        }
+
+        private void skipGap() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            droppedBytes += pending.firstKey() - nextOffset;
+            //缺口前的不完整请求截断输出，缺口后的数据重新开始切分
+            if (length > 0) {
+                emit(length, true);
+            }
+            resetMessage();
+            skipRemaining = 0;
+            skipChunked = false;
+            nextOffset = pending.firstKey();
+            drainPending();
+        }
+
+        private void append(byte[] data, int off, int len) {
+            while (len > 0) {
+                if (skipRemaining > 0) {
+                    int n = (int) Math.min(skipRemaining, len);
+                    skipRemaining -= n;
+                    droppedBytes += n;
+                    off += n;
+                    len -= n;
+                    continue;
+                }
+                int n = Math.min(streamMaxBytes - length, len);
+                ensureCapacity(length + n);
+                System.arraycopy(data, off, buf, length, n);
+                length += n;
+                bufferedBytes += n;
+                off += n;
+                len -= n;
+                if (skipChunked) {
+                    skipToChunkedEnd();
+                } else {
+                    splitRequests();
+                }
+                if (length >= streamMaxBytes) {
+                    truncate();
+                }
+            }
+        }
+
+        /**
+         * 从缓存中切出所有已完整的请求
+         */
+        private void splitRequests() {
+            while (length > 0) {
+                if (messageEnd == -1) {
+                    int headerEnd = indexOf(buf, scanFrom, length, HEADER_END);
+                    if (headerEnd < 0) {
+                        scanFrom = Math.max(0, length - HEADER_END.length + 1);
+                        return;
+                    }
+                    int bodyStart = headerEnd + HEADER_END.length;
+                    long contentLength = 0;
+                    boolean chunked = false;
+                    int lineStart = 0;
+                    while (lineStart < headerEnd) {
+                        int lineEnd = indexOf(buf, lineStart, headerEnd, HEADER_END, 2);
+                        if (lineEnd < 0) {
+                            lineEnd = headerEnd;
+                        }
+                        if (startsWithIgnoreCase(buf, lineStart, lineEnd, "content-length:")) {
+                            contentLength = parseLong(buf, lineStart + 15, lineEnd);
+                        } else if (startsWithIgnoreCase(buf, lineStart, lineEnd, "transfer-encoding:")) {
+                            chunked = containsIgnoreCase(buf, lineStart + 18, lineEnd, "chunked");
+                        }
+                        lineStart = lineEnd + 2;
+                    }
+                    if (chunked) {
+                        messageEnd = -2;
+                        chunkedFrom = bodyStart;
+                    } else {
+                        messageEnd = (int) Math.min(Integer.MAX_VALUE, bodyStart + contentLength);
+                    }
+                }
+                int end = messageEnd == -2 ? findChunkedEnd() : messageEnd;
+                if (end < 0 || end > length) {
+                    return;
+                }
+                emit(end, false);
+                resetMessage();
+            }
+        }
+
+        /**
+         * 查找chunked消息的结束位置，数据不完整时返回-1
+         */
+        private int findChunkedEnd() {
+            int pos = chunkedFrom;
+            while (true) {
+                int lineEnd = indexOf(buf, pos, length, HEADER_END, 2);
+                if (lineEnd < 0) {
+                    return -1;
+                }
+                long size = parseHex(buf, pos, lineEnd);
+                if (size < 0) {
+                    //格式错误，已有数据作为一个请求输出
+                    return length;
+                }
+                if (size == 0) {
+                    int trailerEnd = indexOf(buf, lineEnd, length, HEADER_END);
+                    return trailerEnd < 0 ? -1 : trailerEnd + HEADER_END.length;
+                }
+                long next = lineEnd + 2L + size + 2L;
+                if (next > length) {
+                    return -1;
+                }
+                pos = (int) next;
+                chunkedFrom = pos;
+            }
+        }
+
+        private void skipToChunkedEnd() {
+            int end = indexOf(buf, 0, length, CHUNKED_END);
+            if (end < 0) {
+                //只保留末尾可能属于结束块的几个字节
+                int keep = Math.min(length, CHUNKED_END.length - 1);
+                droppedBytes += length - keep;
+                consume(length - keep);
+                return;
+            }
+            droppedBytes += end + CHUNKED_END.length;
+            consume(end + CHUNKED_END.length);
+            skipChunked = false;
+            splitRequests();
+        }
+
+        /**
+         * 缓存已满仍未切出完整请求，已有数据截断输出，丢弃该请求剩余部分
+         */
+        private void truncate() {
+            if (skipChunked) {
+                consume(length);
+                return;
+            }
+            if (messageEnd >= 0) {
+                skipRemaining = (long) messageEnd - length;
+            } else if (messageEnd == -2) {
+                skipChunked = true;
+            }
+            emit(length, true);
+            resetMessage();
+        }
+
+        private void emit(int end, boolean truncated) {
+            byte[] data = Arrays.copyOf(buf, end);
+            consume(end);
+            requestCount++;
+            listener.onHttpRequest(new HttpRequest(flowKey, data, lastSeen, truncated));
+        }
+
+        private void consume(int n) {
+            if (n <= 0) {
+                return;
+            }
+            System.arraycopy(buf, n, buf, 0, length - n);
+            length -= n;
+            bufferedBytes -= n;
+        }
+
+        private void resetMessage() {
+            messageEnd = -1;
+            scanFrom = 0;
+            chunkedFrom = 0;
+        }
+
+        private void ensureCapacity(int size) {
+            if (buf != null && buf.length >= size) {
+                return;
+            }
+            byte[] bigger = pool.acquire(size);
+            if (buf != null) {
+                System.arraycopy(buf, 0, bigger, 0, length);
+                pool.release(buf);
+            }
+            buf = bigger;
+        }
+
+        /**
+         * 流结束，剩余数据作为最后一个请求输出并归还缓存
+         */
+        void close() {
+            if (length > 0 && !skipChunked) {
+                emit(length, true);
+            } else {
+                droppedBytes += length;
+                bufferedBytes -= length;
+                length = 0;
+            }
+            droppedBytes += pendingBytes;
+            bufferedBytes -= pendingBytes;
+            pending.clear();
+            pendingBytes = 0;
+            if (buf != null) {
+                pool.release(buf);
+                buf = null;
+            }
+        }
+    }
+
+    static int indexOf(byte[] buf, int from, int to, byte[] target) {
+        return indexOf(buf, from, to, target, target.length);
+    }
+
+    static int indexOf(byte[] buf, int from, int to, byte[] target, int targetLength) {
+        outer:
+        for (int i = Math.max(0, from); i <= to - targetLength; i++) {
+            for (int j = 0; j < targetLength; j++) {
+                if (buf[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static boolean startsWithIgnoreCase(byte[] buf, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) buf[from + i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean containsIgnoreCase(byte[] buf, int from, int to, String target) {
+        for (int i = from; i <= to - target.length(); i++) {
+            if (startsWithIgnoreCase(buf, i, to, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long parseLong(byte[] buf, int from, int to) {
+        long value = 0;
+        boolean found = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                found = true;
+                if (value > Integer.MAX_VALUE) {
+                    return Integer.MAX_VALUE;
+                }
+            } else if (found || (b != ' ' && b != '\t')) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 解析chunk大小行，忽略分号后的扩展参数，格式错误返回-1
+     */
+    static long parseHex(byte[] buf, int from, int to) {
+        long value = 0;
+        boolean found = false;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit((char) buf[i], 16);
+            if (digit >= 0) {
+                value = value * 16 + digit;
+                found = true;
+                if (value > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            } else if (buf[i] == ';' || buf[i] == ' ' || buf[i] == '\t') {
+                break;
+            } else {
+                return -1;
+            }
+        }
+        return found ? value : -1;
+    }
+
+    /**
+     * 按2的幂分级复用缓存数组，流结束后归还，避免大量短连接反复分配
+     */
+    static class BufferPool {
+
+        private static final int MAX_PER_CLASS = 16;
+
+        private final List<ArrayDeque<byte[]>> classes = new ArrayList<>();
+
+        BufferPool(int maxBufferSize) {
+            for (int size = MIN_BUFFER_SIZE; ; size <<= 1) {
+                classes.add(new ArrayDeque<byte[]>());
+                if (size >= maxBufferSize) {
+                    break;
+                }
+            }
+        }
+
+        byte[] acquire(int minSize) {
+            int index = classIndex(minSize);
+            if (index < classes.size()) {
+                byte[] buf = classes.get(index).poll();
+                if (buf != null) {
+                    return buf;
+                }
+            }
+            return new byte[MIN_BUFFER_SIZE << index];
+        }
+
+        void release(byte[] buf) {
+            int index = classIndex(buf.length);
+            if (index < classes.size() && (MIN_BUFFER_SIZE << index) == buf.length) {
+                ArrayDeque<byte[]> queue = classes.get(index);
+                if (queue.size() < MAX_PER_CLASS) {
+                    queue.push(buf);
+                }
+            }
+        }
+
+        private static int classIndex(int size) {
+            int index = 0;
+            while ((MIN_BUFFER_SIZE << index) < size) {
+                index++;
+            }
+            return index;
+        }
+    }
+}
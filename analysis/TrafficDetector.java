@@ -0,0 +1,20 @@
+package com.wgcloud.analysis;
+
+/**
+ * 流量检测器扩展接口，实现类注册为Spring bean后自动加入pcap分析。
+ * 所有检测器共用一次解码和TCP流重组的结果，各检测器在各自的线程中并行处理
+ */
+public interface TrafficDetector {
+
+    /**
+     * 检测器名称，用于日志和检测指标
+     */
+    String getName();
+
+    /**
+     * 创建单个pcap文件的检测阶段
+     *
+     * @param agent 上传文件的agent标识，检测器可以按agent保留跨文件的状态
+     */
+    DetectorStage newStage(String agent);
+}
@@ -1,10 +1,14 @@
 package com.wgcloud.config;
 
+import com.wgcloud.dto.CaptureProfile;
 import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 
 @Data
 @Configuration
@@ -18,6 +22,98 @@ public class CommonConfig {
     private String dashView;
     private Integer dbTableTimes = 3600000;
     private Integer heathTimes = 600000;
+    //agent上报数据缓冲区写满时的策略，reject拒绝（返回429），dropOldest丢弃最旧数据
+    private String ingestOverflow = "dropOldest";
+    //上报数据缓冲达到该条数时立即入库
+    private Integer flushRows = 1000;
+    //上报数据最长缓冲时间，单位：ms
+    private Integer flushMaxAge = 5000;
+    //并行入库线程数
+    private Integer flushThreads = 4;
+    //每次批量insert的最大条数
+    private Integer flushChunkSize = 500;
+    //pcap分析TCP流重组单条流最大缓存字节数，超过后请求截断
+    private Integer reassemblyStreamMaxBytes = 1048576;
+    //pcap分析TCP流重组所有流最大缓存字节数
+    private Long reassemblyMaxBytes = 67108864L;
+    //pcap分析TCP流空闲超时时间（按抓包时间），单位：ms
+    private Integer reassemblyIdleTimeout = 60000;
+    //agent上传的pcap文件缓存目录，分析完成后删除
+    private String pcapSpoolDir = "./upload/pcap";
+    //pcap分析线程数
+    private Integer pcapWorkers = 2;
+    //pcap分析队列最多缓存文件数，超过后拒绝上传（返回429）
+    private Integer pcapQueueSize = 200;
+    //单个agent最多缓存文件数
+    private Integer pcapQueuePerAgent = 20;
+    //agent分块上传的单个pcap压缩文件最大字节数
+    private Long pcapUploadMaxBytes = 1073741824L;
+    //上传的pcap文件解压后的最大字节数，超过后丢弃本次上传，防止小压缩文件解压后占满磁盘
+    private Long pcapUnzipMaxBytes = 4294967296L;
+    //pcap分析的目标IP，只分析发往该IP的流量
+    private String pcapTargetIp = "192.168.1.1";
+    //按主机下发给agent的抓包配置，key为主机ip，default为未单独配置主机的默认值
+    private Map<String, CaptureProfile> captureProfiles = new HashMap<>();
+    //SQL注入检测规则文件，修改后一分钟内自动重新加载，文件不存在时使用内置规则
+    private String sqlRuleFile = "./rules/sqli-rules.txt";
+
+    //DDoS检测滑动窗口长度，单位：秒（按抓包时间）
+    private Integer ddosWindowSeconds = 10;
+    //DDoS检测滑动窗口分桶数，越多越精确
+    private Integer ddosWindowBuckets = 10;
+    //窗口内发往同一目标端口的SYN包超过该值报SYN Flood
+    private Integer ddosSynThreshold = 1000;
+    //窗口内发往同一目标端口的UDP包超过该值报UDP Flood
+    private Integer ddosUdpThreshold = 5000;
+    //窗口内单个源IP发往同一目标端口的SYN/UDP包超过该值报高频请求
+    private Integer ddosSourceThreshold = 100;
+
+    //按源IP统计频次的Count-Min Sketch每行计数器个数，每个agent占用内存约为 分桶数×4×该值×4 字节
+    private Integer ddosSketchWidth = 4096;
+    //每个agent统计流量最大源IP时最多跟踪的源IP数
+    private Integer topTalkerCapacity = 256;
+
+    //报警写入队列最多缓存的合并报警数，超过后新的报警丢弃
+    private Integer alarmQueueSize = 10000;
+    //同一报警类型、同一IP在该时间段内的报警合并为一条，单位：秒
+    private Integer alarmBucketSeconds = 60;
+
+    //离线IP地址库文件（CSV：起始IP,结束IP,地理位置），首次加载时生成同名.idx索引
+    private String ipDbFile = "./data/ip-location.csv";
+    //IP地理位置查询结果缓存条数
+    private Integer ipLocationCacheSize = 10000;
+
+    //报警IP地理位置补全任务每批处理的IP数量
+    private Integer locationBackfillBatchSize = 500;
+
+    //各检测器是否在各自的线程中并行处理同一个pcap文件
+    private Boolean detectorParallel = true;
+    //并行检测时每个检测器等待处理的最大批次数，每批256个数据包或HTTP请求
+    private Integer detectorQueueBatches = 16;
+
+    //主机和进程超过多少秒未上报判定为下线
+    private Integer heartbeatTimeoutSeconds = 300;
+
+    //服务接口检测的线程数
+    private Integer heathProbeThreads = 64;
+    //同一主机同时检测的接口数上限
+    private Integer heathProbePerHost = 4;
+    //服务接口检测的连接和读取超时，单位：ms
+    private Integer heathProbeTimeoutMillis = 5000;
+
+    //每个监控数据源连接池的最大连接数
+    private Integer dbPoolMaxSize = 2;
+    //监控数据源连接空闲多久后关闭，连接池多久未使用后关闭，单位：ms
+    private Integer dbPoolIdleMillis = 600000;
+    //获取监控数据源连接的超时时间，单位：ms
+    private Integer dbConnectTimeoutMillis = 10000;
+
+    //同时统计数据表的数据源个数
+    private Integer tableCountDbThreads = 4;
+    //每个数据源同时执行的统计SQL个数
+    private Integer tableCountPerDb = 2;
+    //单条统计SQL的超时时间，单位：秒
+    private Integer tableCountTimeoutSeconds = 300;
 
 
     public String getAdmindPwd() {
@@ -69,4 +165,470 @@ public class CommonConfig {
     public void setHeathTimes(Integer heathTimes) {
         this.heathTimes = heathTimes;
     }
+
+    public String getIngestOverflow() {
+        if (StringUtils.isEmpty(ingestOverflow)) {
+            return "dropOldest";
+        }
+        return ingestOverflow;
+    }
+
+    public void setIngestOverflow(String ingestOverflow) {
+        this.ingestOverflow = ingestOverflow;
+    }
+
+    public Integer getFlushRows() {
+        if (flushRows == null) {
+            return 1000;
+        }
+        return flushRows;
+    }
+
+    public void setFlushRows(Integer flushRows) {
+        this.flushRows = flushRows;
+    }
+
+    public Integer getFlushMaxAge() {
+        if (flushMaxAge == null) {
+            return 5000;
+        }
+        return flushMaxAge;
+    }
+
+    public void setFlushMaxAge(Integer flushMaxAge) {
+        this.flushMaxAge = flushMaxAge;
+    }
+
+    public Integer getFlushThreads() {
+        if (flushThreads == null) {
+            return 4;
+        }
+        return flushThreads;
+    }
+
+    public void setFlushThreads(Integer flushThreads) {
+        this.flushThreads = flushThreads;
+    }
+
+    public Integer getFlushChunkSize() {
+        if (flushChunkSize == null) {
+            return 500;
+        }
+        return flushChunkSize;
+    }
+
+    public void setFlushChunkSize(Integer flushChunkSize) {
+        this.flushChunkSize = flushChunkSize;
+    }
+
+    public Integer getReassemblyStreamMaxBytes() {
+        if (reassemblyStreamMaxBytes == null) {
+            return 1048576;
+        }
+        return reassemblyStreamMaxBytes;
+    }
+
+    public void setReassemblyStreamMaxBytes(Integer reassemblyStreamMaxBytes) {
+        this.reassemblyStreamMaxBytes = reassemblyStreamMaxBytes;
+    }
+
+    public Long getReassemblyMaxBytes() {
+        if (reassemblyMaxBytes == null) {
+            return 67108864L;
+        }
+        return reassemblyMaxBytes;
+    }
+
+    public void setReassemblyMaxBytes(Long reassemblyMaxBytes) {
+        this.reassemblyMaxBytes = reassemblyMaxBytes;
+    }
+
+    public Integer getReassemblyIdleTimeout() {
+        if (reassemblyIdleTimeout == null) {
+            return 60000;
+        }
+        return reassemblyIdleTimeout;
+    }
+
+    public void setReassemblyIdleTimeout(Integer reassemblyIdleTimeout) {
+        this.reassemblyIdleTimeout = reassemblyIdleTimeout;
+    }
+
+    public String getPcapSpoolDir() {
+        if (StringUtils.isEmpty(pcapSpoolDir)) {
+            return "./upload/pcap";
+        }
+        return pcapSpoolDir;
+    }
+
+    public void setPcapSpoolDir(String pcapSpoolDir) {
+        this.pcapSpoolDir = pcapSpoolDir;
+    }
+
+    public Integer getPcapWorkers() {
+        if (pcapWorkers == null) {
+            return 2;
+        }
+        return pcapWorkers;
+    }
+
+    public void setPcapWorkers(Integer pcapWorkers) {
+        this.pcapWorkers = pcapWorkers;
+    }
+
+    public Integer getPcapQueueSize() {
+        if (pcapQueueSize == null) {
+            return 200;
+        }
+        return pcapQueueSize;
+    }
+
+    public void setPcapQueueSize(Integer pcapQueueSize) {
+        this.pcapQueueSize = pcapQueueSize;
+    }
+
+    public Integer getPcapQueuePerAgent() {
+        if (pcapQueuePerAgent == null) {
+            return 20;
+        }
+        return pcapQueuePerAgent;
+    }
+
+    public void setPcapQueuePerAgent(Integer pcapQueuePerAgent) {
+        this.pcapQueuePerAgent = pcapQueuePerAgent;
+    }
+
+    public Long getPcapUploadMaxBytes() {
+        if (pcapUploadMaxBytes == null) {
+            return 1073741824L;
+        }
+        return pcapUploadMaxBytes;
+    }
+
+    public void setPcapUploadMaxBytes(Long pcapUploadMaxBytes) {
+        this.pcapUploadMaxBytes = pcapUploadMaxBytes;
+    }
+
+    public Long getPcapUnzipMaxBytes() {
+        if (pcapUnzipMaxBytes == null) {
+            return 4294967296L;
+        }
+        return pcapUnzipMaxBytes;
+    }
+
+    public void setPcapUnzipMaxBytes(Long pcapUnzipMaxBytes) {
+        this.pcapUnzipMaxBytes = pcapUnzipMaxBytes;
+    }
+
+    public String getPcapTargetIp() {
+        if (StringUtils.isEmpty(pcapTargetIp)) {
+            return "192.168.1.1";
+        }
+        return pcapTargetIp;
+    }
+
+    public void setPcapTargetIp(String pcapTargetIp) {
+        this.pcapTargetIp = pcapTargetIp;
+    }
+
+    public String getSqlRuleFile() {
+        if (StringUtils.isEmpty(sqlRuleFile)) {
+            return "./rules/sqli-rules.txt";
+        }
+        return sqlRuleFile;
+    }
+
+    public void setSqlRuleFile(String sqlRuleFile) {
+        this.sqlRuleFile = sqlRuleFile;
+    }
+
+    public Integer getDdosWindowSeconds() {
+        if (ddosWindowSeconds == null) {
+            return 10;
+        }
+        return ddosWindowSeconds;
+    }
+
+    public void setDdosWindowSeconds(Integer ddosWindowSeconds) {
+        this.ddosWindowSeconds = ddosWindowSeconds;
+    }
+
+    public Integer getDdosWindowBuckets() {
+        if (ddosWindowBuckets == null) {
+            return 10;
+        }
+        return ddosWindowBuckets;
+    }
+
+    public void setDdosWindowBuckets(Integer ddosWindowBuckets) {
+        this.ddosWindowBuckets = ddosWindowBuckets;
+    }
+
+    public Integer getDdosSynThreshold() {
+        if (ddosSynThreshold == null) {
+            return 1000;
+        }
+        return ddosSynThreshold;
+    }
+
+    public void setDdosSynThreshold(Integer ddosSynThreshold) {
+        this.ddosSynThreshold = ddosSynThreshold;
+    }
+
+    public Integer getDdosUdpThreshold() {
+        if (ddosUdpThreshold == null) {
+            return 5000;
+        }
+        return ddosUdpThreshold;
+    }
+
+    public void setDdosUdpThreshold(Integer ddosUdpThreshold) {
+        this.ddosUdpThreshold = ddosUdpThreshold;
+    }
+
+    public Integer getDdosSourceThreshold() {
+        if (ddosSourceThreshold == null) {
+            return 100;
+        }
+        return ddosSourceThreshold;
+    }
+
+    public void setDdosSourceThreshold(Integer ddosSourceThreshold) {
+        this.ddosSourceThreshold = ddosSourceThreshold;
+    }
+
+    public Integer getDdosSketchWidth() {
+        if (ddosSketchWidth == null) {
+            return 4096;
+        }
+        return ddosSketchWidth;
+    }
+
+    public void setDdosSketchWidth(Integer ddosSketchWidth) {
+        this.ddosSketchWidth = ddosSketchWidth;
+    }
+
+    public Integer getTopTalkerCapacity() {
+        if (topTalkerCapacity == null) {
+            return 256;
+        }
+        return topTalkerCapacity;
+    }
+
+    public void setTopTalkerCapacity(Integer topTalkerCapacity) {
+        this.topTalkerCapacity = topTalkerCapacity;
+    }
+
+    public Integer getAlarmQueueSize() {
+        if (alarmQueueSize == null) {
+            return 10000;
+        }
+        return alarmQueueSize;
+    }
+
+    public void setAlarmQueueSize(Integer alarmQueueSize) {
+        this.alarmQueueSize = alarmQueueSize;
+    }
+
+    public Integer getAlarmBucketSeconds() {
+        if (alarmBucketSeconds == null) {
+            return 60;
+        }
+        return alarmBucketSeconds;
+    }
+
+    public void setAlarmBucketSeconds(Integer alarmBucketSeconds) {
+        this.alarmBucketSeconds = alarmBucketSeconds;
+    }
+
+    public String getIpDbFile() {
+        if (StringUtils.isEmpty(ipDbFile)) {
+            return "./data/ip-location.csv";
+        }
+        return ipDbFile;
+    }
+
+    public void setIpDbFile(String ipDbFile) {
+        this.ipDbFile = ipDbFile;
+    }
+
+    public Integer getIpLocationCacheSize() {
+        if (ipLocationCacheSize == null) {
+            return 10000;
+        }
+        return ipLocationCacheSize;
+    }
+
+    public void setIpLocationCacheSize(Integer ipLocationCacheSize) {
+        this.ipLocationCacheSize = ipLocationCacheSize;
+    }
+
+    public Integer getLocationBackfillBatchSize() {
+        if (locationBackfillBatchSize == null) {
+            return 500;
+        }
+        return locationBackfillBatchSize;
+    }
+
+    public void setLocationBackfillBatchSize(Integer locationBackfillBatchSize) {
+        this.locationBackfillBatchSize = locationBackfillBatchSize;
+    }
+
+    public Boolean getDetectorParallel() {
+        if (detectorParallel == null) {
+            return true;
+        }
+        return detectorParallel;
+    }
+
+    public void setDetectorParallel(Boolean detectorParallel) {
+        this.detectorParallel = detectorParallel;
+    }
+
+    public Integer getDetectorQueueBatches() {
+        if (detectorQueueBatches == null) {
+            return 16;
+        }
+        return detectorQueueBatches;
+    }
+
+    public void setDetectorQueueBatches(Integer detectorQueueBatches) {
+        this.detectorQueueBatches = detectorQueueBatches;
+    }
+
+    public Integer getHeartbeatTimeoutSeconds() {
+        if (heartbeatTimeoutSeconds == null) {
+            return 300;
+        }
+        return heartbeatTimeoutSeconds;
+    }
+
+    public void setHeartbeatTimeoutSeconds(Integer heartbeatTimeoutSeconds) {
+        this.heartbeatTimeoutSeconds = heartbeatTimeoutSeconds;
+    }
+
+    public Integer getHeathProbeThreads() {
+        if (heathProbeThreads == null) {
+            return 64;
+        }
+        return heathProbeThreads;
+    }
+
+    public void setHeathProbeThreads(Integer heathProbeThreads) {
+        this.heathProbeThreads = heathProbeThreads;
+    }
+
+    public Integer getHeathProbePerHost() {
+        if (heathProbePerHost == null) {
+            return 4;
+        }
+        return heathProbePerHost;
+    }
+
+    public void setHeathProbePerHost(Integer heathProbePerHost) {
+        this.heathProbePerHost = heathProbePerHost;
+    }
+
+    public Integer getHeathProbeTimeoutMillis() {
+        if (heathProbeTimeoutMillis == null) {
+            return 5000;
+        }
+        return heathProbeTimeoutMillis;
+    }
+
+    public void setHeathProbeTimeoutMillis(Integer heathProbeTimeoutMillis) {
+        this.heathProbeTimeoutMillis = heathProbeTimeoutMillis;
+    }
+
+    public Integer getDbPoolMaxSize() {
+        if (dbPoolMaxSize == null) {
+            return 2;
+        }
+        return dbPoolMaxSize;
+    }
+
+    public void setDbPoolMaxSize(Integer dbPoolMaxSize) {
+        this.dbPoolMaxSize = dbPoolMaxSize;
+    }
+
+    public Integer getDbPoolIdleMillis() {
+        if (dbPoolIdleMillis == null) {
+            return 600000;
+        }
+        return dbPoolIdleMillis;
+    }
+
+    public void setDbPoolIdleMillis(Integer dbPoolIdleMillis) {
+        this.dbPoolIdleMillis = dbPoolIdleMillis;
+    }
+
+    public Integer getDbConnectTimeoutMillis() {
+        if (dbConnectTimeoutMillis == null) {
+            return 10000;
+        }
+        return dbConnectTimeoutMillis;
+    }
+
+    public void setDbConnectTimeoutMillis(Integer dbConnectTimeoutMillis) {
+        this.dbConnectTimeoutMillis = dbConnectTimeoutMillis;
+    }
+
+    public Integer getTableCountDbThreads() {
+        if (tableCountDbThreads == null) {
+            return 4;
+        }
+        return tableCountDbThreads;
+    }
+
+    public void setTableCountDbThreads(Integer tableCountDbThreads) {
+        this.tableCountDbThreads = tableCountDbThreads;
+    }
+
+    public Integer getTableCountPerDb() {
+        if (tableCountPerDb == null) {
+            return 2;
+        }
+        return tableCountPerDb;
+    }
+
+    public void setTableCountPerDb(Integer tableCountPerDb) {
+        this.tableCountPerDb = tableCountPerDb;
+    }
+
+    public Integer getTableCountTimeoutSeconds() {
+        if (tableCountTimeoutSeconds == null) {
+            return 300;
+        }
+        return tableCountTimeoutSeconds;
+    }
+
+    public void setTableCountTimeoutSeconds(Integer tableCountTimeoutSeconds) {
+        this.tableCountTimeoutSeconds = tableCountTimeoutSeconds;
+    }
+
+    public Map<String, CaptureProfile> getCaptureProfiles() {
+        return captureProfiles;
+    }
+
+    public void setCaptureProfiles(Map<String, CaptureProfile> captureProfiles) {
+        this.captureProfiles = captureProfiles;
+    }
+
+    /**
+     * 获取主机的抓包配置，没有单独配置时使用default，都没有配置时只抓发往目标IP的TCP/UDP流量
+     */
+    public CaptureProfile getCaptureProfile(String hostname) {
+        CaptureProfile profile = null;
+        if (captureProfiles != null) {
+            profile = captureProfiles.get(hostname);
+            if (profile == null) {
+                profile = captureProfiles.get("default");
+            }
+        }
+        if (profile == null) {
+            profile = new CaptureProfile();
+            profile.setBpf("dst host " + getPcapTargetIp() + " and (tcp or udp)");
+        }
+        return profile;
+    }
 }
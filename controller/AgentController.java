@@ -4,13 +4,21 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.wgcloud.analysis.AnlysisPcap;
+import com.wgcloud.analysis.PcapAnalysisQueue;
+import com.wgcloud.analysis.PcapChunkUpload;
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.dto.BlacklistDelta;
+import com.wgcloud.dto.CaptureProfile;
 import com.wgcloud.entity.*;
+import com.wgcloud.service.IpBlacklistService;
 import com.wgcloud.service.LogInfoService;
 import com.wgcloud.service.SystemInfoService;
+import com.wgcloud.task.HeartbeatTracker;
 import com.wgcloud.util.TokenUtils;
+import com.wgcloud.util.batch.IngestRingBuffer;
 import com.wgcloud.util.msg.WarnMailUtil;
 import com.wgcloud.util.staticvar.BatchData;
+import org.apache.commons.lang3.StringUtils;
 import org.pcap4j.core.NotOpenException;
 import org.pcap4j.core.PcapHandle;
 import org.pcap4j.core.PcapNativeException;
@@ -26,9 +34,14 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -49,7 +62,6 @@ public class AgentController {
 
 
     private static final Logger logger = LoggerFactory.getLogger(AgentController.class);
-    private static final String UPLOAD_DIR = "E:\\wgcloud-new\\wgcloud-3.5.7\\upload\\pcap";
 
     ThreadPoolExecutor executor = new ThreadPoolExecutor(10, 40, 2, TimeUnit.MINUTES, new LinkedBlockingDeque<>());
 
@@ -62,11 +74,19 @@ public class AgentController {
     private TokenUtils tokenUtils;
 
     @Autowired
-    private AnlysisPcap anlysisPcap;
+    private PcapAnalysisQueue pcapAnalysisQueue;
+    @Autowired
+    private PcapChunkUpload pcapChunkUpload;
+    @Autowired
+    private CommonConfig commonConfig;
+    @Autowired
+    private IpBlacklistService ipBlacklistService;
+    @Autowired
+    private HeartbeatTracker heartbeatTracker;
 
     @ResponseBody
     @RequestMapping("/minTask")
-    public JSONObject minTask(@RequestBody String paramBean) {
+    public JSONObject minTask(@RequestBody String paramBean, HttpServletResponse response) {
          JSONObject agentJsonObject = (JSONObject) JSONUtil.parse(paramBean);
         JSONObject resultJson = new JSONObject();
         if (!tokenUtils.checkAgentToken(agentJsonObject)) {
@@ -85,64 +105,83 @@ public class AgentController {
         JSONArray deskStateList = agentJsonObject.getJSONArray("deskStateList");
 
         try {
+            LogInfo logInfoBean = logInfo == null ? null : BeanUtil.toBean(logInfo, LogInfo.class);
+            CpuState cpuStateBean = cpuState == null ? null : BeanUtil.toBean(cpuState, CpuState.class);
+            MemState memStateBean = memState == null ? null : BeanUtil.toBean(memState, MemState.class);
+            SysLoadState sysLoadStateBean = sysLoadState == null ? null : BeanUtil.toBean(sysLoadState, SysLoadState.class);
+            NetIoState netIoStateBean = netIoState == null ? null : BeanUtil.toBean(netIoState, NetIoState.class);
+            SystemInfo systemInfoBean = systemInfo == null ? null : BeanUtil.toBean(systemInfo, SystemInfo.class);
+            List<AppInfo> appInfoResList = Collections.emptyList();
+            List<AppState> appStateResList = Collections.emptyList();
+            if (appInfoList != null && appStateList != null) {
+                appInfoResList = JSONUtil.toList(appInfoList, AppInfo.class);
+                appStateResList = JSONUtil.toList(appStateList, AppState.class);
+            }
+            List<DeskState> deskStateResList = new ArrayList<>();
+            if (deskStateList != null) {
+                for (Object jsonObjects : deskStateList) {
+                    DeskState bean = new DeskState();
+                    BeanUtil.copyProperties(jsonObjects, bean);
+                    deskStateResList.add(bean);
+                }
+            }
+
+            //策略为reject时，整次上报写入前先检查各缓冲区的剩余容量，不够时都不写入，agent收到429后整体重试
+            if (!hasRoom(BatchData.LOG_INFO_LIST, logInfoBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.CPU_STATE_LIST, cpuStateBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.MEM_STATE_LIST, memStateBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.SYSLOAD_STATE_LIST, sysLoadStateBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.NETIO_STATE_LIST, netIoStateBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.APP_INFO_LIST, appInfoResList.size())
+                    || !hasRoom(BatchData.APP_STATE_LIST, appStateResList.size())
+                    || !hasRoom(BatchData.SYSTEM_INFO_LIST, systemInfoBean == null ? 0 : 1)
+                    || !hasRoom(BatchData.DESK_STATE_LIST, deskStateResList.isEmpty() ? 0 : 1)) {
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                resultJson.put("result", "error：server busy, retry later");
+                return resultJson;
+            }
 
-            if (logInfo != null) {
-                LogInfo bean = new LogInfo();
-                BeanUtil.copyProperties(logInfo, bean);
-                BatchData.LOG_INFO_LIST.add(bean);
+            //检查后并发写入仍可能写满，此时已写入的数据不能让agent重试，返回成功并带上各类型未写入的条数
+            JSONObject dropped = new JSONObject();
+            if (logInfoBean != null) {
+                offer(BatchData.LOG_INFO_LIST, logInfoBean, dropped);
             }
-            if (cpuState != null) {
-                CpuState bean = new CpuState();
-                BeanUtil.copyProperties(cpuState, bean);
-                BatchData.CPU_STATE_LIST.add(bean);
+            if (cpuStateBean != null && offer(BatchData.CPU_STATE_LIST, cpuStateBean, dropped)) {
                 Runnable runnable = () -> {
-                    WarnMailUtil.sendCpuWarnInfo(bean);
+                    WarnMailUtil.sendCpuWarnInfo(cpuStateBean);
                 };
                 executor.execute(runnable);
-
             }
-            if (memState != null) {
-                MemState bean = new MemState();
-                BeanUtil.copyProperties(memState, bean);
-                BatchData.MEM_STATE_LIST.add(bean);
+            if (memStateBean != null && offer(BatchData.MEM_STATE_LIST, memStateBean, dropped)) {
                 Runnable runnable = () -> {
-                    WarnMailUtil.sendWarnInfo(bean);
+                    WarnMailUtil.sendWarnInfo(memStateBean);
                 };
                 executor.execute(runnable);
             }
-            if (sysLoadState != null) {
-                SysLoadState bean = new SysLoadState();
-                BeanUtil.copyProperties(sysLoadState, bean);
-                BatchData.SYSLOAD_STATE_LIST.add(bean);
+            if (sysLoadStateBean != null) {
+                offer(BatchData.SYSLOAD_STATE_LIST, sysLoadStateBean, dropped);
             }
-            if (netIoState != null) {
-                NetIoState bean = new NetIoState();
-                BeanUtil.copyProperties(netIoState, bean);
-                BatchData.NETIO_STATE_LIST.add(bean);
+            if (netIoStateBean != null) {
+                offer(BatchData.NETIO_STATE_LIST, netIoStateBean, dropped);
             }
-            if (appInfoList != null && appStateList != null) {
-                List<AppInfo> appInfoResList = JSONUtil.toList(appInfoList, AppInfo.class);
-                for (AppInfo appInfo : appInfoResList) {
-                    BatchData.APP_INFO_LIST.add(appInfo);
-                }
-                List<AppState> appStateResList = JSONUtil.toList(appStateList, AppState.class);
-                for (AppState appState : appStateResList) {
-                    BatchData.APP_STATE_LIST.add(appState);
-                }
+            for (AppInfo appInfo : appInfoResList) {
+                offer(BatchData.APP_INFO_LIST, appInfo, dropped);
+                heartbeatTracker.appSeen(appInfo.getHostname(), appInfo.getAppPid(), appInfo.getAppName());
             }
-            if (systemInfo != null) {
-                SystemInfo bean = new SystemInfo();
-                BeanUtil.copyProperties(systemInfo, bean);
-                BatchData.SYSTEM_INFO_LIST.add(bean);
+            for (AppState appState : appStateResList) {
+                offer(BatchData.APP_STATE_LIST, appState, dropped);
             }
-            if (deskStateList != null) {
-                for (Object jsonObjects : deskStateList) {
-                    DeskState bean = new DeskState();
-                    BeanUtil.copyProperties(jsonObjects, bean);
-                    BatchData.DESK_STATE_LIST.add(bean);
-                }
+            if (systemInfoBean != null) {
+                offer(BatchData.SYSTEM_INFO_LIST, systemInfoBean, dropped);
+                heartbeatTracker.hostSeen(systemInfoBean.getHostname());
+            }
+            if (!deskStateResList.isEmpty()) {
+                offer(BatchData.DESK_STATE_LIST, deskStateResList, dropped);
             }
             resultJson.put("result", "success");
+            if (!dropped.isEmpty()) {
+                resultJson.put("dropped", dropped);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             resultJson.put("result", "error：" + e.toString());
@@ -151,9 +190,73 @@ public class AgentController {
         }
     }
 
+    /**
+     * 缓冲区能否写入count条数据，只有reject策略需要检查
+     */
+    private static boolean hasRoom(IngestRingBuffer<?> buffer, int count) {
+        return count == 0 || buffer.getOverflowPolicy() != IngestRingBuffer.OverflowPolicy.REJECT
+                || buffer.remainingCapacity() >= count;
+    }
+
+    /**
+     * 写入一条数据，未写入时按缓冲区名称累加到dropped
+     */
+    private static <E> boolean offer(IngestRingBuffer<E> buffer, E e, JSONObject dropped) {
+        if (buffer.offer(e)) {
+            return true;
+        }
+        dropped.put(buffer.getName(), dropped.getInt(buffer.getName(), 0) + 1);
+        return false;
+    }
+
+    /**
+     * agent定时获取本机的抓包配置
+     */
+    @ResponseBody
+    @RequestMapping("/captureProfile")
+    public JSONObject captureProfile(@RequestBody String paramBean) {
+        JSONObject agentJsonObject = (JSONObject) JSONUtil.parse(paramBean);
+        JSONObject resultJson = new JSONObject();
+        if (!tokenUtils.checkAgentToken(agentJsonObject)) {
+            logger.error("token is invalidate");
+            resultJson.put("result", "error：token is invalidate");
+            return resultJson;
+        }
+        CaptureProfile profile = commonConfig.getCaptureProfile(agentJsonObject.getStr("hostname"));
+        resultJson.put("bpf", profile.getBpf());
+        resultJson.put("direction", profile.getDirection());
+        resultJson.put("snaplen", profile.getSnaplen());
+        resultJson.put("sampleRate", profile.getSampleRate());
+        resultJson.put("result", "success");
+        return resultJson;
+    }
+
+    /**
+     * agent定时同步IP黑名单，带上本地版本号，只返回该版本之后的变更
+     */
+    @ResponseBody
+    @RequestMapping("/blacklist")
+    public JSONObject blacklist(@RequestBody String paramBean) {
+        JSONObject agentJsonObject = (JSONObject) JSONUtil.parse(paramBean);
+        JSONObject resultJson = new JSONObject();
+        if (!tokenUtils.checkAgentToken(agentJsonObject)) {
+            logger.error("token is invalidate");
+            resultJson.put("result", "error：token is invalidate");
+            return resultJson;
+        }
+        BlacklistDelta delta = ipBlacklistService.delta(agentJsonObject.getLong("version", 0L));
+        resultJson.put("version", delta.getVersion());
+        resultJson.put("full", delta.isFull());
+        resultJson.put("added", delta.getAdded());
+        resultJson.put("removed", delta.getRemoved());
+        resultJson.put("result", "success");
+        return resultJson;
+    }
+
     @PostMapping("/uploadPcap")
     public ResponseEntity<String> uploadPcapFile(@RequestParam("file") MultipartFile file,
-                                                 @RequestParam("metadata") String metadataJson) {
+                                                 @RequestParam("metadata") String metadataJson,
+                                                 HttpServletRequest request) {
         try {
             // 解析 metadata JSON 并验证 Token
             JSONObject metadata = JSONUtil.parseObj(metadataJson);
@@ -163,23 +266,21 @@ public class AgentController {
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
             }
 
-            // 确保上传目录存在
-            File uploadDir = new File(UPLOAD_DIR);
-            if (!uploadDir.exists()) {
-                uploadDir.mkdirs();
+            // 写入缓存目录后立即返回，由分析队列异步处理
+            String hostname = metadata.getStr("hostname");
+            if (StringUtils.isEmpty(hostname)) {
+                hostname = request.getRemoteAddr();
             }
-
-            // 保存文件
-            String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-            File destFile = new File(uploadDir, fileName);
-            file.transferTo(destFile);
-
-            String savePcapFilePath = destFile.getAbsolutePath(); //存储的文件路径
-
-            logger.info("Pcap 文件上传成功: " + savePcapFilePath);
-            //测试用的文件
-            savePcapFilePath = "E:\\wgcloud-new\\wgcloud-3.5.7\\upload\\pcap\\trigger_ddos_alert.pcap";
-            anlysisPcap.analyzePcapFile(savePcapFilePath);
+            File spoolFile;
+            try (InputStream in = file.getInputStream()) {
+                spoolFile = pcapAnalysisQueue.spool(hostname, file.getOriginalFilename(), in);
+            }
+            if (spoolFile == null) {
+                logger.warn("pcap分析队列已满，拒绝上传：" + hostname);
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body("server busy, retry later");
+            }
+            String fileName = spoolFile.getName();
+            logger.info("Pcap 文件上传成功: " + spoolFile.getAbsolutePath());
 
             return ResponseEntity.ok("Pcap 文件上传成功: " + fileName);
         } catch (IOException e) {
@@ -188,4 +289,98 @@ public class AgentController {
         }
     }
 
+    /**
+     * 分块上传开始，返回服务端已接收的字节数，agent从该位置继续上传
+     */
+    @ResponseBody
+    @RequestMapping("/pcapUpload/init")
+    public ResponseEntity<JSONObject> pcapUploadInit(@RequestBody String paramBean) {
+        JSONObject agentJsonObject = (JSONObject) JSONUtil.parse(paramBean);
+        JSONObject resultJson = new JSONObject();
+        if (!tokenUtils.checkAgentToken(agentJsonObject)) {
+            logger.error("token is invalidate");
+            resultJson.put("result", "error：token is invalidate");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(resultJson);
+        }
+        try {
+            String uploadId = agentJsonObject.getStr("sha256");
+            long offset = pcapChunkUpload.init(agentJsonObject.getStr("hostname"), agentJsonObject.getStr("fileName"),
+                    agentJsonObject.getLong("size", 0L), uploadId);
+            resultJson.put("uploadId", uploadId);
+            resultJson.put("offset", offset);
+            resultJson.put("result", "success");
+            return ResponseEntity.ok(resultJson);
+        } catch (IllegalArgumentException e) {
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.badRequest().body(resultJson);
+        } catch (IOException e) {
+            logger.error("Pcap 分块上传初始化失败: " + e.getMessage(), e);
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(resultJson);
+        }
+    }
+
+    /**
+     * 上传一块数据，请求体直接写入磁盘，返回服务端已接收的字节数
+     */
+    @ResponseBody
+    @PostMapping("/pcapUpload/chunk")
+    public ResponseEntity<JSONObject> pcapUploadChunk(@RequestParam("uploadId") String uploadId,
+                                                      @RequestParam("offset") long offset,
+                                                      @RequestParam("wgToken") String wgToken,
+                                                      HttpServletRequest request) {
+        JSONObject resultJson = new JSONObject();
+        JSONObject tokenJson = new JSONObject();
+        tokenJson.put("wgToken", wgToken);
+        if (!tokenUtils.checkAgentToken(tokenJson)) {
+            logger.error("token is invalidate");
+            resultJson.put("result", "error：token is invalidate");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(resultJson);
+        }
+        try (InputStream in = request.getInputStream()) {
+            resultJson.put("offset", pcapChunkUpload.append(uploadId, offset, in));
+            resultJson.put("result", "success");
+            return ResponseEntity.ok(resultJson);
+        } catch (IllegalArgumentException e) {
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.badRequest().body(resultJson);
+        } catch (IOException e) {
+            logger.error("Pcap 分块上传失败: " + e.getMessage(), e);
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(resultJson);
+        }
+    }
+
+    /**
+     * 分块上传完成，校验并解压后加入分析队列
+     */
+    @ResponseBody
+    @RequestMapping("/pcapUpload/complete")
+    public ResponseEntity<JSONObject> pcapUploadComplete(@RequestBody String paramBean) {
+        JSONObject agentJsonObject = (JSONObject) JSONUtil.parse(paramBean);
+        JSONObject resultJson = new JSONObject();
+        if (!tokenUtils.checkAgentToken(agentJsonObject)) {
+            logger.error("token is invalidate");
+            resultJson.put("result", "error：token is invalidate");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(resultJson);
+        }
+        try {
+            File spoolFile = pcapChunkUpload.complete(agentJsonObject.getStr("uploadId"));
+            if (spoolFile == null) {
+                resultJson.put("result", "error：server busy, retry later");
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(resultJson);
+            }
+            logger.info("Pcap 文件分块上传成功: " + spoolFile.getAbsolutePath());
+            resultJson.put("result", "success");
+            return ResponseEntity.ok(resultJson);
+        } catch (IllegalArgumentException e) {
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.badRequest().body(resultJson);
+        } catch (IOException e) {
+            logger.error("Pcap 分块上传完成失败: " + e.getMessage(), e);
+            resultJson.put("result", "error：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(resultJson);
+        }
+    }
+
 }
@@ -3,6 +3,7 @@ package com.wgcloud.controller;
 import com.github.pagehelper.PageInfo;
 import com.wgcloud.analysis.AlarmInfoService;
 import com.wgcloud.entity.AlarmInfo;
+import com.wgcloud.service.IpBlacklistService;
 import com.wgcloud.service.LogInfoService;
 import com.wgcloud.util.*;
 import com.wgcloud.util.staticvar.StaticKeys;
@@ -30,6 +31,8 @@ public class AlarmInfoController {
     private LogInfoService logInfoService;
     @Resource
     private TokenUtils tokenUtils;
+    @Resource
+    private IpBlacklistService ipBlacklistService;
 
     /**
      * 报警信息分页列表（匹配前端表格）
@@ -67,15 +70,16 @@ public class AlarmInfoController {
     }
 
     /**
-     * 添加黑名单（匹配前端AJAX请求）
+     * 添加黑名单（匹配前端AJAX请求），支持单个IP和CIDR地址段，agent同步后几秒内生效
      */
     @ResponseBody
     @PostMapping("/blacklist/add")
     public Map<String, Object> addBlacklist(@RequestParam String ipAddress) {
         Map<String, Object> result = new HashMap<>();
         try {
+            String cidr = ipBlacklistService.add(ipAddress, "报警信息页面添加");
             int count = alarmInfoService.updateBlacklistStatusByIp(ipAddress,1);
-            logInfoService.save("添加黑名单", "IP：" + ipAddress, StaticKeys.LOG_SUCCESS);
+            logInfoService.save("添加黑名单", "IP：" + cidr, StaticKeys.LOG_SUCCESS);
 
             result.put("success", true);
             result.put("message", "已屏蔽" + count + "条相关记录");
@@ -93,6 +97,7 @@ public class AlarmInfoController {
     public Map<String, Object> removeBlacklist(@RequestParam String ipAddress) {
         Map<String, Object> result = new HashMap<>();
         try {
+            ipBlacklistService.remove(ipAddress);
             int count = alarmInfoService.updateBlacklistStatusByIp(ipAddress,0);
             logInfoService.save("移出黑名单", "IP：" + ipAddress, StaticKeys.LOG_SUCCESS);
 
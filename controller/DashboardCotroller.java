@@ -3,6 +3,7 @@ package com.wgcloud.controller;
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.json.JSONUtil;
 import com.github.pagehelper.PageInfo;
+import com.wgcloud.analysis.DdosAnalysis;
 import com.wgcloud.dto.ChartInfo;
 import com.wgcloud.dto.NetIoStateDto;
 import com.wgcloud.entity.*;
@@ -12,12 +13,14 @@ import com.wgcloud.util.FormatUtil;
 import com.wgcloud.util.PageUtil;
 import com.wgcloud.util.staticvar.StaticKeys;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import javax.annotation.Resource;
@@ -70,6 +73,8 @@ public class DashboardCotroller {
     HeathMonitorService heathMonitorService;
     @Autowired
     HostInfoService hostInfoService;
+    @Autowired
+    DdosAnalysis ddosAnalysis;
 
     /**
      * 根据条件查询host列表
@@ -274,6 +279,7 @@ public class DashboardCotroller {
             params.put("hostname", systemInfo.getHostname());
             List<DeskState> deskStateList = deskStateService.selectAllByParams(params);
             model.addAttribute("deskStateList", deskStateList);
+            model.addAttribute("topTalkers", JSONUtil.parseArray(ddosAnalysis.getTopTalkers(hostname, 10)));
         } catch (Exception e) {
             logger.error("服务器详细信息错误：", e);
             logInfoService.save(hostname, "查看服务器详细信息错误", e.toString());
@@ -286,6 +292,23 @@ public class DashboardCotroller {
 
     }
 
+    /**
+     * 查询发往主机流量最大的源IP，按抓包时间每小时统计一次
+     *
+     * @param request
+     * @return
+     */
+    @ResponseBody
+    @RequestMapping(value = "topTalkers")
+    public String topTalkers(HttpServletRequest request) {
+        String hostname = request.getParameter("hostname");
+        if (StringUtils.isEmpty(hostname)) {
+            return JSONUtil.toJsonStr(ddosAnalysis.getAgents());
+        }
+        int limit = Math.max(1, Math.min(100, NumberUtils.toInt(request.getParameter("limit"), 10)));
+        return JSONUtil.toJsonStr(ddosAnalysis.getTopTalkers(hostname, limit));
+    }
+
     /**
      * 删除主机
      *
@@ -13,7 +13,6 @@ import com.wgcloud.util.staticvar.StaticKeys;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -62,8 +61,7 @@ public class DbInfoController {
     public String valdateDbInfo(DbInfo DbInfo, Model model, HttpServletRequest request) {
         MessageDto messageDto = new MessageDto();
         try {
-            JdbcTemplate JdbcTemplate = connectionUtil.getJdbcTemplate(DbInfo);
-            if (JdbcTemplate == null) {
+            if (!connectionUtil.testConnection(DbInfo)) {
                 messageDto.setCode("1");
                 messageDto.setMsg("连接数据库错误，请检查参数是否正确。请在系统信息里查看日志");
             } else {
@@ -145,6 +143,7 @@ public class DbInfoController {
                 dbInfoService.save(DbInfo);
             } else {
                 dbInfoService.updateById(DbInfo);
+                connectionUtil.invalidate(DbInfo.getId());
             }
         } catch (Exception e) {
             logger.error("保存数据源错误：", e);
@@ -174,6 +173,9 @@ public class DbInfoController {
                         "，数据库别名" + DbInfo.getAliasName(), StaticKeys.LOG_ERROR);
                 dbInfoService.deleteById(request.getParameter("id").split(","));
                 dbTableService.deleteByDbInfoId(DbInfo.getId());
+                for (String id : request.getParameter("id").split(",")) {
+                    connectionUtil.invalidate(id);
+                }
             }
         } catch (Exception e) {
             logger.error(errorMsg, e);
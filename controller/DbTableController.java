@@ -11,6 +11,7 @@ import com.wgcloud.service.DbTableService;
 import com.wgcloud.service.LogInfoService;
 import com.wgcloud.util.PageUtil;
 import com.wgcloud.util.jdbc.RDSConnection;
+import com.wgcloud.util.jdbc.TableCounter;
 import com.wgcloud.util.staticvar.StaticKeys;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -107,6 +108,17 @@ public class DbTableController {
                     }
                 }
             }
+            if (TableCounter.COUNT_MODE_INCREMENTAL.equals(DbTable.getCountMode())) {
+                if (!TableCounter.isColumnName(DbTable.getIncrColumn())) {
+                    model.addAttribute("dbTable", DbTable);
+                    List<DbInfo> dbInfoList = dbInfoService.selectAllByParams(new HashMap<>());
+                    model.addAttribute("dbInfoList", dbInfoList);
+                    model.addAttribute("msg", "增量统计的列名只能包含字母、数字和下划线，请检查");
+                    return "mysql/add";
+                }
+            } else if (!TableCounter.COUNT_MODE_ESTIMATED.equals(DbTable.getCountMode())) {
+                DbTable.setCountMode(TableCounter.COUNT_MODE_EXACT);
+            }
             if (StringUtils.isEmpty(DbTable.getId())) {
                 dbTableService.save(DbTable);
             } else {
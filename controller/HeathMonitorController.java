@@ -4,6 +4,7 @@ import com.github.pagehelper.PageInfo;
 import com.wgcloud.entity.HeathMonitor;
 import com.wgcloud.service.HeathMonitorService;
 import com.wgcloud.service.LogInfoService;
+import com.wgcloud.util.HeathProber;
 import com.wgcloud.util.PageUtil;
 import com.wgcloud.util.staticvar.StaticKeys;
 import org.apache.commons.lang3.StringUtils;
@@ -38,6 +39,8 @@ public class HeathMonitorController {
     private HeathMonitorService heathMonitorService;
     @Resource
     private LogInfoService logInfoService;
+    @Resource
+    private HeathProber heathProber;
 
 
     /**
@@ -134,6 +137,7 @@ public class HeathMonitorController {
         try {
             heathMonitor = heathMonitorService.selectById(id);
             model.addAttribute("heathMonitor", heathMonitor);
+            model.addAttribute("latencyStats", heathProber.getLatencyStats(id));
         } catch (Exception e) {
             logger.error(errorMsg, e);
             logInfoService.save(heathMonitor.getAppName(), errorMsg + e.toString(), StaticKeys.LOG_ERROR);
@@ -0,0 +1,66 @@
+package com.wgcloud.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @version v2.3
+ * @ClassName:BlacklistDelta.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: agent同步的IP黑名单变更，full为true时added是完整名单，agent应先清空本地名单
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class BlacklistDelta {
+
+    /**
+     * 变更后的版本号，agent下次同步时带上
+     */
+    private long version;
+
+    private boolean full;
+
+    private List<String> added = new ArrayList<>();
+
+    private List<String> removed = new ArrayList<>();
+
+    public BlacklistDelta() {
+    }
+
+    public BlacklistDelta(long version, boolean full) {
+        this.version = version;
+        this.full = full;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public void setAdded(List<String> added) {
+        this.added = added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<String> removed) {
+        this.removed = removed;
+    }
+}
@@ -0,0 +1,64 @@
+package com.wgcloud.dto;
+
+/**
+ * @version v2.3
+ * @ClassName:CaptureProfile.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: agent抓包配置，由server按主机下发，agent在内核中按BPF过滤后再抓包
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class CaptureProfile {
+
+    /**
+     * BPF过滤表达式，为空时不过滤
+     */
+    private String bpf;
+
+    /**
+     * 抓包方向，IN、OUT、INOUT
+     */
+    private String direction = "INOUT";
+
+    /**
+     * 每个数据包最多抓取的字节数
+     */
+    private Integer snaplen = 65536;
+
+    /**
+     * 采样率，每N个数据包保留1个，1表示全部保留
+     */
+    private Integer sampleRate = 1;
+
+    public String getBpf() {
+        return bpf;
+    }
+
+    public void setBpf(String bpf) {
+        this.bpf = bpf;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+
+    public Integer getSnaplen() {
+        return snaplen;
+    }
+
+    public void setSnaplen(Integer snaplen) {
+        this.snaplen = snaplen;
+    }
+
+    public Integer getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(Integer sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+}
@@ -0,0 +1,120 @@
+package com.wgcloud.dto;
+
+import java.util.Arrays;
+
+/**
+ * @version v2.3
+ * @ClassName:LatencyStats.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 响应时间统计，单位：毫秒，百分位按最近的若干次检测计算
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class LatencyStats {
+
+    public static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0, 0);
+
+    /**
+     * 参与统计的检测次数
+     */
+    private int count;
+
+    /**
+     * 最近一次响应时间
+     */
+    private long last;
+
+    private long p50;
+
+    private long p95;
+
+    private long p99;
+
+    private long max;
+
+    public LatencyStats() {
+    }
+
+    public LatencyStats(int count, long last, long p50, long p95, long p99, long max) {
+        this.count = count;
+        this.last = last;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * 按最近邻排名法计算百分位
+     *
+     * @param samples 响应时间，不修改
+     * @param last    最近一次响应时间
+     */
+    public static LatencyStats of(long[] samples, long last) {
+        if (samples.length == 0) {
+            return EMPTY;
+        }
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return new LatencyStats(sorted.length, last, percentile(sorted, 50), percentile(sorted, 95),
+                percentile(sorted, 99), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public void setLast(long last) {
+        this.last = last;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public void setP95(long p95) {
+        this.p95 = p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", p50=" + p50 + "ms, p95=" + p95 + "ms, p99=" + p99 + "ms, max=" + max + "ms";
+    }
+}
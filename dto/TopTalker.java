@@ -0,0 +1,60 @@
+package com.wgcloud.dto;
+
+/**
+ * @version v2.3
+ * @ClassName:TopTalker.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 发往监控主机流量最大的源IP
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class TopTalker {
+
+    /**
+     * 源IP
+     */
+    private String ip;
+
+    /**
+     * 统计周期内的字节数，可能偏大
+     */
+    private Long bytes;
+
+    /**
+     * 字节数最多偏大的值
+     */
+    private Long error;
+
+    public TopTalker() {
+    }
+
+    public TopTalker(String ip, Long bytes, Long error) {
+        this.ip = ip;
+        this.bytes = bytes;
+        this.error = error;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public Long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(Long bytes) {
+        this.bytes = bytes;
+    }
+
+    public Long getError() {
+        return error;
+    }
+
+    public void setError(Long error) {
+        this.error = error;
+    }
+}
@@ -15,12 +15,14 @@ public class AlarmInfo {
     private String requestContent;   // 请求内容（原始数据或摘要）
     private Timestamp createTime;    // 创建时间（带时区）
     private Integer isBlacklist;     // 黑名单状态（0-否，1-是）
+    private Integer occurCount;      // 同一时间段内合并的相同报警次数
 
     // 空构造器（MyBatis等框架需要）
     public AlarmInfo() {
         this.id = generateUUID(); // 构造时自动生成ID
         this.createTime = new Timestamp(System.currentTimeMillis()); // 自动设置当前时间
         this.isBlacklist = 0; // 默认非黑名单
+        this.occurCount = 1;
     }
 
     // 带参构造器（可选）
@@ -93,6 +95,14 @@ public class AlarmInfo {
         this.isBlacklist = isBlacklist;
     }
 
+    public Integer getOccurCount() {
+        return occurCount;
+    }
+
+    public void setOccurCount(Integer occurCount) {
+        this.occurCount = occurCount;
+    }
+
     // 更完善的toString()
     @Override
     public String toString() {
@@ -104,6 +114,7 @@ public class AlarmInfo {
                 ", requestContentLength=" + (requestContent != null ? requestContent.length() : 0) +
                 ", createTime=" + createTime +
                 ", isBlacklist=" + isBlacklist +
+                ", occurCount=" + occurCount +
                 '}';
     }
 
@@ -45,6 +45,26 @@ public class DbTable extends BaseEntity {
 
     private String dateStr;
 
+    /**
+     * 统计方式，exact执行COUNT(*)，estimated读取数据库的统计信息，incremental只统计高水位之后新增的行
+     */
+    private String countMode;
+
+    /**
+     * 增量统计使用的自增列或时间列，只增不减
+     */
+    private String incrColumn;
+
+    /**
+     * 增量统计的高水位，上次统计时incrColumn的最大值
+     */
+    private String highWater;
+
+    /**
+     * 行数增长速度，单位：行/秒
+     */
+    private Double growthRate;
+
     /**
      * 创建时间
      */
@@ -106,6 +126,38 @@ public class DbTable extends BaseEntity {
         this.value = value;
     }
 
+    public String getCountMode() {
+        return countMode;
+    }
+
+    public void setCountMode(String countMode) {
+        this.countMode = countMode;
+    }
+
+    public String getIncrColumn() {
+        return incrColumn;
+    }
+
+    public void setIncrColumn(String incrColumn) {
+        this.incrColumn = incrColumn;
+    }
+
+    public String getHighWater() {
+        return highWater;
+    }
+
+    public void setHighWater(String highWater) {
+        this.highWater = highWater;
+    }
+
+    public Double getGrowthRate() {
+        return growthRate;
+    }
+
+    public void setGrowthRate(Double growthRate) {
+        this.growthRate = growthRate;
+    }
+
     public String getDbInfoId() {
         return dbInfoId;
     }
@@ -0,0 +1,81 @@
+package com.wgcloud.entity;
+
+import java.sql.Timestamp;
+
+/**
+ * @version v2.3
+ * @ClassName:IpBlacklist.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: IP黑名单，支持单个IP和CIDR地址段，删除时只做标记并更新版本号，agent按版本号增量同步
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class IpBlacklist extends BaseEntity {
+
+    private static final long serialVersionUID = 3207946258801736512L;
+
+    /**
+     * IP或CIDR地址段，如1.2.3.4、1.2.3.0/24
+     */
+    private String cidr;
+
+    /**
+     * 备注
+     */
+    private String remark;
+
+    /**
+     * 是否已删除，1是0否
+     */
+    private Integer isDeleted;
+
+    /**
+     * 最后一次变更的版本号
+     */
+    private Long version;
+
+    /**
+     * 创建时间
+     */
+    private Timestamp createTime;
+
+    public String getCidr() {
+        return cidr;
+    }
+
+    public void setCidr(String cidr) {
+        this.cidr = cidr;
+    }
+
+    public String getRemark() {
+        return remark;
+    }
+
+    public void setRemark(String remark) {
+        this.remark = remark;
+    }
+
+    public Integer getIsDeleted() {
+        return isDeleted;
+    }
+
+    public void setIsDeleted(Integer isDeleted) {
+        this.isDeleted = isDeleted;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Timestamp createTime) {
+        this.createTime = createTime;
+    }
+}
@@ -1,7 +1,10 @@
 package com.wgcloud.mapper;
 
 import com.wgcloud.entity.AlarmInfo;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -28,6 +31,25 @@ public interface AlarmInfoMapper {
     // 批量插入报警信息
     void insertList(List<AlarmInfo> recordList);
 
+    // 批量插入合并后的报警信息（带合并次数）
+    @Insert("<script>INSERT INTO ALARM_INFO (ID, ALARM_TYPE, IP_ADDRESS, IP_LOCATION, REQUEST_CONTENT, CREATE_TIME, IS_BLACKLIST, OCCUR_COUNT) VALUES "
+            + "<foreach collection='list' item='item' separator=','>"
+            + "(#{item.id}, #{item.alarmType}, #{item.ipAddress}, #{item.ipLocation}, #{item.requestContent}, #{item.createTime}, #{item.isBlacklist}, #{item.occurCount})"
+            + "</foreach></script>")
+    int insertCoalescedList(@Param("list") List<AlarmInfo> recordList);
+
+    // 查询地理位置待补全（IP_LOCATION为空）的IP地址
+    @Select("SELECT DISTINCT IP_ADDRESS FROM ALARM_INFO WHERE IP_LOCATION IS NULL AND IP_ADDRESS IS NOT NULL LIMIT #{limit}")
+    List<String> selectPendingLocationIps(@Param("limit") int limit);
+
+    // 按IP批量补全地理位置，只更新仍待补全的记录
+    @Update("<script>UPDATE ALARM_INFO SET IP_LOCATION = CASE IP_ADDRESS "
+            + "<foreach collection='list' item='item'>WHEN #{item.ipAddress} THEN #{item.ipLocation} </foreach>"
+            + "END WHERE IP_LOCATION IS NULL AND IP_ADDRESS IN "
+            + "<foreach collection='list' item='item' open='(' separator=',' close=')'>#{item.ipAddress}</foreach>"
+            + "</script>")
+    int updatePendingLocations(@Param("list") List<AlarmInfo> recordList);
+
     // 根据报警类型删除报警信息
     int deleteByAlarmType(String alarmType);
 
@@ -1,6 +1,9 @@
 package com.wgcloud.mapper;
 
 import com.wgcloud.entity.DbTable;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -36,4 +39,31 @@ public interface DbTableMapper {
     public Long sumByParams(Map<String, Object> params) throws Exception;
 
     public void updateById(DbTable DbTable) throws Exception;
+
+    /**
+     * 指定数据表的统计设置和增量统计进度
+     */
+    @Select("<script>SELECT ID AS id, COUNT_MODE AS countMode, INCR_COLUMN AS incrColumn, HIGH_WATER AS highWater, "
+            + "GROWTH_RATE AS growthRate FROM DB_TABLE WHERE ID IN "
+            + "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>"
+            + "</script>")
+    public List<DbTable> selectCountSettings(@Param("ids") List<String> ids) throws Exception;
+
+    /**
+     * 修改统计设置后清空高水位，下次重新全量统计
+     */
+    @Update("UPDATE DB_TABLE SET COUNT_MODE = #{countMode}, INCR_COLUMN = #{incrColumn}, HIGH_WATER = NULL WHERE ID = #{id}")
+    public int updateCountSettings(DbTable DbTable) throws Exception;
+
+    /**
+     * 批量更新高水位和增长速度
+     */
+    @Update("<script>UPDATE DB_TABLE SET HIGH_WATER = CASE ID "
+            + "<foreach collection='list' item='item'>WHEN #{item.id} THEN #{item.highWater,jdbcType=VARCHAR} </foreach>"
+            + "END, GROWTH_RATE = CASE ID "
+            + "<foreach collection='list' item='item'>WHEN #{item.id} THEN #{item.growthRate,jdbcType=DOUBLE} </foreach>"
+            + "END WHERE ID IN "
+            + "<foreach collection='list' item='item' open='(' separator=',' close=')'>#{item.id}</foreach>"
+            + "</script>")
+    public int updateCountProgress(@Param("list") List<DbTable> recordList) throws Exception;
 }
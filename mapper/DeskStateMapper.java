@@ -1,8 +1,11 @@
 package com.wgcloud.mapper;
 
 import com.wgcloud.entity.DeskState;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -34,5 +37,10 @@ public interface DeskStateMapper {
 
     public int deleteByAccHname(Map<String, Object> map) throws Exception;
 
+    @Delete("<script>DELETE FROM DESK_STATE WHERE HOST_NAME IN "
+            + "<foreach collection='hostnames' item='hostname' open='(' separator=',' close=')'>#{hostname}</foreach>"
+            + "</script>")
+    public int deleteByHostnames(@Param("hostnames") Collection<String> hostnames) throws Exception;
+
 
 }
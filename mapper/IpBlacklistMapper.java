@@ -0,0 +1,45 @@
+package com.wgcloud.mapper;
+
+import com.wgcloud.entity.IpBlacklist;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * @version v2.3
+ * @ClassName:IpBlacklistMapper.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: IP黑名单
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Repository
+public interface IpBlacklistMapper {
+
+    // 查询未删除的地址段，启动时加载到内存
+    @Select("SELECT CIDR FROM IP_BLACKLIST WHERE IS_DELETED = 0")
+    List<String> selectActiveCidrs();
+
+    // 当前最大版本号
+    @Select("SELECT IFNULL(MAX(VERSION), 0) FROM IP_BLACKLIST")
+    long selectMaxVersion();
+
+    // 查询版本号之后变更的记录，按VERSION索引查询
+    @Select("SELECT ID AS id, CIDR AS cidr, REMARK AS remark, IS_DELETED AS isDeleted, VERSION AS version, CREATE_TIME AS createTime "
+            + "FROM IP_BLACKLIST WHERE VERSION > #{version} ORDER BY VERSION")
+    List<IpBlacklist> selectChangedSince(@Param("version") long version);
+
+    // 添加地址段，已删除的地址段重新启用
+    @Insert("INSERT INTO IP_BLACKLIST (ID, CIDR, REMARK, IS_DELETED, VERSION, CREATE_TIME) "
+            + "VALUES (#{id}, #{cidr}, #{remark}, 0, #{version}, #{createTime}) "
+            + "ON DUPLICATE KEY UPDATE REMARK = VALUES(REMARK), IS_DELETED = 0, VERSION = VALUES(VERSION)")
+    int save(IpBlacklist ipBlacklist);
+
+    // 标记删除并更新版本号，agent增量同步时据此删除
+    @Update("UPDATE IP_BLACKLIST SET IS_DELETED = 1, VERSION = #{version} WHERE CIDR = #{cidr} AND IS_DELETED = 0")
+    int markDeleted(@Param("cidr") String cidr, @Param("version") long version);
+}
@@ -1,6 +1,8 @@
 package com.wgcloud.mapper;
 
 import com.wgcloud.entity.SystemInfo;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -43,5 +45,11 @@ public interface SystemInfoMapper {
 
     public int deleteByAccHname(Map<String, Object> map) throws Exception;
 
+    /**
+     * 按ID批量更新状态，心跳超时时只更新状态字段
+     */
+    @Update("<script>UPDATE SYSTEM_INFO SET STATE = #{state} WHERE ID IN "
+            + "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    public int updateStateByIds(@Param("ids") List<String> ids, @Param("state") String state) throws Exception;
 
 }
@@ -11,9 +11,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @version v2.3
@@ -31,6 +33,13 @@ public class AppInfoService {
     @Autowired
     private AppStateMapper appStateMapper;
 
+    /**
+     * 主机名+进程ID到主键ID的索引，首次使用时从库中加载，之后随新增、删除同步维护
+     */
+    private final Map<String, String> appIndex = new ConcurrentHashMap<String, String>();
+
+    private volatile boolean appIndexLoaded = false;
+
     public PageInfo selectByParams(Map<String, Object> params, int currPage, int pageSize) throws Exception {
         PageHelper.startPage(currPage, pageSize);
         List<AppInfo> list = appInfoMapper.selectByParams(params);
@@ -45,10 +54,18 @@ public class AppInfoService {
             AppInfo.setAppPid(AppInfo.getAppPid().trim());
         }
         appInfoMapper.save(AppInfo);
+        if (appIndexLoaded && AppInfo.getHostname() != null && AppInfo.getAppPid() != null) {
+            afterCommit(() -> appIndex.put(appKey(AppInfo.getHostname(), AppInfo.getAppPid()), AppInfo.getId()));
+        }
     }
 
     public int deleteByHostName(Map<String, Object> map) throws Exception {
-        return appInfoMapper.deleteByHostName(map);
+        int count = appInfoMapper.deleteByHostName(map);
+        if (map.get("hostname") != null) {
+            String prefix = appKey(map.get("hostname").toString(), "");
+            afterCommit(() -> appIndex.keySet().removeIf(key -> key.startsWith(prefix)));
+        }
+        return count;
     }
 
     @Transactional
@@ -60,6 +77,103 @@ public class AppInfoService {
             as.setId(UUIDUtil.getUUID());
         }
         appInfoMapper.insertList(recordList);
+        if (appIndexLoaded) {
+            afterCommit(() -> {
+                for (AppInfo as : recordList) {
+                    if (as.getHostname() != null && as.getAppPid() != null) {
+                        appIndex.put(appKey(as.getHostname(), as.getAppPid()), as.getId());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 按主机名+进程ID新增或更新进程信息，已存在的进程通过索引找到ID后批量更新，不存在的批量插入
+     *
+     * @param recordList agent上报的进程信息
+     * @throws Exception
+     */
+    @Transactional
+    public void upsertRecord(List<AppInfo> recordList) throws Exception {
+        loadAppIndex();
+        //同一批次里同一进程多次上报，只保留最后一次
+        Map<String, AppInfo> latestMap = new LinkedHashMap<String, AppInfo>();
+        for (AppInfo appInfo : recordList) {
+            if (appInfo.getHostname() != null && appInfo.getAppPid() != null) {
+                latestMap.put(appKey(appInfo.getHostname(), appInfo.getAppPid()), appInfo);
+            }
+        }
+        List<AppInfo> updateList = new ArrayList<AppInfo>();
+        List<AppInfo> insertList = new ArrayList<AppInfo>();
+        for (Map.Entry<String, AppInfo> entry : latestMap.entrySet()) {
+            String id = appIndex.get(entry.getKey());
+            if (id != null) {
+                entry.getValue().setId(id);
+                updateList.add(entry.getValue());
+            } else {
+                insertList.add(entry.getValue());
+            }
+        }
+        updateRecord(updateList);
+        saveRecord(insertList);
+    }
+
+    /**
+     * 按主机名+进程ID查询主键ID，进程已删除时返回null
+     */
+    public String getIdByApp(String hostname, String appPid) throws Exception {
+        loadAppIndex();
+        if (hostname == null || appPid == null) {
+            return null;
+        }
+        return appIndex.get(appKey(hostname, appPid));
+    }
+
+    @Transactional
+    public int updateStateByIds(List<String> ids, String state) throws Exception {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return appInfoMapper.updateStateByIds(ids, state);
+    }
+
+    private void loadAppIndex() throws Exception {
+        if (appIndexLoaded) {
+            return;
+        }
+        synchronized (appIndex) {
+            if (appIndexLoaded) {
+                return;
+            }
+            List<AppInfo> savedList = appInfoMapper.selectAllByParams(new HashMap<String, Object>());
+            for (AppInfo appInfo : savedList) {
+                if (appInfo.getHostname() != null && appInfo.getAppPid() != null) {
+                    appIndex.put(appKey(appInfo.getHostname(), appInfo.getAppPid()), appInfo.getId());
+                }
+            }
+            appIndexLoaded = true;
+        }
+    }
+
+    /**
+     * 在事务中时等提交后再执行，避免回滚后索引里留下库中不存在的ID；不在事务中时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static String appKey(String hostname, String appPid) {
+        return hostname + "\u0001" + appPid;
     }
 
     public int countByParams(Map<String, Object> params) throws Exception {
@@ -71,7 +185,9 @@ public class AppInfoService {
         for (String AppInfoId : id) {
             appStateMapper.deleteByAppInfoId(AppInfoId);
         }
-        return appInfoMapper.deleteById(id);
+        int count = appInfoMapper.deleteById(id);
+        afterCommit(() -> appIndex.values().removeAll(Arrays.asList(id)));
+        return count;
     }
 
     @Transactional
@@ -11,6 +11,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,6 +28,11 @@ import java.util.Map;
 @Service
 public class DbTableService {
 
+    /**
+     * 按ID查询统计设置时每条SQL最多的ID个数
+     */
+    private static final int SETTINGS_CHUNK_SIZE = 500;
+
     @Autowired
     private DbTableMapper dbTableMapper;
 
@@ -32,6 +40,7 @@ public class DbTableService {
         PageHelper.startPage(currPage, pageSize);
         List<DbTable> list = dbTableMapper.selectByParams(params);
         PageInfo<DbTable> pageInfo = new PageInfo<DbTable>(list);
+        fillCountSettings(pageInfo.getList());
         return pageInfo;
     }
 
@@ -39,6 +48,7 @@ public class DbTableService {
         DbTable.setId(UUIDUtil.getUUID());
         DbTable.setCreateTime(DateUtil.getNowTime());
         dbTableMapper.save(DbTable);
+        dbTableMapper.updateCountSettings(DbTable);
     }
 
     public int countByParams(Map<String, Object> params) throws Exception {
@@ -65,6 +75,7 @@ public class DbTableService {
     public void updateById(DbTable DbTable)
             throws Exception {
         dbTableMapper.updateById(DbTable);
+        dbTableMapper.updateCountSettings(DbTable);
     }
 
     @Transactional
@@ -75,12 +86,59 @@ public class DbTableService {
         dbTableMapper.updateList(recordList);
     }
 
+    /**
+     * 保存统计后的高水位和增长速度
+     */
+    @Transactional
+    public void updateCountProgress(List<DbTable> recordList) throws Exception {
+        if (recordList.size() < 1) {
+            return;
+        }
+        dbTableMapper.updateCountProgress(recordList);
+    }
+
     public DbTable selectById(String id) throws Exception {
-        return dbTableMapper.selectById(id);
+        DbTable dbTable = dbTableMapper.selectById(id);
+        if (dbTable != null) {
+            fillCountSettings(Collections.singletonList(dbTable));
+        }
+        return dbTable;
     }
 
     public List<DbTable> selectAllByParams(Map<String, Object> params) throws Exception {
-        return dbTableMapper.selectAllByParams(params);
+        List<DbTable> list = dbTableMapper.selectAllByParams(params);
+        fillCountSettings(list);
+        return list;
+    }
+
+    /**
+     * 补充统计设置和增量统计进度，这些字段由注解SQL单独读写，只查询list中的数据表
+     */
+    private void fillCountSettings(List<DbTable> list) throws Exception {
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        for (DbTable dbTable : list) {
+            if (dbTable.getId() != null) {
+                ids.add(dbTable.getId());
+            }
+        }
+        Map<String, DbTable> settings = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += SETTINGS_CHUNK_SIZE) {
+            for (DbTable setting : dbTableMapper.selectCountSettings(ids.subList(i, Math.min(ids.size(), i + SETTINGS_CHUNK_SIZE)))) {
+                settings.put(setting.getId(), setting);
+            }
+        }
+        for (DbTable dbTable : list) {
+            DbTable setting = settings.get(dbTable.getId());
+            if (setting != null) {
+                dbTable.setCountMode(setting.getCountMode());
+                dbTable.setIncrColumn(setting.getIncrColumn());
+                dbTable.setHighWater(setting.getHighWater());
+                dbTable.setGrowthRate(setting.getGrowthRate());
+            }
+        }
     }
 
 
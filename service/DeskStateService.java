@@ -10,8 +10,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @version v2.3
@@ -53,6 +52,37 @@ public class DeskStateService {
         deskStateMapper.insertList(recordList);
     }
 
+    /**
+     * 用本批次上报的磁盘快照替换这些主机的当前磁盘快照，同一主机多次上报只保留最后一次，多主机删除和插入在同一事务内完成
+     *
+     * @param snapshotList agent上报的磁盘信息，每个元素是一次上报的全部磁盘
+     * @param chunkSize    每条delete/insert语句最多处理的条数
+     * @throws Exception
+     */
+    @Transactional
+    public void replaceByHostname(List<List<DeskState>> snapshotList, int chunkSize) throws Exception {
+        Map<String, List<DeskState>> latestMap = new LinkedHashMap<String, List<DeskState>>();
+        for (List<DeskState> snapshot : snapshotList) {
+            if (!snapshot.isEmpty() && snapshot.get(0).getHostname() != null) {
+                latestMap.put(snapshot.get(0).getHostname(), snapshot);
+            }
+        }
+        if (latestMap.isEmpty()) {
+            return;
+        }
+        List<DeskState> recordList = new ArrayList<DeskState>();
+        for (List<DeskState> snapshot : latestMap.values()) {
+            recordList.addAll(snapshot);
+        }
+        List<String> hostnameList = new ArrayList<String>(latestMap.keySet());
+        for (int i = 0; i < hostnameList.size(); i += chunkSize) {
+            deskStateMapper.deleteByHostnames(hostnameList.subList(i, Math.min(hostnameList.size(), i + chunkSize)));
+        }
+        for (int i = 0; i < recordList.size(); i += chunkSize) {
+            saveRecord(recordList.subList(i, Math.min(recordList.size(), i + chunkSize)));
+        }
+    }
+
     public int deleteById(String[] id) throws Exception {
         return deskStateMapper.deleteById(id);
     }
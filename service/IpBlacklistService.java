@@ -0,0 +1,158 @@
+package com.wgcloud.service;
+
+import com.wgcloud.dto.BlacklistDelta;
+import com.wgcloud.entity.IpBlacklist;
+import com.wgcloud.mapper.IpBlacklistMapper;
+import com.wgcloud.util.DateUtil;
+import com.wgcloud.util.IpPrefixSet;
+import com.wgcloud.util.UUIDUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @version v2.3
+ * @ClassName:IpBlacklistService.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: IP黑名单，启动时加载到内存的地址段集合，查询不访问数据库；每次变更版本号加1，
+ * agent按版本号增量同步，版本号未变时直接返回，不查询数据库
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Service
+public class IpBlacklistService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IpBlacklistService.class);
+
+    @Autowired
+    private IpBlacklistMapper ipBlacklistMapper;
+
+    /**
+     * 标准格式的地址段，key为地址段字符串
+     */
+    private final Map<String, Long> entries = new HashMap<>();
+
+    private volatile long version;
+
+    private volatile IpPrefixSet prefixSet = IpPrefixSet.EMPTY;
+
+    @PostConstruct
+    public void init() {
+        try {
+            synchronized (this) {
+                for (String cidr : ipBlacklistMapper.selectActiveCidrs()) {
+                    long value = IpPrefixSet.parseCidr(cidr);
+                    if (value >= 0) {
+                        entries.put(IpPrefixSet.toCidrString(value), value);
+                    }
+                }
+                version = ipBlacklistMapper.selectMaxVersion();
+                rebuild();
+            }
+            logger.info("加载IP黑名单" + entries.size() + "条，版本号：" + version);
+        } catch (Exception e) {
+            logger.error("加载IP黑名单错误", e);
+        }
+    }
+
+    public boolean contains(String ip) {
+        return prefixSet.contains(ip);
+    }
+
+    public boolean contains(int ip) {
+        return prefixSet.contains(ip);
+    }
+
+    /**
+     * 添加IP或CIDR地址段
+     *
+     * @return 标准格式的地址段
+     */
+    public synchronized String add(String text, String remark) {
+        long value = IpPrefixSet.parseCidr(text);
+        if (value < 0) {
+            throw new IllegalArgumentException("IP或地址段格式错误：" + text);
+        }
+        String cidr = IpPrefixSet.toCidrString(value);
+        if (entries.containsKey(cidr)) {
+            return cidr;
+        }
+        IpBlacklist record = new IpBlacklist();
+        record.setId(UUIDUtil.getUUID());
+        record.setCidr(cidr);
+        record.setRemark(remark);
+        record.setVersion(version + 1);
+        record.setCreateTime(DateUtil.getNowTime());
+        ipBlacklistMapper.save(record);
+        version++;
+        entries.put(cidr, value);
+        rebuild();
+        return cidr;
+    }
+
+    /**
+     * 删除IP或CIDR地址段
+     *
+     * @return 黑名单中没有该地址段时返回false
+     */
+    public synchronized boolean remove(String text) {
+        long value = IpPrefixSet.parseCidr(text);
+        if (value < 0) {
+            throw new IllegalArgumentException("IP或地址段格式错误：" + text);
+        }
+        String cidr = IpPrefixSet.toCidrString(value);
+        if (!entries.containsKey(cidr)) {
+            return false;
+        }
+        ipBlacklistMapper.markDeleted(cidr, version + 1);
+        version++;
+        entries.remove(cidr);
+        rebuild();
+        return true;
+    }
+
+    /**
+     * agent本地版本号之后的变更，agent版本号为0或大于服务端版本号（数据库已重建）时返回完整名单
+     */
+    public BlacklistDelta delta(long since) {
+        long current = version;
+        if (since == current) {
+            return new BlacklistDelta(current, false);
+        }
+        if (since <= 0 || since > current) {
+            synchronized (this) {
+                BlacklistDelta delta = new BlacklistDelta(version, true);
+                delta.getAdded().addAll(entries.keySet());
+                return delta;
+            }
+        }
+        BlacklistDelta delta = new BlacklistDelta(since, false);
+        for (IpBlacklist record : ipBlacklistMapper.selectChangedSince(since)) {
+            //每个地址段只有一条记录，版本号为最后一次变更
+            if (record.getIsDeleted() != null && record.getIsDeleted() == 1) {
+                delta.getRemoved().add(record.getCidr());
+            } else {
+                delta.getAdded().add(record.getCidr());
+            }
+            delta.setVersion(Math.max(delta.getVersion(), record.getVersion()));
+        }
+        return delta;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return prefixSet.size();
+    }
+
+    private void rebuild() {
+        prefixSet = new IpPrefixSet(entries.values());
+    }
+}
@@ -9,9 +9,11 @@ import com.wgcloud.util.UUIDUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @version v2.3
@@ -27,6 +29,13 @@ public class SystemInfoService {
     @Autowired
     private SystemInfoMapper systemInfoMapper;
 
+    /**
+     * 主机名到主键ID的索引，首次使用时从库中加载，之后随新增、删除同步维护
+     */
+    private final Map<String, String> hostnameIndex = new ConcurrentHashMap<String, String>();
+
+    private volatile boolean hostnameIndexLoaded = false;
+
     public PageInfo selectByParams(Map<String, Object> params, int currPage, int pageSize) throws Exception {
         PageHelper.startPage(currPage, pageSize);
         List<SystemInfo> list = systemInfoMapper.selectByParams(params);
@@ -38,6 +47,9 @@ public class SystemInfoService {
         SystemInfo.setId(UUIDUtil.getUUID());
         SystemInfo.setCreateTime(DateUtil.getNowTime());
         systemInfoMapper.save(SystemInfo);
+        if (hostnameIndexLoaded && SystemInfo.getHostname() != null) {
+            afterCommit(() -> hostnameIndex.put(SystemInfo.getHostname(), SystemInfo.getId()));
+        }
     }
 
     @Transactional
@@ -50,6 +62,96 @@ public class SystemInfoService {
             as.setCreateTime(DateUtil.getNowTime());
         }
         systemInfoMapper.insertList(recordList);
+        if (hostnameIndexLoaded) {
+            afterCommit(() -> {
+                for (SystemInfo as : recordList) {
+                    if (as.getHostname() != null) {
+                        hostnameIndex.put(as.getHostname(), as.getId());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 按主机名新增或更新主机信息，已存在的主机通过索引找到ID后批量更新，不存在的批量插入
+     *
+     * @param recordList agent上报的主机信息
+     * @throws Exception
+     */
+    @Transactional
+    public void upsertRecord(List<SystemInfo> recordList) throws Exception {
+        loadHostnameIndex();
+        //同一批次里同一主机多次上报，只保留最后一次
+        Map<String, SystemInfo> latestMap = new LinkedHashMap<String, SystemInfo>();
+        for (SystemInfo systemInfo : recordList) {
+            if (systemInfo.getHostname() != null) {
+                latestMap.put(systemInfo.getHostname(), systemInfo);
+            }
+        }
+        List<SystemInfo> updateList = new ArrayList<SystemInfo>();
+        List<SystemInfo> insertList = new ArrayList<SystemInfo>();
+        for (SystemInfo systemInfo : latestMap.values()) {
+            String id = hostnameIndex.get(systemInfo.getHostname());
+            if (id != null) {
+                systemInfo.setId(id);
+                updateList.add(systemInfo);
+            } else {
+                insertList.add(systemInfo);
+            }
+        }
+        updateRecord(updateList);
+        saveRecord(insertList);
+    }
+
+    /**
+     * 按主机名查询主键ID，主机已删除时返回null
+     */
+    public String getIdByHostname(String hostname) throws Exception {
+        loadHostnameIndex();
+        return hostname == null ? null : hostnameIndex.get(hostname);
+    }
+
+    @Transactional
+    public int updateStateByIds(List<String> ids, String state) throws Exception {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return systemInfoMapper.updateStateByIds(ids, state);
+    }
+
+    private void loadHostnameIndex() throws Exception {
+        if (hostnameIndexLoaded) {
+            return;
+        }
+        synchronized (hostnameIndex) {
+            if (hostnameIndexLoaded) {
+                return;
+            }
+            List<SystemInfo> savedList = systemInfoMapper.selectAllByParams(new HashMap<String, Object>());
+            for (SystemInfo systemInfo : savedList) {
+                if (systemInfo.getHostname() != null) {
+                    hostnameIndex.put(systemInfo.getHostname(), systemInfo.getId());
+                }
+            }
+            hostnameIndexLoaded = true;
+        }
+    }
+
+    /**
+     * 在事务中时等提交后再执行，避免回滚后索引里留下库中不存在的ID；不在事务中时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
     @Transactional
@@ -66,7 +168,9 @@ public class SystemInfoService {
     }
 
     public int deleteById(String[] id) throws Exception {
-        return systemInfoMapper.deleteById(id);
+        int count = systemInfoMapper.deleteById(id);
+        afterCommit(() -> hostnameIndex.values().removeAll(Arrays.asList(id)));
+        return count;
     }
 
     public SystemInfo selectById(String id) throws Exception {
@@ -86,7 +190,12 @@ public class SystemInfoService {
     }
 
     public int deleteByAccHname(Map<String, Object> params) throws Exception {
-        return systemInfoMapper.deleteByAccHname(params);
+        int count = systemInfoMapper.deleteByAccHname(params);
+        if (params.get("hostname") != null) {
+            String hostname = params.get("hostname").toString();
+            afterCommit(() -> hostnameIndex.remove(hostname));
+        }
+        return count;
     }
 
 
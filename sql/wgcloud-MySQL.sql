@@ -96,6 +96,10 @@ CREATE TABLE `DB_TABLE` (
                             `TABLE_COUNT` bigint(20) DEFAULT NULL,
                             `DATE_STR` char(30) DEFAULT NULL,
                             `DBINFO_ID` char(32) DEFAULT NULL,
+                            `COUNT_MODE` varchar(20) DEFAULT 'exact',
+                            `INCR_COLUMN` varchar(50) DEFAULT NULL,
+                            `HIGH_WATER` varchar(64) DEFAULT NULL,
+                            `GROWTH_RATE` double DEFAULT NULL,
                             PRIMARY KEY (`ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
@@ -308,6 +312,21 @@ CREATE TABLE `ALARM_INFO` (
                               `REQUEST_CONTENT` text COMMENT '请求内容，特殊协议的DDOS攻击可不显示',
                               `CREATE_TIME` timestamp NULL DEFAULT NULL COMMENT '创建时间',
                               `IS_BLACKLIST` tinyint(1) NOT NULL DEFAULT 0 COMMENT '黑名单状态（1=是黑名单，0=非黑名单）',
+                              `OCCUR_COUNT` int(11) NOT NULL DEFAULT 1 COMMENT '同一报警类型、同一IP在一个时间段内合并的报警次数',
                               PRIMARY KEY (`ID`),
-                              INDEX `IDX_IP_BLACKLIST` (`IP_ADDRESS`, `IS_BLACKLIST`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='报警信息表';
\ No newline at end of file
+                              INDEX `IDX_IP_BLACKLIST` (`IP_ADDRESS`, `IS_BLACKLIST`),
+                              INDEX `IDX_IP_LOCATION_PENDING` (`IP_LOCATION`, `IP_ADDRESS`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='报警信息表';
+
+DROP TABLE IF EXISTS `IP_BLACKLIST`;
+CREATE TABLE `IP_BLACKLIST` (
+                                `ID` char(32) NOT NULL COMMENT '主键ID',
+                                `CIDR` char(50) NOT NULL COMMENT 'IP或CIDR地址段',
+                                `REMARK` varchar(255) DEFAULT NULL COMMENT '备注',
+                                `IS_DELETED` tinyint(1) NOT NULL DEFAULT 0 COMMENT '是否已删除（1=是，0=否），删除只做标记供agent增量同步',
+                                `VERSION` bigint(20) NOT NULL COMMENT '最后一次变更的版本号',
+                                `CREATE_TIME` timestamp NULL DEFAULT NULL COMMENT '创建时间',
+                                PRIMARY KEY (`ID`),
+                                UNIQUE KEY `UK_CIDR` (`CIDR`),
+                                INDEX `IDX_VERSION` (`VERSION`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='IP黑名单';
\ No newline at end of file
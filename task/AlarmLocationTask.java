@@ -0,0 +1,76 @@
+package com.wgcloud.task;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.entity.AlarmInfo;
+import com.wgcloud.mapper.AlarmInfoMapper;
+import com.wgcloud.util.IpLocationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @version v2.3
+ * @ClassName:AlarmLocationTask.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 补全报警IP地理位置。IP_LOCATION为空即待补全状态（有索引），任务按IP分批查询地址库后批量更新，
+ * 进度保存在数据库中，服务重启后继续处理剩余记录，页面查询和导出不再逐条解析地理位置
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Component
+public class AlarmLocationTask {
+
+    private Logger logger = LoggerFactory.getLogger(AlarmLocationTask.class);
+
+    @Autowired
+    private AlarmInfoMapper alarmInfoMapper;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    /**
+     * 每分钟处理一次，直到没有待补全的记录
+     */
+    @Scheduled(initialDelay = 90000L, fixedDelay = 60000L)
+    public void backfillTask() {
+        if (!IpLocationUtils.isLoaded()) {
+            return;
+        }
+        int batchSize = Math.max(1, commonConfig.getLocationBackfillBatchSize());
+        long start = System.currentTimeMillis();
+        int totalIps = 0;
+        int totalRows = 0;
+        try {
+            while (true) {
+                List<String> ips = alarmInfoMapper.selectPendingLocationIps(batchSize);
+                if (ips == null || ips.isEmpty()) {
+                    break;
+                }
+                List<AlarmInfo> updates = new ArrayList<>(ips.size());
+                for (String ip : ips) {
+                    AlarmInfo info = new AlarmInfo();
+                    info.setIpAddress(ip);
+                    info.setIpLocation(IpLocationUtils.getLocation(ip));
+                    updates.add(info);
+                }
+                int rows = alarmInfoMapper.updatePendingLocations(updates);
+                totalIps += ips.size();
+                totalRows += rows;
+                //没有更新任何记录时停止，避免同一批IP反复查询
+                if (rows == 0 || ips.size() < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("补全报警IP地理位置错误", e);
+        }
+        if (totalRows > 0) {
+            logger.info("补全报警IP地理位置，IP数：{}，记录数：{}，耗时{}ms", totalIps, totalRows, System.currentTimeMillis() - start);
+        }
+    }
+}
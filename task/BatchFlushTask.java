@@ -0,0 +1,219 @@
+package com.wgcloud.task;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.entity.*;
+import com.wgcloud.service.*;
+import com.wgcloud.util.batch.IngestRingBuffer;
+import com.wgcloud.util.staticvar.BatchData;
+import com.wgcloud.util.staticvar.StaticKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @version v2.3
+ * @ClassName:BatchFlushTask.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 上报数据持续入库，每张表一个写入器，缓冲条数或等待时间达到阈值即入库，各表并行写入互不阻塞
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Component
+public class BatchFlushTask {
+
+    private Logger logger = LoggerFactory.getLogger(BatchFlushTask.class);
+
+    @Autowired
+    SystemInfoService systemInfoService;
+    @Autowired
+    DeskStateService deskStateService;
+    @Autowired
+    LogInfoService logInfoService;
+    @Autowired
+    AppInfoService appInfoService;
+    @Autowired
+    CpuStateService cpuStateService;
+    @Autowired
+    MemStateService memStateService;
+    @Autowired
+    NetIoStateService netIoStateService;
+    @Autowired
+    SysLoadStateService sysLoadStateService;
+    @Autowired
+    AppStateService appStateService;
+    @Autowired
+    CommonConfig commonConfig;
+
+    private final List<TableWriter<?>> writers = new ArrayList<TableWriter<?>>();
+
+    /**
+     * 入库线程池，每张表同一时间最多一个写入任务，队列长度不会超过表的个数
+     */
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        BatchData.setOverflowPolicy(commonConfig.getIngestOverflow());
+        writers.add(new TableWriter<AppState>(BatchData.APP_STATE_LIST, list -> {
+            for (List<AppState> chunk : chunks(list)) {
+                appStateService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<CpuState>(BatchData.CPU_STATE_LIST, list -> {
+            for (List<CpuState> chunk : chunks(list)) {
+                cpuStateService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<MemState>(BatchData.MEM_STATE_LIST, list -> {
+            for (List<MemState> chunk : chunks(list)) {
+                memStateService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<NetIoState>(BatchData.NETIO_STATE_LIST, list -> {
+            for (List<NetIoState> chunk : chunks(list)) {
+                netIoStateService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<SysLoadState>(BatchData.SYSLOAD_STATE_LIST, list -> {
+            for (List<SysLoadState> chunk : chunks(list)) {
+                sysLoadStateService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<LogInfo>(BatchData.LOG_INFO_LIST, list -> {
+            for (List<LogInfo> chunk : chunks(list)) {
+                logInfoService.saveRecord(chunk);
+            }
+        }));
+        writers.add(new TableWriter<List<DeskState>>(BatchData.DESK_STATE_LIST, this::saveDeskState));
+        writers.add(new TableWriter<SystemInfo>(BatchData.SYSTEM_INFO_LIST, this::saveSystemInfo));
+        writers.add(new TableWriter<AppInfo>(BatchData.APP_INFO_LIST, this::saveAppInfo));
+
+        int threads = Math.max(1, commonConfig.getFlushThreads());
+        executor = new ThreadPoolExecutor(threads, threads, 2, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(writers.size()), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 30秒后执行，之后每隔1秒检查一次, 单位：ms。
+     * 缓冲条数达到flushRows或者最早一条数据等待超过flushMaxAge的表，提交入库
+     */
+    @Scheduled(initialDelay = 30000L, fixedDelay = 1000L)
+    public void flushTask() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int flushRows = commonConfig.getFlushRows();
+        long flushMaxAge = commonConfig.getFlushMaxAge();
+        for (TableWriter<?> writer : writers) {
+            IngestRingBuffer<?> buffer = writer.buffer;
+            if (buffer.size() < flushRows && buffer.getPendingAge(now) < flushMaxAge) {
+                continue;
+            }
+            if (writer.running.compareAndSet(false, true)) {
+                executor.execute(writer);
+            }
+        }
+    }
+
+    /**
+     * 每10分钟打印一次缓冲区状态
+     */
+    @Scheduled(initialDelay = 60000L, fixedRate = 10 * 60 * 1000)
+    public void statTask() {
+        logger.info("上报数据缓冲区状态----------" + BatchData.allBuffers());
+    }
+
+    /**
+     * 停止服务前把缓冲区剩余数据全部入库
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (TableWriter<?> writer : writers) {
+            if (writer.running.compareAndSet(false, true)) {
+                writer.run();
+            }
+        }
+    }
+
+    private void saveDeskState(List<List<DeskState>> DESK_STATE_LIST) throws Exception {
+        deskStateService.replaceByHostname(DESK_STATE_LIST, Math.max(1, commonConfig.getFlushChunkSize()));
+    }
+
+    private void saveSystemInfo(List<SystemInfo> SYSTEM_INFO_LIST) throws Exception {
+        for (List<SystemInfo> chunk : chunks(SYSTEM_INFO_LIST)) {
+            systemInfoService.upsertRecord(chunk);
+        }
+    }
+
+    private void saveAppInfo(List<AppInfo> APP_INFO_LIST) throws Exception {
+        for (List<AppInfo> chunk : chunks(APP_INFO_LIST)) {
+            appInfoService.upsertRecord(chunk);
+        }
+    }
+
+    /**
+     * 按flushChunkSize拆分，避免单条insert语句过大
+     */
+    private <T> List<List<T>> chunks(List<T> list) {
+        int chunkSize = Math.max(1, commonConfig.getFlushChunkSize());
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int i = 0; i < list.size(); i += chunkSize) {
+            chunks.add(list.subList(i, Math.min(list.size(), i + chunkSize)));
+        }
+        return chunks;
+    }
+
+    interface BatchWriter<T> {
+        void write(List<T> list) throws Exception;
+    }
+
+    /**
+     * 单张表的写入器，取出缓冲区全部数据后写入
+     */
+    class TableWriter<T> implements Runnable {
+
+        private final IngestRingBuffer<T> buffer;
+
+        private final BatchWriter<T> batchWriter;
+
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
+        TableWriter(IngestRingBuffer<T> buffer, BatchWriter<T> batchWriter) {
+            this.buffer = buffer;
+            this.batchWriter = batchWriter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<T> list = new ArrayList<T>();
+                if (buffer.drainTo(list) > 0) {
+                    batchWriter.write(list);
+                }
+            } catch (Exception e) {
+                logger.error("批量提交监控数据错误----------" + buffer.getName(), e);
+                logInfoService.save("commitTask", "批量提交监控数据错误：" + buffer.getName() + "，" + e.toString(), StaticKeys.LOG_ERROR);
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.wgcloud.task;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.entity.AppInfo;
+import com.wgcloud.entity.LogInfo;
+import com.wgcloud.entity.SystemInfo;
+import com.wgcloud.service.AppInfoService;
+import com.wgcloud.service.LogInfoService;
+import com.wgcloud.service.SystemInfoService;
+import com.wgcloud.util.msg.WarnMailUtil;
+import com.wgcloud.util.msg.WarnPools;
+import com.wgcloud.util.staticvar.StaticKeys;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * @version v2.3
+ * @ClassName:HeartbeatTracker.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 主机和进程心跳检测。agent每次上报时只在内存中记录最后上报时间，
+ * 到期检查用时间轮：每秒处理一个槽，槽中的主机或进程到期时如果期间有新的上报就按新的到期时间重新放入，
+ * 否则判定为下线。上报不移动时间轮中的位置，下线和恢复按批写入数据库，不再定时全表扫描
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Component
+public class HeartbeatTracker {
+
+    private Logger logger = LoggerFactory.getLogger(HeartbeatTracker.class);
+
+    private static final long TICK_MILLIS = 1000L;
+
+    /**
+     * 时间轮槽数，必须是2的幂
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    private static final int TYPE_HOST = 0;
+
+    private static final int TYPE_APP = 1;
+
+    /**
+     * 发送告警邮件的线程池
+     */
+    static ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 10, 2, TimeUnit.MINUTES, new LinkedBlockingDeque<>());
+
+    @Autowired
+    private SystemInfoService systemInfoService;
+    @Autowired
+    private AppInfoService appInfoService;
+    @Autowired
+    private LogInfoService logInfoService;
+    @Autowired
+    private CommonConfig commonConfig;
+
+    private final Map<String, Heartbeat> heartbeats = new ConcurrentHashMap<>();
+
+    /**
+     * 时间轮，由wheel加锁保护
+     */
+    @SuppressWarnings("unchecked")
+    private final List<Heartbeat>[] wheel = new List[WHEEL_SIZE];
+
+    private long currentTick = System.currentTimeMillis() / TICK_MILLIS;
+
+    /**
+     * 已恢复上报、等待发送恢复通知的主机和进程
+     */
+    private final Queue<Heartbeat> recovered = new ConcurrentLinkedQueue<>();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile boolean loaded = false;
+
+    public HeartbeatTracker() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * agent上报主机信息时调用
+     */
+    public void hostSeen(String hostname) {
+        if (!StringUtils.isEmpty(hostname)) {
+            seen(TYPE_HOST, hostname, null, System.currentTimeMillis(), false);
+        }
+    }
+
+    /**
+     * agent上报进程信息时调用
+     */
+    public void appSeen(String hostname, String appPid, String appName) {
+        if (!StringUtils.isEmpty(hostname) && !StringUtils.isEmpty(appPid)) {
+            Heartbeat heartbeat = seen(TYPE_APP, hostname, appPid, System.currentTimeMillis(), false);
+            heartbeat.appName = appName;
+        }
+    }
+
+    private Heartbeat seen(int type, String hostname, String appPid, long time, boolean down) {
+        String key = type == TYPE_HOST ? hostname : hostname + "\u0001" + appPid;
+        Heartbeat heartbeat = heartbeats.computeIfAbsent(key, k -> new Heartbeat(type, key, hostname, appPid));
+        if (time > heartbeat.lastSeen) {
+            heartbeat.lastSeen = time;
+        }
+        if (down) {
+            //启动时已是下线状态，不放入时间轮，恢复上报后再检测
+            heartbeat.down = true;
+            return heartbeat;
+        }
+        if (heartbeat.down || !heartbeat.scheduled) {
+            synchronized (wheel) {
+                if (heartbeat.down) {
+                    heartbeat.down = false;
+                    recovered.add(heartbeat);
+                }
+                if (!heartbeat.scheduled) {
+                    schedule(heartbeat);
+                }
+            }
+        }
+        return heartbeat;
+    }
+
+    /**
+     * 按最后上报时间放入时间轮，调用方持有wheel锁
+     */
+    private void schedule(Heartbeat heartbeat) {
+        long deadlineTick = (heartbeat.lastSeen + commonConfig.getHeartbeatTimeoutSeconds() * 1000L) / TICK_MILLIS;
+        if (deadlineTick <= currentTick) {
+            deadlineTick = currentTick + 1;
+        }
+        heartbeat.deadlineTick = deadlineTick;
+        heartbeat.scheduled = true;
+        wheel[(int) (deadlineTick & (WHEEL_SIZE - 1))].add(heartbeat);
+    }
+
+    /**
+     * 每秒推进时间轮，处理到期的主机和进程
+     */
+    @Scheduled(initialDelay = 30000L, fixedDelay = TICK_MILLIS)
+    public void tickTask() {
+        if (!loaded) {
+            load();
+        }
+        long now = System.currentTimeMillis();
+        long timeoutMillis = commonConfig.getHeartbeatTimeoutSeconds() * 1000L;
+        List<Heartbeat> expired = new ArrayList<>();
+        synchronized (wheel) {
+            long targetTick = now / TICK_MILLIS;
+            while (currentTick < targetTick) {
+                currentTick++;
+                int index = (int) (currentTick & (WHEEL_SIZE - 1));
+                List<Heartbeat> slot = wheel[index];
+                if (slot.isEmpty()) {
+                    continue;
+                }
+                wheel[index] = new ArrayList<>();
+                for (Heartbeat heartbeat : slot) {
+                    if (heartbeat.deadlineTick > currentTick) {
+                        //超过一圈才到期
+                        wheel[index].add(heartbeat);
+                        continue;
+                    }
+                    heartbeat.scheduled = false;
+                    if (heartbeat.lastSeen + timeoutMillis > now) {
+                        schedule(heartbeat);
+                    } else {
+                        heartbeat.down = true;
+                        expired.add(heartbeat);
+                    }
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            saveDown(expired);
+        }
+        if (!recovered.isEmpty()) {
+            sendRecovered();
+        }
+    }
+
+    /**
+     * 启动后加载一次已有的主机和进程，服务停止期间下线的也能检测到；
+     * 最后上报时间不早于启动时间，agent有一个完整的超时时间重新上报
+     */
+    private void load() {
+        loaded = true;
+        try {
+            for (SystemInfo systemInfo : systemInfoService.selectAllByParams(new HashMap<>())) {
+                seen(TYPE_HOST, systemInfo.getHostname(), null, lastSeen(systemInfo.getCreateTime()),
+                        StaticKeys.DOWN_STATE.equals(systemInfo.getState()));
+            }
+            for (AppInfo appInfo : appInfoService.selectAllByParams(new HashMap<>())) {
+                if (appInfo.getHostname() == null || appInfo.getAppPid() == null) {
+                    continue;
+                }
+                Heartbeat heartbeat = seen(TYPE_APP, appInfo.getHostname(), appInfo.getAppPid(), lastSeen(appInfo.getCreateTime()),
+                        StaticKeys.DOWN_STATE.equals(appInfo.getState()));
+                heartbeat.appName = appInfo.getAppName();
+            }
+            logger.info("加载主机和进程心跳" + heartbeats.size() + "条");
+        } catch (Exception e) {
+            logger.error("加载主机和进程心跳错误", e);
+        }
+    }
+
+    private long lastSeen(Date createTime) {
+        return createTime == null ? startTime : Math.max(createTime.getTime(), startTime);
+    }
+
+    /**
+     * 下线的主机和进程批量更新状态、保存日志，告警邮件在线程池中发送
+     */
+    private void saveDown(List<Heartbeat> expired) {
+        long timeoutSeconds = commonConfig.getHeartbeatTimeoutSeconds();
+        List<String> hostIds = new ArrayList<>();
+        List<String> appIds = new ArrayList<>();
+        List<LogInfo> logInfoList = new ArrayList<>();
+        for (Heartbeat heartbeat : expired) {
+            try {
+                String id = heartbeat.type == TYPE_HOST ? systemInfoService.getIdByHostname(heartbeat.hostname)
+                        : appInfoService.getIdByApp(heartbeat.hostname, heartbeat.appPid);
+                if (id == null) {
+                    //已在列表中删除，不再检测
+                    heartbeats.remove(heartbeat.key);
+                    continue;
+                }
+                heartbeat.id = id;
+                //已发送过告警的不再记录日志
+                boolean warned = !StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(id));
+                LogInfo logInfo = new LogInfo();
+                if (heartbeat.type == TYPE_HOST) {
+                    hostIds.add(id);
+                    logInfo.setHostname("主机下线：" + heartbeat.hostname);
+                    logInfo.setInfoContent("超过" + timeoutSeconds + "秒未上报状态，可能已下线：" + heartbeat.hostname);
+                } else {
+                    appIds.add(id);
+                    logInfo.setHostname("进程下线IP：" + heartbeat.hostname + "，名称：" + heartbeat.appName);
+                    logInfo.setInfoContent("超过" + timeoutSeconds + "秒未上报状态，可能已下线IP：" + heartbeat.hostname
+                            + "，名称：" + heartbeat.appName + "，进程ID：" + heartbeat.appPid);
+                }
+                logInfo.setState(StaticKeys.LOG_ERROR);
+                if (!warned) {
+                    logInfoList.add(logInfo);
+                    executor.execute(() -> sendMail(heartbeat, true));
+                }
+            } catch (Exception e) {
+                logger.error("检测主机和进程是否下线错误", e);
+            }
+        }
+        try {
+            systemInfoService.updateStateByIds(hostIds, StaticKeys.DOWN_STATE);
+            appInfoService.updateStateByIds(appIds, StaticKeys.DOWN_STATE);
+            if (logInfoList.size() > 0) {
+                logInfoService.saveRecord(logInfoList);
+            }
+        } catch (Exception e) {
+            logger.error("保存主机和进程下线状态错误", e);
+        }
+        logger.info("主机下线" + hostIds.size() + "个，进程下线" + appIds.size() + "个");
+    }
+
+    /**
+     * 恢复上报的主机和进程发送恢复通知，状态由agent上报的数据更新
+     */
+    private void sendRecovered() {
+        Heartbeat heartbeat;
+        while ((heartbeat = recovered.poll()) != null) {
+            try {
+                if (heartbeat.id == null) {
+                    //启动时已是下线状态的，没有解析过ID
+                    heartbeat.id = heartbeat.type == TYPE_HOST ? systemInfoService.getIdByHostname(heartbeat.hostname)
+                            : appInfoService.getIdByApp(heartbeat.hostname, heartbeat.appPid);
+                }
+            } catch (Exception e) {
+                logger.error("查询恢复上报的主机和进程错误", e);
+                continue;
+            }
+            if (heartbeat.id != null && !StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(heartbeat.id))) {
+                final Heartbeat target = heartbeat;
+                executor.execute(() -> sendMail(target, false));
+            }
+        }
+    }
+
+    private void sendMail(Heartbeat heartbeat, boolean isDown) {
+        try {
+            if (heartbeat.type == TYPE_HOST) {
+                SystemInfo systemInfo = systemInfoService.selectById(heartbeat.id);
+                if (systemInfo != null) {
+                    WarnMailUtil.sendHostDown(systemInfo, isDown);
+                }
+            } else {
+                AppInfo appInfo = appInfoService.selectById(heartbeat.id);
+                if (appInfo != null) {
+                    WarnMailUtil.sendAppDown(appInfo, isDown);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("发送主机和进程下线通知错误", e);
+        }
+    }
+
+    private static class Heartbeat {
+        final int type;
+        final String key;
+        final String hostname;
+        final String appPid;
+        volatile String appName;
+        volatile String id;
+        volatile long lastSeen;
+        volatile boolean down;
+        volatile boolean scheduled;
+        long deadlineTick;
+
+        Heartbeat(int type, String key, String hostname, String appPid) {
+            this.type = type;
+            this.key = key;
+            this.hostname = hostname;
+            this.appPid = appPid;
+        }
+    }
+}
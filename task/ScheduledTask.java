@@ -1,18 +1,15 @@
 package com.wgcloud.task;
 
 
-import cn.hutool.core.collection.CollectionUtil;
 import com.wgcloud.config.CommonConfig;
 import com.wgcloud.entity.*;
 import com.wgcloud.mapper.*;
 import com.wgcloud.service.*;
 import com.wgcloud.util.DateUtil;
-import com.wgcloud.util.RestUtil;
-import com.wgcloud.util.jdbc.ConnectionUtil;
-import com.wgcloud.util.jdbc.RDSConnection;
+import com.wgcloud.util.HeathProber;
+import com.wgcloud.util.jdbc.TableCounter;
 import com.wgcloud.util.msg.WarnMailUtil;
 import com.wgcloud.util.msg.WarnPools;
-import com.wgcloud.util.staticvar.BatchData;
 import com.wgcloud.util.staticvar.StaticKeys;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -79,9 +76,9 @@ public class ScheduledTask {
     @Autowired
     HeathMonitorService heathMonitorService;
     @Autowired
-    private RestUtil restUtil;
+    private HeathProber heathProber;
     @Autowired
-    ConnectionUtil connectionUtil;
+    TableCounter tableCounter;
     @Autowired
     CommonConfig commonConfig;
 
@@ -104,109 +101,6 @@ public class ScheduledTask {
     }
 
 
-    /**
-     * 300秒后执行
-     * 检测主机是否已经下线，检测进程是否下线
-     */
-    @Scheduled(initialDelay = 300000L, fixedRate = 20 * 60 * 1000)
-    public void hostDownCheckTask() {
-        Date date = DateUtil.getNowTime();
-        long delayTime = 900 * 1000;
-
-        try {
-            Map<String, Object> params = new HashMap<String, Object>();
-            List<SystemInfo> list = systemInfoService.selectAllByParams(params);
-            if (!CollectionUtil.isEmpty(list)) {
-                List<SystemInfo> updateList = new ArrayList<SystemInfo>();
-                List<LogInfo> logInfoList = new ArrayList<LogInfo>();
-                for (SystemInfo systemInfo : list) {
-
-                    Date createTime = systemInfo.getCreateTime();
-                    long diff = date.getTime() - createTime.getTime();
-                    if (diff > delayTime) {
-                        if (!StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(systemInfo.getId()))) {
-                            continue;
-                        }
-                        systemInfo.setState(StaticKeys.DOWN_STATE);
-                        LogInfo logInfo = new LogInfo();
-                        logInfo.setHostname("主机下线：" + systemInfo.getHostname());
-                        logInfo.setInfoContent("超过10分钟未上报状态，可能已下线：" + systemInfo.getHostname());
-                        logInfo.setState(StaticKeys.LOG_ERROR);
-                        logInfoList.add(logInfo);
-                        updateList.add(systemInfo);
-                        Runnable runnable = () -> {
-                            WarnMailUtil.sendHostDown(systemInfo, true);
-                        };
-                        executor.execute(runnable);
-                    } else {
-                        if (!StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(systemInfo.getId()))) {
-                            Runnable runnable = () -> {
-                                WarnMailUtil.sendHostDown(systemInfo, false);
-                            };
-                            executor.execute(runnable);
-                        }
-                    }
-                }
-                if (updateList.size() > 0) {
-                    systemInfoService.updateRecord(updateList);
-                }
-                if (logInfoList.size() > 0) {
-                    logInfoService.saveRecord(logInfoList);
-                }
-            }
-        } catch (Exception e) {
-            logger.error("检测主机是否下线错误", e);
-        }
-
-        try {
-            Map<String, Object> params = new HashMap<String, Object>();
-            List<AppInfo> list = appInfoService.selectAllByParams(params);
-            if (!CollectionUtil.isEmpty(list)) {
-                List<AppInfo> updateList = new ArrayList<AppInfo>();
-                List<LogInfo> logInfoList = new ArrayList<LogInfo>();
-                for (AppInfo appInfo : list) {
-
-                    Date createTime = appInfo.getCreateTime();
-                    long diff = date.getTime() - createTime.getTime();
-                    if (diff > delayTime) {
-                        if (!StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(appInfo.getId()))) {
-                            continue;
-                        }
-                        appInfo.setState(StaticKeys.DOWN_STATE);
-                        LogInfo logInfo = new LogInfo();
-                        logInfo.setHostname("进程下线IP：" + appInfo.getHostname() + "，名称：" + appInfo.getAppName());
-                        logInfo.setInfoContent("超过10分钟未上报状态，可能已下线IP：" + appInfo.getHostname() + "，名称：" + appInfo.getAppName() + "，进程ID：" + appInfo.getAppPid());
-                        logInfo.setState(StaticKeys.LOG_ERROR);
-                        logInfoList.add(logInfo);
-                        updateList.add(appInfo);
-                        Runnable runnable = () -> {
-                            WarnMailUtil.sendAppDown(appInfo, true);
-                        };
-                        executor.execute(runnable);
-                    } else {
-                        if (!StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(appInfo.getId()))) {
-                            Runnable runnable = () -> {
-                                WarnMailUtil.sendAppDown(appInfo, false);
-                            };
-                            executor.execute(runnable);
-                        }
-                    }
-                }
-                if (updateList.size() > 0) {
-                    appInfoService.updateRecord(updateList);
-                }
-                if (logInfoList.size() > 0) {
-                    logInfoService.saveRecord(logInfoList);
-                }
-            }
-        } catch (Exception e) {
-            logger.error("检测进程是否下线错误", e);
-        }
-
-
-    }
-
-
     /**
      * 90秒后执行，之后每隔10分钟执行, 单位：ms。
      * 检测心跳
@@ -221,11 +115,15 @@ public class ScheduledTask {
         try {
             List<HeathMonitor> heathMonitorAllList = heathMonitorService.selectAllByParams(params);
             if (heathMonitorAllList.size() > 0) {
-                for (HeathMonitor h : heathMonitorAllList) {
-                    int status = 500;
-                    status = restUtil.get(h.getHeathUrl());
+                int[] statuses = heathProber.probeAll(heathMonitorAllList);
+                for (int i = 0; i < heathMonitorAllList.size(); i++) {
+                    if (statuses[i] == HeathProber.NOT_PROBED) {
+                        //本轮超时未检测，保留上次的状态，不发送告警
+                        continue;
+                    }
+                    HeathMonitor h = heathMonitorAllList.get(i);
                     h.setCreateTime(date);
-                    h.setHeathStatus(status + "");
+                    h.setHeathStatus(statuses[i] + "");
                     heathMonitors.add(h);
                     if (!"200".equals(h.getHeathStatus())) {
                         if (!StringUtils.isEmpty(WarnPools.MEM_WARN_MAP.get(h.getId()))) {
@@ -268,40 +166,28 @@ public class ScheduledTask {
     @Scheduled(initialDelay = 60000L, fixedRateString = "${base.dbTableTimes}")
     public void tableCountTask() {
         Map<String, Object> params = new HashMap<>();
-        List<DbTable> dbTablesUpdate = new ArrayList<DbTable>();
         List<DbTableCount> dbTableCounts = new ArrayList<DbTableCount>();
         Date date = DateUtil.getNowTime();
-        String sql = "";
-        Long tableCount = 0l;
         try {
             List<DbInfo> dbInfos = dbInfoService.selectAllByParams(params);
+            Map<String, List<DbTable>> tablesByDb = new HashMap<>();
             for (DbInfo dbInfo : dbInfos) {
                 params.put("dbInfoId", dbInfo.getId());
-                List<DbTable> dbTables = dbTableService.selectAllByParams(params);
-                for (DbTable dbTable : dbTables) {
-                    String whereAnd = "";
-                    if (!StringUtils.isEmpty(dbTable.getWhereVal())) {
-                        whereAnd = " and ";
-                    }
-                    if ("postgresql".equals(dbInfo.getDbType())) {
-                        sql = RDSConnection.query_table_count_pg.replace("{tableName}", dbTable.getTableName()) + whereAnd + dbTable.getWhereVal();
-                    } else {
-                        sql = RDSConnection.query_table_count.replace("{tableName}", dbTable.getTableName()) + whereAnd + dbTable.getWhereVal();
-                    }
-                    tableCount = connectionUtil.queryTableCount(dbInfo, sql);
-                    DbTableCount dbTableCount = new DbTableCount();
-                    dbTableCount.setCreateTime(date);
-                    dbTableCount.setDbTableId(dbTable.getId());
-                    dbTableCount.setTableCount(tableCount);
-                    dbTableCounts.add(dbTableCount);
-                    dbTable.setDateStr(DateUtil.getDateTimeString(date));
-                    dbTable.setTableCount(tableCount);
-                    dbTablesUpdate.add(dbTable);
-                }
+                tablesByDb.put(dbInfo.getId(), dbTableService.selectAllByParams(params));
+            }
+            List<DbTable> dbTablesUpdate = tableCounter.countAll(dbInfos, tablesByDb);
+            for (DbTable dbTable : dbTablesUpdate) {
+                DbTableCount dbTableCount = new DbTableCount();
+                dbTableCount.setCreateTime(date);
+                dbTableCount.setDbTableId(dbTable.getId());
+                dbTableCount.setTableCount(dbTable.getTableCount());
+                dbTableCounts.add(dbTableCount);
+                dbTable.setDateStr(DateUtil.getDateTimeString(date));
             }
             if (dbTableCounts.size() > 0) {
                 dbTableCountService.saveRecord(dbTableCounts);
                 dbTableService.updateRecord(dbTablesUpdate);
+                dbTableService.updateCountProgress(dbTablesUpdate);
             }
         } catch (Exception e) {
             logger.error("数据表监控任务错误", e);
@@ -309,127 +195,6 @@ public class ScheduledTask {
         }
     }
 
-    /**
-     * 30秒后执行，之后每隔1分钟执行, 单位：ms。
-     * 批量提交数据
-     */
-    @Scheduled(initialDelay = 30000L, fixedRate = 1 * 60 * 1000)
-    public synchronized void commitTask() {
-        logger.info("批量提交监控数据任务开始----------" + DateUtil.getCurrentDateTime());
-        try {
-            if (BatchData.APP_STATE_LIST.size() > 0) {
-                List<AppState> APP_STATE_LIST = new ArrayList<AppState>();
-                APP_STATE_LIST.addAll(BatchData.APP_STATE_LIST);
-                BatchData.APP_STATE_LIST.clear();
-                appStateService.saveRecord(APP_STATE_LIST);
-            }
-            if (BatchData.CPU_STATE_LIST.size() > 0) {
-                List<CpuState> CPU_STATE_LIST = new ArrayList<CpuState>();
-                CPU_STATE_LIST.addAll(BatchData.CPU_STATE_LIST);
-                BatchData.CPU_STATE_LIST.clear();
-                cpuStateService.saveRecord(CPU_STATE_LIST);
-            }
-            if (BatchData.MEM_STATE_LIST.size() > 0) {
-                List<MemState> MEM_STATE_LIST = new ArrayList<MemState>();
-                MEM_STATE_LIST.addAll(BatchData.MEM_STATE_LIST);
-                BatchData.MEM_STATE_LIST.clear();
-                memStateService.saveRecord(MEM_STATE_LIST);
-            }
-            if (BatchData.NETIO_STATE_LIST.size() > 0) {
-                List<NetIoState> NETIO_STATE_LIST = new ArrayList<NetIoState>();
-                NETIO_STATE_LIST.addAll(BatchData.NETIO_STATE_LIST);
-                BatchData.NETIO_STATE_LIST.clear();
-                netIoStateService.saveRecord(NETIO_STATE_LIST);
-            }
-            if (BatchData.SYSLOAD_STATE_LIST.size() > 0) {
-                List<SysLoadState> SYSLOAD_STATE_LIST = new ArrayList<SysLoadState>();
-                SYSLOAD_STATE_LIST.addAll(BatchData.SYSLOAD_STATE_LIST);
-                BatchData.SYSLOAD_STATE_LIST.clear();
-                sysLoadStateService.saveRecord(SYSLOAD_STATE_LIST);
-            }
-            if (BatchData.LOG_INFO_LIST.size() > 0) {
-                List<LogInfo> LOG_INFO_LIST = new ArrayList<LogInfo>();
-                LOG_INFO_LIST.addAll(BatchData.LOG_INFO_LIST);
-                BatchData.LOG_INFO_LIST.clear();
-                logInfoService.saveRecord(LOG_INFO_LIST);
-            }
-            if (BatchData.DESK_STATE_LIST.size() > 0) {
-                Map<String, Object> paramsDel = new HashMap<String, Object>();
-
-                List<DeskState> DESK_STATE_LIST = new ArrayList<DeskState>();
-                DESK_STATE_LIST.addAll(BatchData.DESK_STATE_LIST);
-                BatchData.DESK_STATE_LIST.clear();
-                List<String> hostnameList = new ArrayList<String>();
-                for (DeskState deskState : DESK_STATE_LIST) {
-                    if (!hostnameList.contains(deskState.getHostname())) {
-                        hostnameList.add(deskState.getHostname());
-                    }
-                }
-                for (String hostname : hostnameList) {
-                    paramsDel.put("hostname", hostname);
-                    deskStateService.deleteByAccHname(paramsDel);
-                }
-                deskStateService.saveRecord(DESK_STATE_LIST);
-            }
-            if (BatchData.SYSTEM_INFO_LIST.size() > 0) {
-                Map<String, Object> paramsDel = new HashMap<String, Object>();
-                List<SystemInfo> SYSTEM_INFO_LIST = new ArrayList<SystemInfo>();
-                SYSTEM_INFO_LIST.addAll(BatchData.SYSTEM_INFO_LIST);
-                BatchData.SYSTEM_INFO_LIST.clear();
-                List<SystemInfo> updateList = new ArrayList<SystemInfo>();
-                List<SystemInfo> insertList = new ArrayList<SystemInfo>();
-                List<SystemInfo> savedList = systemInfoService.selectAllByParams(paramsDel);
-                for (SystemInfo systemInfo : SYSTEM_INFO_LIST) {
-                    boolean issaved = false;
-                    for (SystemInfo systemInfoS : savedList) {
-                        if (systemInfoS.getHostname().equals(systemInfo.getHostname())) {
-                            systemInfo.setId(systemInfoS.getId());
-                            updateList.add(systemInfo);
-                            issaved = true;
-                            break;
-                        }
-                    }
-                    if (!issaved) {
-                        insertList.add(systemInfo);
-                    }
-                }
-                systemInfoService.updateRecord(updateList);
-                systemInfoService.saveRecord(insertList);
-            }
-            if (BatchData.APP_INFO_LIST.size() > 0) {
-                Map<String, Object> paramsDel = new HashMap<String, Object>();
-                List<AppInfo> APP_INFO_LIST = new ArrayList<AppInfo>();
-                APP_INFO_LIST.addAll(BatchData.APP_INFO_LIST);
-                BatchData.APP_INFO_LIST.clear();
-
-                List<AppInfo> updateList = new ArrayList<AppInfo>();
-                List<AppInfo> insertList = new ArrayList<AppInfo>();
-                List<AppInfo> savedList = appInfoService.selectAllByParams(paramsDel);
-                for (AppInfo systemInfo : APP_INFO_LIST) {
-                    boolean issaved = false;
-                    for (AppInfo systemInfoS : savedList) {
-                        if (systemInfoS.getHostname().equals(systemInfo.getHostname()) && systemInfoS.getAppPid().equals(systemInfo.getAppPid())) {
-                            systemInfo.setId(systemInfoS.getId());
-                            updateList.add(systemInfo);
-                            issaved = true;
-                            break;
-                        }
-                    }
-                    if (!issaved) {
-                        insertList.add(systemInfo);
-                    }
-                }
-                appInfoService.updateRecord(updateList);
-                appInfoService.saveRecord(insertList);
-            }
-        } catch (Exception e) {
-            // TODO Auto-generated catch block
-            logger.error("批量提交监控数据错误----------", e);
-            logInfoService.save("commitTask", "批量提交监控数据错误：" + e.toString(), StaticKeys.LOG_ERROR);
-        }
-        logger.info("批量提交监控数据任务结束----------" + DateUtil.getCurrentDateTime());
-    }
-
     @Autowired
     SystemInfoMapper systemInfoMapper;
     @Autowired
@@ -0,0 +1,286 @@
+package com.wgcloud.util;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.dto.LatencyStats;
+import com.wgcloud.entity.HeathMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @version v2.3
+ * @ClassName:HeathProber.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 服务接口并发检测。所有接口同时检测，同一主机同时进行的检测数有上限，
+ * 一个检测结束后再开始该主机的下一个，不占用等待的线程；连接由JDK的keep-alive缓存复用，
+ * 每次检测都有连接和读取超时，一轮检测的耗时接近最慢的接口而不是所有接口之和
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Component
+public class HeathProber {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeathProber.class);
+
+    /**
+     * 连接失败、超时等没有拿到响应时的状态，与原来的检测保持一致
+     */
+    public static final int FAILED_STATUS = 500;
+
+    /**
+     * 超过最长等待时间仍未检测的接口，不代表接口异常，调用方不应更新其状态
+     */
+    public static final int NOT_PROBED = -1;
+
+    /**
+     * 每个接口保留最近多少次的响应时间
+     */
+    private static final int WINDOW_SIZE = 120;
+
+    /**
+     * 读取响应内容的上限，读完的连接才能放回keep-alive缓存
+     */
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 各接口最近的响应时间，key为接口监控ID
+     */
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, commonConfig.getHeathProbeThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "heath-probe-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 检测所有接口，全部完成或超过最长等待时间后返回
+     *
+     * @return 与monitors顺序一致的状态码，未完成的为NOT_PROBED
+     */
+    public int[] probeAll(List<HeathMonitor> monitors) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Sweep sweep = new Sweep(monitors);
+        int perHost = Math.max(1, commonConfig.getHeathProbePerHost());
+        int maxQueue = 0;
+        for (HostQueue hostQueue : sweep.hosts.values()) {
+            maxQueue = Math.max(maxQueue, hostQueue.pending.size());
+            for (int i = 0; i < perHost; i++) {
+                sweep.submitNext(hostQueue);
+            }
+        }
+        //每轮最多等待连接和读取两次超时，轮数取决于最忙的主机和线程数
+        int rounds = Math.max((maxQueue + perHost - 1) / perHost,
+                (monitors.size() + executor.getMaximumPoolSize() - 1) / executor.getMaximumPoolSize());
+        long waitMillis = 2L * commonConfig.getHeathProbeTimeoutMillis() * Math.max(rounds, 1);
+        if (!sweep.latch.await(waitMillis, TimeUnit.MILLISECONDS)) {
+            //还没开始的检测不再执行，避免与下一轮检测重叠
+            sweep.cancelled = true;
+            logger.warn("服务接口检测超过" + waitMillis + "ms未全部完成，未完成" + sweep.latch.getCount() + "个，本次不更新状态");
+        }
+
+        int[] statuses = new int[monitors.size()];
+        long[] latencies = new long[monitors.size()];
+        int done = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            long latency = sweep.latencies.get(i);
+            //先读响应时间，有响应时间的状态一定已写入
+            statuses[i] = latency >= 0 ? sweep.statuses.get(i) : NOT_PROBED;
+            if (latency >= 0) {
+                latencies[done++] = latency;
+            }
+        }
+        //已删除的接口不再保留统计
+        Set<String> ids = new HashSet<>();
+        for (HeathMonitor monitor : monitors) {
+            ids.add(monitor.getId());
+        }
+        windows.keySet().retainAll(ids);
+        logger.info("服务接口检测" + monitors.size() + "个，主机" + sweep.hosts.size() + "个，耗时"
+                + (System.currentTimeMillis() - start) + "ms，" + LatencyStats.of(Arrays.copyOf(latencies, done), 0));
+        return statuses;
+    }
+
+    /**
+     * 接口最近的响应时间统计
+     */
+    public LatencyStats getLatencyStats(String id) {
+        LatencyWindow window = id == null ? null : windows.get(id);
+        return window == null ? LatencyStats.EMPTY : window.snapshot();
+    }
+
+    private int probe(String url) {
+        HttpURLConnection conn = null;
+        try {
+            int timeout = commonConfig.getHeathProbeTimeoutMillis();
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setUseCaches(false);
+            int status = conn.getResponseCode();
+            drain(status < 400 ? conn.getInputStream() : conn.getErrorStream());
+            return status;
+        } catch (Exception e) {
+            if (conn != null) {
+                //出错的连接不放回缓存
+                conn.disconnect();
+            }
+            logger.debug("服务接口检测失败：" + url + "，" + e);
+            return FAILED_STATUS;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int read;
+            while (total < DRAIN_LIMIT && (read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 主机和端口，同一主机的检测共享并发上限
+     */
+    private static String hostKey(String url) {
+        try {
+            URL parsed = new URL(url);
+            return parsed.getHost().toLowerCase() + ":" + (parsed.getPort() < 0 ? parsed.getDefaultPort() : parsed.getPort());
+        } catch (Exception e) {
+            return String.valueOf(url);
+        }
+    }
+
+    /**
+     * 一轮检测的状态，结果按下标写入，检测结束后开始同一主机的下一个
+     */
+    private class Sweep {
+        final List<HeathMonitor> monitors;
+        final Map<String, HostQueue> hosts = new HashMap<>();
+        final AtomicIntegerArray statuses;
+        final AtomicLongArray latencies;
+        final CountDownLatch latch;
+        volatile boolean cancelled;
+
+        Sweep(List<HeathMonitor> monitors) {
+            this.monitors = monitors;
+            this.statuses = new AtomicIntegerArray(monitors.size());
+            this.latencies = new AtomicLongArray(monitors.size());
+            this.latch = new CountDownLatch(monitors.size());
+            for (int i = 0; i < monitors.size(); i++) {
+                statuses.set(i, NOT_PROBED);
+                latencies.set(i, -1);
+                hosts.computeIfAbsent(hostKey(monitors.get(i).getHeathUrl()), HostQueue::new).pending.add(i);
+            }
+        }
+
+        void submitNext(HostQueue hostQueue) {
+            Integer index = hostQueue.poll();
+            if (index == null) {
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (!cancelled) {
+                            run(index);
+                        }
+                    } finally {
+                        latch.countDown();
+                        submitNext(hostQueue);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //线程池已关闭，剩余的不再检测
+                latch.countDown();
+                while (hostQueue.poll() != null) {
+                    latch.countDown();
+                }
+            }
+        }
+
+        private void run(int index) {
+            HeathMonitor monitor = monitors.get(index);
+            long start = System.nanoTime();
+            int status = probe(monitor.getHeathUrl());
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            statuses.set(index, status);
+            latencies.set(index, latency);
+            if (monitor.getId() != null) {
+                windows.computeIfAbsent(monitor.getId(), k -> new LatencyWindow()).add(latency);
+            }
+        }
+    }
+
+    private static class HostQueue {
+        final String host;
+        final Deque<Integer> pending = new ArrayDeque<>();
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        synchronized Integer poll() {
+            return pending.poll();
+        }
+    }
+
+    /**
+     * 最近WINDOW_SIZE次的响应时间
+     */
+    private static class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        synchronized LatencyStats snapshot() {
+            if (count == 0) {
+                return LatencyStats.EMPTY;
+            }
+            long last = samples[(next + WINDOW_SIZE - 1) % WINDOW_SIZE];
+            return LatencyStats.of(Arrays.copyOf(samples, count), last);
+        }
+    }
+}
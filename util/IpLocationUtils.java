@@ -1,107 +1,112 @@
 package com.wgcloud.util;
 
+import com.wgcloud.config.CommonConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * IP 地理信息工具类
- * 使用 ip-api.com 提供的免费 API 查询 IP 地理位置
+ * 使用本地离线IP地址库查询 IP 地理位置，不访问网络，查询结果缓存在有界LRU缓存中
  */
 @Component
 public class IpLocationUtils {
 
-    private static final String API_URL = "http://ip-api.com/json/";
+    private static final Logger logger = LoggerFactory.getLogger(IpLocationUtils.class);
+
+    public static final String UNKNOWN_LOCATION = "未知地理位置";
+
+    private static final String LAN_LOCATION = "局域网";
+
+    private static volatile IpRangeDatabase database;
+
+    private static volatile Map<String, String> cache = newCache(10000);
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    @PostConstruct
+    public void init() {
+        cache = newCache(commonConfig.getIpLocationCacheSize());
+        File csvFile = new File(commonConfig.getIpDbFile());
+        if (!csvFile.isFile()) {
+            logger.warn("IP地址库文件不存在，地理位置均显示为未知：" + csvFile.getAbsolutePath());
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            database = IpRangeDatabase.load(csvFile);
+            logger.info("加载IP地址库" + csvFile.getAbsolutePath() + "，地址段数：" + database.size()
+                    + "，耗时" + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            logger.error("加载IP地址库错误：" + csvFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * IP地址库是否已加载，未加载时查询结果均为未知，不应写入数据库
+     */
+    public static boolean isLoaded() {
+        return database != null;
+    }
 
     /**
      * 获取 IP 的地理位置信息
      *
      * @param ip IP 地址
-     * @return 地理位置信息（格式：国家-城市），如果查询失败则返回 "未知地理位置"
+     * @return 地理位置信息，地址库中没有时返回 "未知地理位置"
      */
     public static String getLocation(String ip) {
         if (ip == null || ip.isEmpty() || ip.equals("未知IP")) {
-            return "未知地理位置";
+            return UNKNOWN_LOCATION;
         }
-
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-
-        try {
-            // 构建 URL
-            URL url = new URL(API_URL + ip + "?lang=zh-CN");
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(5000); // 设置连接超时时间为 5 秒
-            connection.setReadTimeout(5000);    // 设置读取超时时间为 5 秒
-
-            // 发送请求并获取响应
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                return parseLocationFromJson(response.toString());
-            } else {
-                return "API 请求失败，状态码: " + responseCode;
-            }
-        } catch (Exception e) {
-            return "地理位置查询失败: " + e.getMessage();
-        } finally {
-            // 关闭资源
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                connection.disconnect();
-            }
+        Map<String, String> locations = cache;
+        String location;
+        synchronized (locations) {
+            location = locations.get(ip);
+        }
+        if (location != null) {
+            return location;
         }
+        location = lookup(ip);
+        synchronized (locations) {
+            locations.put(ip, location);
+        }
+        return location;
     }
 
-    /**
-     * 从 JSON 数据中解析地理位置信息
-     *
-     * @param json API 返回的 JSON 数据
-     * @return 地理位置信息（格式：国家-城市）
-     */
-    private static String parseLocationFromJson(String json) {
-        try {
-            // 简单解析 JSON（实际项目中可以使用 Gson 或 Jackson）
-            String country = extractField(json, "country");
-            String city = extractField(json, "city");
-            return country + "-" + city;
-        } catch (Exception e) {
-            return "JSON 解析失败";
+    private static String lookup(String ip) {
+        long value = IpRangeDatabase.parseIp(ip);
+        if (value < 0) {
+            return UNKNOWN_LOCATION;
         }
+        if (isPrivate(value)) {
+            return LAN_LOCATION;
+        }
+        IpRangeDatabase db = database;
+        String location = db == null ? null : db.find((int) value);
+        return location != null ? location : UNKNOWN_LOCATION;
     }
 
     /**
-     * 从 JSON 字符串中提取指定字段的值
-     *
-     * @param json  JSON 字符串
-     * @param field 字段名
-     * @return 字段值
+     * 内网、回环和链路本地地址
      */
-    private static String extractField(String json, String field) {
-        int start = json.indexOf("\"" + field + "\":\"") + field.length() + 4;
-        int end = json.indexOf("\"", start);
-        return json.substring(start, end);
+    private static boolean isPrivate(long ip) {
+        return (ip >>> 24) == 10 || (ip >>> 24) == 127 || (ip >>> 20) == 0xAC1 || (ip >>> 16) == 0xC0A8 || (ip >>> 16) == 0xA9FE;
     }
 
-//    测试
-//    public static void main(String[] args) {
-//        String ip = "182.137.51.45"; // 测试 IP
-//        String location = getLocation(ip);
-//        System.out.println("IP: " + ip + ", 地理位置: " + location);
-//    }
-}
\ No newline at end of file
+    private static Map<String, String> newCache(final int capacity) {
+        return new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+}
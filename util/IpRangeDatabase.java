@@ -0,0 +1,199 @@
+package com.wgcloud.util;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @version v2.3
+ * @ClassName:IpRangeDatabase.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 离线IP地址库，按IPv4地址段查询地理位置。
+ * 源文件为CSV（起始IP,结束IP,地理位置，IP可以是点分格式或无符号整数），首次加载时编译为同名.idx二进制索引，
+ * 之后直接内存映射索引文件，按起始IP二分查找，查询不分配内存、不访问网络
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class IpRangeDatabase {
+
+    private static final int MAGIC = 0x49504442;
+
+    private static final int VERSION = 1;
+
+    /**
+     * 文件头：magic、版本、地址段数
+     */
+    private static final int HEADER_INTS = 3;
+
+    /**
+     * 每个地址段：起始IP、结束IP、地理位置在字符串表中的下标
+     */
+    private static final int RANGE_INTS = 3;
+
+    private final IntBuffer ranges;
+
+    private final int count;
+
+    private final String[] locations;
+
+    private IpRangeDatabase(MappedByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        IntBuffer ints = buffer.asIntBuffer();
+        if (ints.get(0) != MAGIC || ints.get(1) != VERSION) {
+            throw new IOException("invalid ip database index");
+        }
+        this.count = ints.get(2);
+        this.ranges = ints;
+        //地理位置字符串数量远小于地址段数量，加载到内存中，查询时直接返回同一个对象
+        int position = (HEADER_INTS + count * RANGE_INTS) * 4;
+        buffer.position(position);
+        int locationCount = buffer.getInt();
+        this.locations = new String[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+            locations[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 加载CSV地址库，索引文件不存在或早于CSV文件时重新编译
+     */
+    public static IpRangeDatabase load(File csvFile) throws IOException {
+        File indexFile = new File(csvFile.getPath() + ".idx");
+        if (!indexFile.exists() || indexFile.lastModified() < csvFile.lastModified()) {
+            compile(csvFile, indexFile);
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            //映射后关闭通道不影响已映射的内存
+            return new IpRangeDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * 查询IP的地理位置，不在任何地址段内时返回null
+     */
+    public String find(int ip) {
+        long target = ip & 0xFFFFFFFFL;
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        //查找起始IP不大于目标IP的最后一个地址段
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long start = ranges.get(HEADER_INTS + mid * RANGE_INTS) & 0xFFFFFFFFL;
+            if (start <= target) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+        int base = HEADER_INTS + found * RANGE_INTS;
+        long end = ranges.get(base + 1) & 0xFFFFFFFFL;
+        return target <= end ? locations[ranges.get(base + 2)] : null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 把CSV地址库编译为按起始IP排序的二进制索引
+     */
+    static void compile(File csvFile, File indexFile) throws IOException {
+        List<long[]> rangeList = new ArrayList<>();
+        Map<String, Integer> locationIndex = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(csvFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(",", 3);
+                if (parts.length < 3) {
+                    continue;
+                }
+                long start = parseIp(parts[0]);
+                long end = parseIp(parts[1]);
+                if (start < 0 || end < start) {
+                    continue;
+                }
+                String location = unquote(parts[2].trim());
+                Integer index = locationIndex.get(location);
+                if (index == null) {
+                    index = locationIndex.size();
+                    locationIndex.put(location, index);
+                }
+                rangeList.add(new long[]{start, end, index});
+            }
+        }
+        rangeList.sort(Comparator.comparingLong(r -> r[0]));
+
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rangeList.size());
+            for (long[] range : rangeList) {
+                out.writeInt((int) range[0]);
+                out.writeInt((int) range[1]);
+                out.writeInt((int) range[2]);
+            }
+            out.writeInt(locationIndex.size());
+            for (String location : locationIndex.keySet()) {
+                byte[] bytes = location.getBytes(StandardCharsets.UTF_8);
+                int length = Math.min(bytes.length, 0xFFFF);
+                out.writeShort(length);
+                out.write(bytes, 0, length);
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 解析点分格式或无符号整数格式的IPv4地址，格式错误返回-1
+     */
+    static long parseIp(String text) {
+        text = unquote(text.trim());
+        try {
+            if (text.indexOf('.') < 0) {
+                long value = Long.parseLong(text);
+                return value >= 0 && value <= 0xFFFFFFFFL ? value : -1;
+            }
+            String[] parts = text.split("\\.");
+            if (parts.length != 4) {
+                return -1;
+            }
+            long value = 0;
+            for (String part : parts) {
+                int octet = Integer.parseInt(part);
+                if (octet < 0 || octet > 255) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"")) {
+            return text.substring(1, text.length() - 1);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,250 @@
+package com.wgcloud.util.batch;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @version v2.3
+ * @ClassName:IngestRingBuffer.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: agent上报数据的有界无锁环形缓冲区，多个请求线程并发写入，提交任务取出后批量入库
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class IngestRingBuffer<E> {
+
+    /**
+     * 缓冲区写满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 拒绝本次写入，由调用方返回429让agent稍后重试
+         */
+        REJECT,
+        /**
+         * 丢弃最旧的一条数据，保证最新的数据能写入
+         */
+        DROP_OLDEST
+    }
+
+    private final String name;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> buffer;
+
+    /**
+     * 每个槽位的序号，用来判断槽位当前是可写还是可读（Vyukov有界队列算法）
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * 下一个写入位置
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 下一个读取位置
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong drainedCount = new AtomicLong();
+
+    /**
+     * 缓冲区中最早一条未取出数据的写入时间，0表示没有待取出数据
+     */
+    private final AtomicLong pendingSince = new AtomicLong();
+
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    public IngestRingBuffer(String name, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("缓冲区容量不能小于2：" + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.name = name;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 写入一条数据
+     *
+     * @param e 数据
+     * @return 是否写入成功，REJECT策略下缓冲区满时返回false
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException("不能写入空数据");
+        }
+        while (true) {
+            if (tryOffer(e)) {
+                enqueuedCount.incrementAndGet();
+                if (pendingSince.get() == 0) {
+                    pendingSince.compareAndSet(0, System.currentTimeMillis());
+                }
+                return true;
+            }
+            if (overflowPolicy == OverflowPolicy.REJECT) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (poll() != null) {
+                droppedCount.incrementAndGet();
+            } else {
+                //其他线程已占用槽位但还没写完，稍等再试
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * 取出当前缓冲区内的数据，每条数据只会被取出一次，取出和写入之间不会丢数据
+     *
+     * @param target   取出的数据放入的集合
+     * @param maxCount 最多取出条数
+     * @return 实际取出条数
+     */
+    public int drainTo(Collection<? super E> target, int maxCount) {
+        //先清零再取，取的过程中新写入的数据会重新记录时间，不会被漏掉
+        pendingSince.set(0);
+        int count = 0;
+        while (count < maxCount) {
+            E e = poll();
+            if (e == null) {
+                break;
+            }
+            target.add(e);
+            count++;
+        }
+        drainedCount.addAndGet(count);
+        if (count == maxCount && size() > 0) {
+            pendingSince.compareAndSet(0, System.currentTimeMillis());
+        }
+        return count;
+    }
+
+    public int drainTo(Collection<? super E> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    private boolean tryOffer(E e) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.set(index, e);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = buffer.get(index);
+                    buffer.set(index, null);
+                    sequences.set(index, pos + capacity);
+                    return e;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * 当前缓冲的数据条数（并发下为近似值）
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity);
+    }
+
+    /**
+     * 缓冲区剩余可写入条数（并发下为近似值）
+     */
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * 最早一条待取出数据已经等待的时间
+     *
+     * @param now 当前时间毫秒
+     * @return 等待毫秒数，没有待取出数据时返回0
+     */
+    public long getPendingAge(long now) {
+        long since = pendingSince.get();
+        if (since == 0) {
+            return 0;
+        }
+        return Math.max(0, now - since);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDrainedCount() {
+        return drainedCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[size=" + size() + ", enqueued=" + enqueuedCount.get() + ", dropped=" + droppedCount.get()
+                + ", drained=" + drainedCount.get() + "]";
+    }
+}
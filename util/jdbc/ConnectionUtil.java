@@ -1,23 +1,36 @@
 package com.wgcloud.util.jdbc;
 
+import com.wgcloud.config.CommonConfig;
 import com.wgcloud.entity.DbInfo;
 import com.wgcloud.service.DbInfoService;
 import com.wgcloud.service.LogInfoService;
 import com.wgcloud.util.staticvar.StaticKeys;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @version v2.3
  * @ClassName:ConnectionUtil.java
  * @author: http://www.wgstart.com
  * @date: 2019年11月16日
- * @Description: ConnectionUtil.java
+ * @Description: 监控数据库的连接。每个数据源缓存一个小连接池，连接参数变化、数据源删除或长时间未使用时关闭；
+ * 数据表统计每轮每个数据源只检测一次连接和更新一次状态
  * @Copyright: 2017-2022 wgcloud. All rights reserved.
  */
 @Component
@@ -27,74 +40,321 @@ public class ConnectionUtil {
     private LogInfoService logInfoService;
     @Resource
     private DbInfoService dbInfoService;
+    @Resource
+    private CommonConfig commonConfig;
+
+    /**
+     * 已创建的连接池，key为数据源ID
+     */
+    private final Map<String, PooledSource> pools = new ConcurrentHashMap<>();
 
+    /**
+     * 检测数据源连接，连接成功返回缓存的JdbcTemplate，失败返回null；数据源状态有变化时更新。
+     * 返回的JdbcTemplate使用完后必须调用release，使用期间连接池不会被关闭
+     */
     public JdbcTemplate getJdbcTemplate(DbInfo dbInfo) throws Exception {
         JdbcTemplate jdbcTemplate = null;
-        String driver = "";
-        String url = "";
-        if ("mysql".equals(dbInfo.getDbType())) {
-            driver = RDSConnection.driver_mysql;
-            url = RDSConnection.url_mysql;
-        } else if ("postgresql".equals(dbInfo.getDbType())) {
-            driver = RDSConnection.driver_postgresql;
-            url = RDSConnection.url_postgresql;
-        } else if ("sqlserver".equals(dbInfo.getDbType())) {
-            driver = RDSConnection.driver_sqlserver;
-            url = RDSConnection.url_sqlserver;
-        } else if ("db2".equals(dbInfo.getDbType())) {
-            driver = RDSConnection.driver_db2;
-            url = RDSConnection.url_db2;
-        } else {
-            driver = RDSConnection.driver_oracle;
-            url = RDSConnection.url_oracle;
-        }
-        url = url.replace("{ip}", dbInfo.getIp()).replace("{port}", dbInfo.getPort()).replace("{dbname}", dbInfo.getDbName());
         try {
-            //创建连接池
-            DriverManagerDataSource dataSource = new DriverManagerDataSource();
-            dataSource.setDriverClassName(driver);
-            dataSource.setUrl(url);
-            dataSource.setUsername(dbInfo.getUser());
-            dataSource.setPassword(dbInfo.getPasswd());
-            jdbcTemplate = new JdbcTemplate(dataSource);
-            if ("mysql".equals(dbInfo.getDbType())) {
-                jdbcTemplate.queryForRowSet(RDSConnection.MYSQL_VERSION);
-            } else if ("postgresql".equals(dbInfo.getDbType())) {
-                jdbcTemplate.queryForRowSet(RDSConnection.MYSQL_VERSION);
-            } else if ("sqlserver".equals(dbInfo.getDbType())) {
-                jdbcTemplate.queryForRowSet(RDSConnection.SQLSERVER_VERSION);
-            } else if ("db2".equals(dbInfo.getDbType())) {
-                jdbcTemplate.queryForRowSet(RDSConnection.DB2_VERSION);
-            } else {
-                jdbcTemplate.queryForRowSet(RDSConnection.ORACLE_VERSION);
-            }
-            dbInfo.setDbState("1");
-            dbInfoService.updateById(dbInfo);
+            jdbcTemplate = dbInfo.getId() == null ? newDriverManagerTemplate(dbInfo) : leasePooledTemplate(dbInfo);
+            jdbcTemplate.queryForRowSet(versionSql(dbInfo));
+            updateState(dbInfo, "1");
             return jdbcTemplate;
         } catch (Exception e) {
+            release(jdbcTemplate);
             jdbcTemplate = null;
             logger.error("连接数据库错误", e);
             logInfoService.save("连接数据库错误：" + dbInfo.getAliasName(), "IP：" + dbInfo.getIp() + "，端口：" + dbInfo.getPort() + "，数据库别名："
                     + dbInfo.getAliasName() + "，错误信息：" + e.toString(), StaticKeys.LOG_ERROR);
-            dbInfo.setDbState("2");
-            dbInfoService.updateById(dbInfo);
+            //连不上时关闭连接池，下次重新创建
+            invalidate(dbInfo.getId());
+            updateState(dbInfo, "2");
         }
         return null;
     }
 
-    public long queryTableCount(DbInfo dbInfo, String sql) {
+    /**
+     * 测试连接，使用页面上填写的参数，不使用也不替换已缓存的连接池
+     */
+    public boolean testConnection(DbInfo dbInfo) {
         try {
-            JdbcTemplate jdbcTemplate = getJdbcTemplate(dbInfo);
-            if (null == jdbcTemplate) {
-                return 0;
+            newDriverManagerTemplate(dbInfo).queryForRowSet(versionSql(dbInfo));
+            return true;
+        } catch (Exception e) {
+            logger.error("连接数据库错误", e);
+            logInfoService.save("连接数据库错误：" + dbInfo.getAliasName(), "IP：" + dbInfo.getIp() + "，端口：" + dbInfo.getPort() + "，数据库别名："
+                    + dbInfo.getAliasName() + "，错误信息：" + e.toString(), StaticKeys.LOG_ERROR);
+            return false;
+        }
+    }
+
+    /**
+     * 归还getJdbcTemplate返回的JdbcTemplate，从归还时间开始计算空闲时间；已被替换或失效的连接池在最后一个使用者归还后关闭
+     */
+    public void release(JdbcTemplate jdbcTemplate) {
+        if (jdbcTemplate instanceof PooledJdbcTemplate) {
+            PooledSource pooled = ((PooledJdbcTemplate) jdbcTemplate).pooled;
+            pooled.lastUsed = System.currentTimeMillis();
+            if (pooled.inUse.decrementAndGet() == 0 && pooled.retired) {
+                pooled.close();
             }
-            return jdbcTemplate.queryForObject(sql, Long.class);
+        }
+    }
+
+    /**
+     * 使用getJdbcTemplate检测过的连接统计数据表行数；查询失败或超时返回null，不能记为0行
+     */
+    public Long queryTableCount(DbInfo dbInfo, JdbcTemplate jdbcTemplate, String sql) {
+        try {
+            Long count = jdbcTemplate.queryForObject(sql, Long.class);
+            return count == null ? 0L : count;
         } catch (Exception e) {
             logger.error("统计数据表错误：", e);
             logInfoService.save("统计数据表错误：" + dbInfo.getAliasName(), "IP：" + dbInfo.getIp() + "，端口：" + dbInfo.getPort() + "，数据库别名："
                     + dbInfo.getAliasName() + "，错误信息：" + e.toString(), StaticKeys.LOG_ERROR);
-            return 0;
+            return null;
+        }
+    }
+
+    /**
+     * 执行SELECT COUNT(*), MAX(列)，返回行数和最大值，日期类型的最大值统一为Timestamp；查询失败时返回null
+     */
+    public Object[] queryCountAndMax(DbInfo dbInfo, JdbcTemplate jdbcTemplate, String sql, Object... args) {
+        try {
+            return jdbcTemplate.queryForObject(sql, args, (rs, rowNum) -> {
+                int type = rs.getMetaData().getColumnType(2);
+                boolean dateType = type == Types.DATE || type == Types.TIMESTAMP || type == Types.TIMESTAMP_WITH_TIMEZONE;
+                return new Object[]{rs.getLong(1), dateType ? rs.getTimestamp(2) : rs.getObject(2)};
+            });
+        } catch (Exception e) {
+            logger.error("增量统计数据表错误：", e);
+            logInfoService.save("增量统计数据表错误：" + dbInfo.getAliasName(), "IP：" + dbInfo.getIp() + "，端口：" + dbInfo.getPort() + "，数据库别名："
+                    + dbInfo.getAliasName() + "，错误信息：" + e.toString(), StaticKeys.LOG_ERROR);
+            return null;
+        }
+    }
+
+    /**
+     * 读取数据库统计信息中的行数，不扫描数据表；没有统计信息或查询失败时返回null
+     */
+    public Long queryEstimatedCount(DbInfo dbInfo, JdbcTemplate jdbcTemplate, String tableName) {
+        try {
+            List<Long> rows = jdbcTemplate.queryForList(estimatedCountSql(dbInfo), Long.class, tableName);
+            Long count = rows.isEmpty() ? null : rows.get(0);
+            return count == null || count < 0 ? null : count;
+        } catch (Exception e) {
+            logger.warn("读取数据表统计信息错误：" + dbInfo.getAliasName() + "，" + tableName + "，" + e);
+            return null;
+        }
+    }
+
+    /**
+     * 数据源修改或删除后不再使用它的连接池，正在统计的数据表完成后关闭
+     */
+    public void invalidate(String dbInfoId) {
+        if (dbInfoId == null) {
+            return;
+        }
+        PooledSource pooled = pools.remove(dbInfoId);
+        if (pooled != null) {
+            pooled.retire();
+        }
+    }
+
+    /**
+     * 关闭长时间未使用且没有使用者的连接池，池中的空闲连接由连接池自己按空闲时间关闭
+     */
+    @Scheduled(initialDelay = 600000L, fixedDelay = 600000L)
+    public void evictIdle() {
+        long expireTime = System.currentTimeMillis() - commonConfig.getDbPoolIdleMillis();
+        for (String id : pools.keySet()) {
+            //与leasePooledTemplate在同一把锁内判断，移除后不会再有新的使用者
+            pools.computeIfPresent(id, (k, pooled) -> {
+                if (pooled.inUse.get() > 0 || pooled.lastUsed >= expireTime) {
+                    return pooled;
+                }
+                pooled.retire();
+                return null;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (PooledSource pooled : pools.values()) {
+            pooled.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * 已保存的数据源使用缓存的连接池，连接参数变化时重新创建，旧连接池在正在进行的统计完成后关闭
+     */
+    private JdbcTemplate leasePooledTemplate(DbInfo dbInfo) {
+        String driver = driver(dbInfo);
+        String url = url(dbInfo);
+        String key = url + "\u0001" + dbInfo.getUser() + "\u0001" + dbInfo.getPasswd();
+        PooledSource pooled = pools.compute(dbInfo.getId(), (id, old) -> {
+            PooledSource current = old;
+            if (current == null || !current.key.equals(key) || current.dataSource.isClosed()) {
+                if (old != null) {
+                    old.retire();
+                }
+                HikariDataSource dataSource = createDataSource(dbInfo, driver, url);
+                current = new PooledSource(key, dataSource, commonConfig.getTableCountTimeoutSeconds());
+            }
+            current.inUse.incrementAndGet();
+            return current;
+        });
+        pooled.lastUsed = System.currentTimeMillis();
+        return pooled.jdbcTemplate;
+    }
+
+    /**
+     * 未保存的数据源（测试连接）每次新建连接，不缓存
+     */
+    private JdbcTemplate newDriverManagerTemplate(DbInfo dbInfo) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        dataSource.setDriverClassName(driver(dbInfo));
+        dataSource.setUrl(url(dbInfo));
+        dataSource.setUsername(dbInfo.getUser());
+        dataSource.setPassword(dbInfo.getPasswd());
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setQueryTimeout(commonConfig.getTableCountTimeoutSeconds());
+        return jdbcTemplate;
+    }
+
+    private HikariDataSource createDataSource(DbInfo dbInfo, String driver, String url) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("wgcloud-db-" + dbInfo.getAliasName());
+        config.setDriverClassName(driver);
+        config.setJdbcUrl(url);
+        config.setUsername(dbInfo.getUser());
+        config.setPassword(dbInfo.getPasswd());
+        //数据表统计按数据源并行，连接数不少于每个数据源的并行数
+        config.setMaximumPoolSize(Math.max(1, Math.max(commonConfig.getDbPoolMaxSize(), commonConfig.getTableCountPerDb())));
+        //不预先建立连接，空闲超时后全部关闭
+        config.setMinimumIdle(0);
+        config.setIdleTimeout(Math.max(10000L, commonConfig.getDbPoolIdleMillis()));
+        config.setMaxLifetime(Math.max(config.getIdleTimeout() + 30000L, 1800000L));
+        config.setConnectionTimeout(commonConfig.getDbConnectTimeoutMillis());
+        //创建时不检测连接，连接失败由getJdbcTemplate记录
+        config.setInitializationFailTimeout(-1);
+        return new HikariDataSource(config);
+    }
+
+    private void updateState(DbInfo dbInfo, String state) throws Exception {
+        if (Objects.equals(state, dbInfo.getDbState())) {
+            return;
+        }
+        dbInfo.setDbState(state);
+        dbInfoService.updateById(dbInfo);
+    }
+
+    private static String driver(DbInfo dbInfo) {
+        if ("mysql".equals(dbInfo.getDbType())) {
+            return RDSConnection.driver_mysql;
+        } else if ("postgresql".equals(dbInfo.getDbType())) {
+            return RDSConnection.driver_postgresql;
+        } else if ("sqlserver".equals(dbInfo.getDbType())) {
+            return RDSConnection.driver_sqlserver;
+        } else if ("db2".equals(dbInfo.getDbType())) {
+            return RDSConnection.driver_db2;
+        } else {
+            return RDSConnection.driver_oracle;
+        }
+    }
+
+    private static String url(DbInfo dbInfo) {
+        String url;
+        if ("mysql".equals(dbInfo.getDbType())) {
+            url = RDSConnection.url_mysql;
+        } else if ("postgresql".equals(dbInfo.getDbType())) {
+            url = RDSConnection.url_postgresql;
+        } else if ("sqlserver".equals(dbInfo.getDbType())) {
+            url = RDSConnection.url_sqlserver;
+        } else if ("db2".equals(dbInfo.getDbType())) {
+            url = RDSConnection.url_db2;
+        } else {
+            url = RDSConnection.url_oracle;
+        }
+        return url.replace("{ip}", dbInfo.getIp()).replace("{port}", dbInfo.getPort()).replace("{dbname}", dbInfo.getDbName());
+    }
+
+    private static String versionSql(DbInfo dbInfo) {
+        if ("mysql".equals(dbInfo.getDbType())) {
+            return RDSConnection.MYSQL_VERSION;
+        } else if ("postgresql".equals(dbInfo.getDbType())) {
+            return RDSConnection.MYSQL_VERSION;
+        } else if ("sqlserver".equals(dbInfo.getDbType())) {
+            return RDSConnection.SQLSERVER_VERSION;
+        } else if ("db2".equals(dbInfo.getDbType())) {
+            return RDSConnection.DB2_VERSION;
+        } else {
+            return RDSConnection.ORACLE_VERSION;
+        }
+    }
+
+    private static String estimatedCountSql(DbInfo dbInfo) {
+        if ("mysql".equals(dbInfo.getDbType())) {
+            return RDSConnection.estimated_count_mysql;
+        } else if ("postgresql".equals(dbInfo.getDbType())) {
+            return RDSConnection.estimated_count_pg;
+        } else if ("sqlserver".equals(dbInfo.getDbType())) {
+            return RDSConnection.estimated_count_sqlserver;
+        } else if ("db2".equals(dbInfo.getDbType())) {
+            return RDSConnection.estimated_count_db2;
+        } else {
+            return RDSConnection.estimated_count_oracle;
+        }
+    }
+
+    private static class PooledSource {
+        final String key;
+        final HikariDataSource dataSource;
+        final JdbcTemplate jdbcTemplate;
+        /**
+         * 正在使用的统计数，getJdbcTemplate时加一，release时减一
+         */
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        volatile long lastUsed;
+        /**
+         * 已从缓存移除，最后一个使用者归还后关闭
+         */
+        volatile boolean retired;
+
+        PooledSource(String key, HikariDataSource dataSource, int queryTimeout) {
+            this.key = key;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new PooledJdbcTemplate(this);
+            //每条SQL都有超时时间，超时后由驱动取消查询
+            this.jdbcTemplate.setQueryTimeout(queryTimeout);
+        }
+
+        void retire() {
+            retired = true;
+            if (inUse.get() == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                dataSource.close();
+            }
+        }
+    }
+
+    /**
+     * 记录所属的连接池，release时据此找到连接池
+     */
+    private static class PooledJdbcTemplate extends JdbcTemplate {
+        final PooledSource pooled;
+
+        PooledJdbcTemplate(PooledSource pooled) {
+            super(pooled.dataSource);
+            this.pooled = pooled;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -38,4 +38,13 @@ public class RDSConnection {
     public static final String MAX_USED_CONN = "show global status like 'Max_used_connections'";//服务器响应的最大连接数
     public static final String query_table_count = "SELECT COUNT(*) FROM {tableName} WHERE 1=1 ";
     public static final String query_table_count_pg = "SELECT COUNT(*) FROM \"{tableName}\" WHERE 1=1 ";
+    public static final String estimated_count_mysql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";//MySQL统计信息中的行数
+    public static final String estimated_count_pg = "SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE relname = ? AND relkind IN ('r', 'p') LIMIT 1";//PostgreSQL统计信息中的行数，未分析过为-1
+    public static final String estimated_count_sqlserver = "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)";//sqlserver堆或聚集索引的行数
+    public static final String estimated_count_db2 = "SELECT CARD FROM SYSCAT.TABLES WHERE TABSCHEMA = CURRENT SCHEMA AND TABNAME = UPPER(?)";//db2统计信息中的行数，未统计过为-1
+    public static final String estimated_count_oracle = "SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = UPPER(?)";//Oracle统计信息中的行数
+    public static final String incr_table_count = "SELECT COUNT(*), MAX({column}) FROM {tableName} WHERE {column} > ? ";//增量统计高水位之后的行数和新的高水位
+    public static final String incr_table_count_pg = "SELECT COUNT(*), MAX(\"{column}\") FROM \"{tableName}\" WHERE \"{column}\" > ? ";
+    public static final String incr_table_count_full = "SELECT COUNT(*), MAX({column}) FROM {tableName} WHERE 1=1 ";//首次增量统计，全量统计并取得高水位
+    public static final String incr_table_count_full_pg = "SELECT COUNT(*), MAX(\"{column}\") FROM \"{tableName}\" WHERE 1=1 ";
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+package com.wgcloud.util.jdbc;
+
+import com.wgcloud.config.CommonConfig;
+import com.wgcloud.entity.DbInfo;
+import com.wgcloud.entity.DbTable;
+import com.wgcloud.util.DateUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * @version v2.3
+ * @ClassName:TableCounter.java
+ * @author: http://www.wgstart.com
+ * @date: 2026年10月18日
+ * @Description: 数据表行数统计。多个数据源并行统计，每个数据源同时执行的SQL数有上限，单条SQL有超时时间，
+ * 一个数据源慢不影响其他数据源；统计方式为estimated的数据表读取数据库的统计信息，不扫描数据表；
+ * incremental的数据表只统计自增列或时间列大于高水位的行，加上次的总数，适用于只插入不删除的数据表
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+@Component
+public class TableCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableCounter.class);
+
+    public static final String COUNT_MODE_EXACT = "exact";
+
+    public static final String COUNT_MODE_ESTIMATED = "estimated";
+
+    public static final String COUNT_MODE_INCREMENTAL = "incremental";
+
+    private static final Pattern COLUMN_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]{0,49}");
+
+    private static final Pattern INTEGER = Pattern.compile("-?\\d{1,18}");
+
+    @Resource
+    private ConnectionUtil connectionUtil;
+    @Resource
+    private CommonConfig commonConfig;
+
+    /**
+     * 每个数据源一个任务，负责检测连接和分发该数据源的统计SQL
+     */
+    private ThreadPoolExecutor dbExecutor;
+
+    /**
+     * 执行统计SQL
+     */
+    private ThreadPoolExecutor queryExecutor;
+
+    @PostConstruct
+    public void init() {
+        int dbThreads = Math.max(1, commonConfig.getTableCountDbThreads());
+        int queryThreads = dbThreads * Math.max(1, commonConfig.getTableCountPerDb());
+        dbExecutor = newExecutor(dbThreads, "table-count-db-");
+        queryExecutor = newExecutor(queryThreads, "table-count-sql-");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dbExecutor.shutdownNow();
+        queryExecutor.shutdownNow();
+    }
+
+    /**
+     * 并行统计各数据源的数据表，超过一个统计周期仍未完成的数据源本次不记录
+     *
+     * @param tablesByDb key为数据源ID
+     * @return 统计完成的数据表，tableCount为本次的行数
+     */
+    public List<DbTable> countAll(List<DbInfo> dbInfos, Map<String, List<DbTable>> tablesByDb) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Map<DbInfo, Future<List<DbTable>>> futures = new LinkedHashMap<>();
+        for (DbInfo dbInfo : dbInfos) {
+            List<DbTable> tables = tablesByDb.get(dbInfo.getId());
+            if (tables != null && !tables.isEmpty()) {
+                futures.put(dbInfo, dbExecutor.submit(() -> countDb(dbInfo, tables)));
+            }
+        }
+        long deadline = start + commonConfig.getDbTableTimes();
+        List<DbTable> counted = new ArrayList<>();
+        for (Map.Entry<DbInfo, Future<List<DbTable>>> entry : futures.entrySet()) {
+            DbInfo dbInfo = entry.getKey();
+            try {
+                counted.addAll(entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                logger.warn("统计数据表超时，本次不记录：" + dbInfo.getAliasName());
+            } catch (ExecutionException e) {
+                logger.error("统计数据表错误：" + dbInfo.getAliasName(), e.getCause());
+            }
+        }
+        logger.info("统计数据源" + futures.size() + "个，数据表" + counted.size() + "个，耗时" + (System.currentTimeMillis() - start) + "ms");
+        return counted;
+    }
+
+    /**
+     * 检测一次连接后统计该数据源的所有数据表，同时执行的SQL不超过tableCountPerDb个
+     */
+    private List<DbTable> countDb(DbInfo dbInfo, List<DbTable> tables) throws Exception {
+        JdbcTemplate jdbcTemplate = connectionUtil.getJdbcTemplate(dbInfo);
+        if (jdbcTemplate == null) {
+            return Collections.emptyList();
+        }
+        int perDb = Math.max(1, commonConfig.getTableCountPerDb());
+        CompletionService<DbTable> completionService = new ExecutorCompletionService<>(queryExecutor);
+        List<Future<DbTable>> submitted = new ArrayList<>();
+        List<DbTable> counted = new ArrayList<>();
+        Iterator<DbTable> iterator = tables.iterator();
+        int running = 0;
+        try {
+            while (iterator.hasNext() || running > 0) {
+                while (running < perDb && iterator.hasNext()) {
+                    DbTable dbTable = iterator.next();
+                    submitted.add(completionService.submit(() -> count(dbInfo, jdbcTemplate, dbTable)));
+                    running++;
+                }
+                Future<DbTable> future = completionService.take();
+                running--;
+                try {
+                    DbTable dbTable = future.get();
+                    if (dbTable != null) {
+                        counted.add(dbTable);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("统计数据表错误：" + dbInfo.getAliasName(), e.getCause());
+                }
+            }
+        } finally {
+            //超时取消时不再等待正在执行的SQL
+            for (Future<DbTable> future : submitted) {
+                future.cancel(true);
+            }
+            connectionUtil.release(jdbcTemplate);
+        }
+        return counted;
+    }
+
+    /**
+     * 统计一张数据表，统计失败或超时返回null，本次不记录该表
+     */
+    private DbTable count(DbInfo dbInfo, JdbcTemplate jdbcTemplate, DbTable dbTable) {
+        Long previous = dbTable.getTableCount();
+        String previousDate = dbTable.getDateStr();
+        Long tableCount = null;
+        if (COUNT_MODE_INCREMENTAL.equals(dbTable.getCountMode()) && isColumnName(dbTable.getIncrColumn())) {
+            //增量统计失败或超时时本次不记录，不改为COUNT(*)全表扫描
+            tableCount = countIncremental(dbInfo, jdbcTemplate, dbTable);
+            if (tableCount == null) {
+                return null;
+            }
+        } else if (COUNT_MODE_ESTIMATED.equals(dbTable.getCountMode()) && StringUtils.isEmpty(dbTable.getWhereVal())) {
+            //统计信息是整张表的行数，带where条件时仍执行COUNT(*)
+            tableCount = connectionUtil.queryEstimatedCount(dbInfo, jdbcTemplate, dbTable.getTableName());
+        }
+        if (tableCount == null) {
+            tableCount = connectionUtil.queryTableCount(dbInfo, jdbcTemplate, countSql(dbInfo, dbTable));
+        }
+        if (tableCount == null) {
+            return null;
+        }
+        dbTable.setTableCount(tableCount);
+        dbTable.setGrowthRate(growthRate(previous, previousDate, tableCount));
+        return dbTable;
+    }
+
+    /**
+     * 有高水位时只统计新增的行，首次统计或统计设置修改后全量统计一次并记录高水位；查询失败返回null
+     */
+    private Long countIncremental(DbInfo dbInfo, JdbcTemplate jdbcTemplate, DbTable dbTable) {
+        Long previous = dbTable.getTableCount();
+        Object highWater = parseHighWater(dbTable.getHighWater());
+        boolean full = highWater == null || previous == null;
+        String where = StringUtils.isEmpty(dbTable.getWhereVal()) ? "" : " and " + dbTable.getWhereVal();
+        String sql;
+        if ("postgresql".equals(dbInfo.getDbType())) {
+            sql = full ? RDSConnection.incr_table_count_full_pg : RDSConnection.incr_table_count_pg;
+        } else {
+            sql = full ? RDSConnection.incr_table_count_full : RDSConnection.incr_table_count;
+        }
+        sql = sql.replace("{tableName}", dbTable.getTableName()).replace("{column}", dbTable.getIncrColumn()) + where;
+        Object[] result = full ? connectionUtil.queryCountAndMax(dbInfo, jdbcTemplate, sql)
+                : connectionUtil.queryCountAndMax(dbInfo, jdbcTemplate, sql, highWater);
+        if (result == null) {
+            //高水位作废，下次重新全量统计
+            dbTable.setHighWater(null);
+            return null;
+        }
+        long count = (Long) result[0];
+        if (result[1] != null) {
+            dbTable.setHighWater(formatHighWater(result[1]));
+        }
+        return full ? count : previous + count;
+    }
+
+    /**
+     * 与上次统计相比每秒增加的行数，没有上次的统计结果时为null
+     */
+    private static Double growthRate(Long previous, String previousDate, Long tableCount) {
+        if (previous == null || tableCount == null || StringUtils.isEmpty(previousDate)) {
+            return null;
+        }
+        try {
+            long seconds = (System.currentTimeMillis() - DateUtil.getDate(previousDate).getTime()) / 1000;
+            if (seconds <= 0) {
+                return null;
+            }
+            return Math.round((tableCount - previous) * 100.0 / seconds) / 100.0;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 自增列、时间列名只允许字母、数字和下划线，防止拼接SQL注入
+     */
+    public static boolean isColumnName(String column) {
+        return column != null && COLUMN_NAME.matcher(column).matches();
+    }
+
+    /**
+     * 高水位按原类型绑定参数：整数、时间，其他按字符串
+     */
+    private static Object parseHighWater(String highWater) {
+        if (StringUtils.isEmpty(highWater)) {
+            return null;
+        }
+        if (INTEGER.matcher(highWater).matches()) {
+            return Long.parseLong(highWater);
+        }
+        try {
+            return new BigDecimal(highWater);
+        } catch (NumberFormatException e) {
+            //不是数字
+        }
+        try {
+            return Timestamp.valueOf(highWater);
+        } catch (IllegalArgumentException e) {
+            return highWater;
+        }
+    }
+
+    private static String formatHighWater(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof Date && !(value instanceof Timestamp)) {
+            return new Timestamp(((Date) value).getTime()).toString();
+        }
+        return value.toString();
+    }
+
+    private static String countSql(DbInfo dbInfo, DbTable dbTable) {
+        String where = "";
+        if (!StringUtils.isEmpty(dbTable.getWhereVal())) {
+            where = " and " + dbTable.getWhereVal();
+        }
+        if ("postgresql".equals(dbInfo.getDbType())) {
+            return RDSConnection.query_table_count_pg.replace("{tableName}", dbTable.getTableName()) + where;
+        }
+        return RDSConnection.query_table_count.replace("{tableName}", dbTable.getTableName()) + where;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String namePrefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, namePrefix + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,58 @@
+package com.wgcloud.util.staticvar;
+
+import com.wgcloud.entity.*;
+import com.wgcloud.util.batch.IngestRingBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @version v2.3
+ * @ClassName:BatchData.java
+ * @author: http://www.wgstart.com
+ * @date: 2019年11月16日
+ * @Description: agent上报的监控数据缓冲区，按数据类型分别缓冲，定时批量提交入库
+ * @Copyright: 2017-2024 wgcloud. All rights reserved.
+ */
+public class BatchData {
+
+    public static final IngestRingBuffer<AppInfo> APP_INFO_LIST = new IngestRingBuffer<AppInfo>("APP_INFO", 1 << 17);
+
+    public static final IngestRingBuffer<AppState> APP_STATE_LIST = new IngestRingBuffer<AppState>("APP_STATE", 1 << 17);
+
+    public static final IngestRingBuffer<CpuState> CPU_STATE_LIST = new IngestRingBuffer<CpuState>("CPU_STATE", 1 << 15);
+
+    public static final IngestRingBuffer<MemState> MEM_STATE_LIST = new IngestRingBuffer<MemState>("MEM_STATE", 1 << 15);
+
+    public static final IngestRingBuffer<NetIoState> NETIO_STATE_LIST = new IngestRingBuffer<NetIoState>("NETIO_STATE", 1 << 15);
+
+    public static final IngestRingBuffer<SysLoadState> SYSLOAD_STATE_LIST = new IngestRingBuffer<SysLoadState>("SYSLOAD_STATE", 1 << 15);
+
+    public static final IngestRingBuffer<LogInfo> LOG_INFO_LIST = new IngestRingBuffer<LogInfo>("LOG_INFO", 1 << 15);
+
+    /**
+     * 每个元素是一次上报的全部磁盘，同一主机的磁盘快照整体写入、整体替换
+     */
+    public static final IngestRingBuffer<List<DeskState>> DESK_STATE_LIST = new IngestRingBuffer<List<DeskState>>("DESK_STATE", 1 << 15);
+
+    public static final IngestRingBuffer<SystemInfo> SYSTEM_INFO_LIST = new IngestRingBuffer<SystemInfo>("SYSTEM_INFO", 1 << 15);
+
+    public static List<IngestRingBuffer<?>> allBuffers() {
+        return Arrays.<IngestRingBuffer<?>>asList(APP_INFO_LIST, APP_STATE_LIST, CPU_STATE_LIST, MEM_STATE_LIST,
+                NETIO_STATE_LIST, SYSLOAD_STATE_LIST, LOG_INFO_LIST, DESK_STATE_LIST, SYSTEM_INFO_LIST);
+    }
+
+    /**
+     * 设置缓冲区写满时的处理策略
+     *
+     * @param policy reject：拒绝写入，agent收到429后重试；dropOldest：丢弃最旧数据
+     */
+    public static void setOverflowPolicy(String policy) {
+        IngestRingBuffer.OverflowPolicy overflowPolicy = "reject".equalsIgnoreCase(policy)
+                ? IngestRingBuffer.OverflowPolicy.REJECT : IngestRingBuffer.OverflowPolicy.DROP_OLDEST;
+        for (IngestRingBuffer<?> buffer : allBuffers()) {
+            buffer.setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+}
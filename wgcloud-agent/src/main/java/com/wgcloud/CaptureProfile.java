@@ -0,0 +1,69 @@
+package com.wgcloud;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Objects;
+
+/**
+ * @version V2.3
+ * @ClassName:CaptureProfile.java
+ * @author: wgcloud
+ * @date: 2026年10月18日
+ * @Description: 抓包配置，BPF过滤、方向、抓包长度和采样率，启动时取本地配置，之后以server下发的为准
+ * @Copyright: 2017-2024 www.wgstart.com. All rights reserved.
+ */
+@Getter
+@Setter
+public class CaptureProfile {
+
+    /**
+     * BPF过滤表达式，为空时不过滤
+     */
+    private String bpf;
+
+    /**
+     * 抓包方向，IN、OUT、INOUT
+     */
+    private String direction;
+
+    /**
+     * 每个数据包最多抓取的字节数
+     */
+    private int snaplen;
+
+    /**
+     * 采样率，每N个数据包保留1个，1表示全部保留
+     */
+    private int sampleRate;
+
+    public CaptureProfile(String bpf, String direction, int snaplen, int sampleRate) {
+        this.bpf = bpf == null ? "" : bpf.trim();
+        this.direction = direction == null || direction.isEmpty() ? "INOUT" : direction.toUpperCase();
+        this.snaplen = snaplen > 0 ? snaplen : 65536;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CaptureProfile)) {
+            return false;
+        }
+        CaptureProfile that = (CaptureProfile) o;
+        return snaplen == that.snaplen && sampleRate == that.sampleRate
+                && bpf.equals(that.bpf) && direction.equals(that.direction);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bpf, direction, snaplen, sampleRate);
+    }
+
+    @Override
+    public String toString() {
+        return "bpf=" + bpf + ", direction=" + direction + ", snaplen=" + snaplen + ", sampleRate=" + sampleRate;
+    }
+}
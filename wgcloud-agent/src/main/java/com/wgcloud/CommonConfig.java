@@ -17,4 +17,26 @@ public class CommonConfig {
     private String networkName;
     private int snapshotLength;
     private int timeout;
+    //BPF过滤表达式，为空时不过滤，server下发配置后以server为准
+    private String captureBpf = "";
+    //抓包方向，IN、OUT、INOUT
+    private String captureDirection = "INOUT";
+    //采样率，每N个数据包保留1个，1表示全部保留
+    private int sampleRate = 1;
+    //抓包分段文件保存目录
+    private String captureDir = "./pcap";
+    //单个分段文件最大字节数，超过后切换到新文件
+    private long segmentMaxBytes = 64L * 1024 * 1024;
+    //单个分段文件最长时间，单位：秒
+    private int segmentMaxSeconds = 120;
+    //等待上传的分段文件最多保留个数，超过后删除最旧的分段
+    private int maxSegments = 10;
+    //网卡抓包内核缓冲区大小，单位：字节
+    private int captureBufferSize = 16 * 1024 * 1024;
+    //pcap分块上传每块字节数
+    private int uploadChunkSize = 1024 * 1024;
+    //黑名单来源的数据包处理方式，skip 丢弃不写入分段文件，flag 照常保存只统计命中数，off 不检查
+    private String blacklistMode = "flag";
+    //IP黑名单同步间隔，单位：毫秒
+    private long blacklistSyncMillis = 5000L;
 }
@@ -0,0 +1,77 @@
+package com.wgcloud;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @version V2.3
+ * @ClassName:IpBlacklist.java
+ * @author: wgcloud
+ * @date: 2026年10月18日
+ * @Description: server下发的IP黑名单，按版本号增量同步，抓包线程按源IP查询
+ * @Copyright: 2017-2024 www.wgstart.com. All rights reserved.
+ */
+@Component
+public class IpBlacklist {
+
+    /**
+     * 标准格式的地址段，只由同步任务修改
+     */
+    private final Map<String, Long> entries = new HashMap<>();
+
+    private volatile long version = 0;
+
+    private volatile IpPrefixSet prefixSet = IpPrefixSet.EMPTY;
+
+    public boolean contains(int ip) {
+        return prefixSet.contains(ip);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return prefixSet.size();
+    }
+
+    /**
+     * 应用server返回的变更，名单有变化时重新构建地址段集合
+     *
+     * @return 名单是否有变化
+     */
+    public synchronized boolean apply(JSONObject result) {
+        long newVersion = result.getLong("version", version);
+        if (newVersion == version && !result.getBool("full", false)) {
+            return false;
+        }
+        if (result.getBool("full", false)) {
+            entries.clear();
+        }
+        JSONArray added = result.getJSONArray("added");
+        if (added != null) {
+            for (Object item : added) {
+                long value = IpPrefixSet.parseCidr(String.valueOf(item));
+                if (value >= 0) {
+                    entries.put(IpPrefixSet.toCidrString(value), value);
+                }
+            }
+        }
+        JSONArray removed = result.getJSONArray("removed");
+        if (removed != null) {
+            for (Object item : removed) {
+                long value = IpPrefixSet.parseCidr(String.valueOf(item));
+                if (value >= 0) {
+                    entries.remove(IpPrefixSet.toCidrString(value));
+                }
+            }
+        }
+        prefixSet = new IpPrefixSet(entries.values());
+        version = newVersion;
+        return true;
+    }
+}
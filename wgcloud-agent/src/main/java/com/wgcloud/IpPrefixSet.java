@@ -0,0 +1,206 @@
+package com.wgcloud;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * @version V2.3
+ * @ClassName:IpPrefixSet.java
+ * @author: wgcloud
+ * @date: 2026年10月18日
+ * @Description: IPv4地址段集合，高16位直接寻址，低16位为二叉前缀树，查询最多16步、不分配内存。
+ * 构建后只读，抓包线程查询时不需要加锁，黑名单变化时重新构建后整体替换
+ * @Copyright: 2017-2024 www.wgstart.com. All rights reserved.
+ */
+public final class IpPrefixSet {
+
+    public static final IpPrefixSet EMPTY = new IpPrefixSet(Collections.<Long>emptyList());
+
+    private static final int ROOT_BITS = 16;
+
+    /**
+     * 高16位对应的地址全部在集合中
+     */
+    private static final int COVERED = -1;
+
+    /**
+     * 高16位直接寻址，0表示不在集合中，大于0为低16位前缀树的节点
+     */
+    private final int[] root = new int[1 << ROOT_BITS];
+
+    /**
+     * 节点i的两个子节点为children[2i]和children[2i+1]，0号节点不使用
+     */
+    private int[] children = new int[64];
+
+    private boolean[] terminal = new boolean[32];
+
+    private int nodeCount = 1;
+
+    private final int size;
+
+    /**
+     * @param cidrs parseCidr返回的地址段
+     */
+    public IpPrefixSet(Collection<Long> cidrs) {
+        //按前缀长度排序，先加入短前缀，被覆盖的长前缀直接跳过
+        long[] sorted = new long[cidrs.size()];
+        int i = 0;
+        for (Long cidr : cidrs) {
+            sorted[i++] = ((long) prefixLength(cidr) << 32) | (network(cidr) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(sorted);
+        for (long value : sorted) {
+            add((int) value, (int) (value >>> 32));
+        }
+        this.size = sorted.length;
+    }
+
+    public boolean contains(int ip) {
+        int node = root[ip >>> ROOT_BITS];
+        if (node == COVERED) {
+            return true;
+        }
+        for (int bit = ROOT_BITS - 1; node != 0; bit--) {
+            if (terminal[node]) {
+                return true;
+            }
+            if (bit < 0) {
+                return false;
+            }
+            node = children[node * 2 + ((ip >>> bit) & 1)];
+        }
+        return false;
+    }
+
+    /**
+     * @param ip 点分格式IPv4地址，格式错误时返回false
+     */
+    public boolean contains(String ip) {
+        long value = parseIpv4(ip);
+        return value >= 0 && contains((int) value);
+    }
+
+    /**
+     * 加入构建时的地址段个数
+     */
+    public int size() {
+        return size;
+    }
+
+    private void add(int network, int length) {
+        int top = network >>> ROOT_BITS;
+        if (length <= ROOT_BITS) {
+            Arrays.fill(root, top, top + (1 << (ROOT_BITS - length)), COVERED);
+            return;
+        }
+        int node = root[top];
+        if (node == COVERED) {
+            return;
+        }
+        if (node == 0) {
+            node = newNode();
+            root[top] = node;
+        }
+        for (int bit = ROOT_BITS - 1; bit >= 32 - length; bit--) {
+            if (terminal[node]) {
+                return;
+            }
+            int index = node * 2 + ((network >>> bit) & 1);
+            if (children[index] == 0) {
+                int child = newNode();
+                children[index] = child;
+            }
+            node = children[index];
+        }
+        terminal[node] = true;
+    }
+
+    private int newNode() {
+        int node = nodeCount++;
+        if (node >= terminal.length) {
+            terminal = Arrays.copyOf(terminal, terminal.length * 2);
+            children = Arrays.copyOf(children, terminal.length * 2);
+        }
+        return node;
+    }
+
+    /**
+     * 解析a.b.c.d或a.b.c.d/n格式的地址段，主机位清零，高32位为网络地址、低8位为前缀长度，格式错误返回-1
+     */
+    public static long parseCidr(String text) {
+        if (text == null) {
+            return -1;
+        }
+        text = text.trim();
+        int length = 32;
+        int slash = text.indexOf('/');
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(text.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            if (length < 0 || length > 32) {
+                return -1;
+            }
+            text = text.substring(0, slash).trim();
+        }
+        long ip = parseIpv4(text);
+        if (ip < 0) {
+            return -1;
+        }
+        long mask = length == 0 ? 0 : (0xFFFFFFFFL << (32 - length)) & 0xFFFFFFFFL;
+        return ((ip & mask) << 8) | length;
+    }
+
+    /**
+     * 地址段的标准格式，单个IP不带前缀长度
+     */
+    public static String toCidrString(long cidr) {
+        int network = network(cidr);
+        int length = prefixLength(cidr);
+        String ip = (network >>> 24) + "." + ((network >>> 16) & 0xFF) + "." + ((network >>> 8) & 0xFF) + "." + (network & 0xFF);
+        return length == 32 ? ip : ip + "/" + length;
+    }
+
+    public static int network(long cidr) {
+        return (int) (cidr >>> 8);
+    }
+
+    public static int prefixLength(long cidr) {
+        return (int) (cidr & 0xFF);
+    }
+
+    /**
+     * 解析点分格式IPv4地址，格式错误返回-1
+     */
+    public static long parseIpv4(String text) {
+        if (text == null) {
+            return -1;
+        }
+        long value = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                value = (value << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return -1;
+        }
+        return (value << 8) | octet;
+    }
+}
@@ -1,55 +1,96 @@
 package com.wgcloud;
 
 import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
 import org.pcap4j.core.*;
-import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.namednumber.DataLinkType;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.*;
-import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.stereotype.Component;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * 流量抓包，只打开一个网卡句柄，抓到的原始数据包直接写入pcap分段文件，
+ * 分段文件达到大小或时间上限后切换到新文件，已完成的分段等待上传，超过保留个数时删除最旧的分段
+ */
 @Component
 public class Pcap4j {
     @Autowired
     private RestTemplate restTemplate;
 
-    private final int snapshotLength;
     private final int timeout;
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMddHHmmss");
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int UPLOAD_MAX_RETRIES = 3;
 
     private final PcapNetworkInterface networkInterface;
     private volatile boolean capturing = false;
-    private final List<Packet> packetBuffer = new CopyOnWriteArrayList<>();
-    private PcapHandle handle;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
 
     private final CommonConfig commonConfig;
 
+    private final IpBlacklist ipBlacklist;
+
+    private final File captureDir;
+
+    /**
+     * 已写完、等待上传的分段文件，按时间先后排列
+     */
+    private final ConcurrentLinkedDeque<File> completedSegments = new ConcurrentLinkedDeque<>();
+
+    /**
+     * 上传任务请求抓包线程结束当前分段
+     */
+    private volatile boolean rotateRequested = false;
+
+    private int segmentSeq = 0;
+
+    /**
+     * 当前使用的抓包配置，server下发新配置后由抓包线程切换
+     */
+    private volatile CaptureProfile profile;
+
+    // 以下统计由抓包线程更新
+    private volatile long packetsWritten = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long packetsReceived = 0;
+    private volatile long packetsDropped = 0;
+    private volatile long packetsDroppedByIf = 0;
+    private volatile long packetsSampledOut = 0;
+    private volatile long packetsBlacklisted = 0;
+    private final AtomicLong segmentsDropped = new AtomicLong();
+
     @Autowired
-    public Pcap4j(CommonConfig commonConfig) throws PcapNativeException {
+    public Pcap4j(CommonConfig commonConfig, IpBlacklist ipBlacklist) throws PcapNativeException {
         this.commonConfig = commonConfig;
+        this.ipBlacklist = ipBlacklist;
         if (this.commonConfig == null) {
             throw new IllegalArgumentException("CommonConfig 不能为空");
         }
 
         String networkName = this.commonConfig.getNetworkName();
-        this.snapshotLength = this.commonConfig.getSnapshotLength();
         this.timeout = this.commonConfig.getTimeout();
 
         if (networkName == null || networkName.isEmpty()) {
@@ -61,6 +102,14 @@ public class Pcap4j {
             throw new IllegalArgumentException("没有找到配置的网卡，网卡名为: " + networkName);
         }
 
+        profile = new CaptureProfile(commonConfig.getCaptureBpf(), commonConfig.getCaptureDirection(),
+                commonConfig.getSnapshotLength(), commonConfig.getSampleRate());
+
+        captureDir = new File(this.commonConfig.getCaptureDir());
+        if (!captureDir.exists()) {
+            captureDir.mkdirs();
+        }
+
         System.out.println("设置网卡为: " + networkInterface.getName());
         startCapture();
     }
@@ -73,124 +122,400 @@ public class Pcap4j {
         capturing = true;
 
         executorService.submit(() -> {
-            try (PcapHandle handle = networkInterface.openLive(snapshotLength, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, timeout)) {
-                this.handle = handle;
-                System.out.println("开始监听: " + networkInterface.getName());
-
-                handle.loop(-1, (PacketListener) packet -> {
-                    if (capturing) {
-                        packetBuffer.add(packet);
-                    } else {
-                        try {
-                            handle.breakLoop();
-                        } catch (NotOpenException e) {
-                            throw new RuntimeException(e);
-                        }
+            try {
+                // 抓包长度变化时需要重新打开网卡句柄
+                while (capturing) {
+                    CaptureProfile current = profile;
+                    try (PcapHandle handle = new PcapHandle.Builder(networkInterface.getName())
+                            .snaplen(current.getSnaplen())
+                            .promiscuousMode(PcapNetworkInterface.PromiscuousMode.PROMISCUOUS)
+                            .timeoutMillis(timeout)
+                            .bufferSize(commonConfig.getCaptureBufferSize())
+                            .build()) {
+                        applyFilter(handle, current);
+                        System.out.println("开始监听: " + networkInterface.getName() + "，" + current);
+                        captureLoop(handle, current);
                     }
-                });
-            } catch (PcapNativeException | NotOpenException | InterruptedException e) {
+                }
+            } catch (PcapNativeException | NotOpenException e) {
                 System.err.println("Pcap 监听失败: " + e.getMessage());
-                Thread.currentThread().interrupt();
+            } finally {
+                capturing = false;
             }
         });
     }
 
-    public String saveCaptureToFile() {
-        if (packetBuffer.isEmpty()) {
-            System.out.println("没有捕获到数据包，无法保存！");
-            return "";
+    /**
+     * 在内核中按BPF表达式和方向过滤，不需要的数据包不会复制到用户空间
+     */
+    private void applyFilter(PcapHandle handle, CaptureProfile profile) throws PcapNativeException, NotOpenException {
+        try {
+            // 表达式为空时匹配全部数据包
+            handle.setFilter(profile.getBpf(), BpfProgram.BpfCompileMode.OPTIMIZE);
+        } catch (PcapNativeException e) {
+            System.err.println("Pcap BPF表达式错误: " + profile.getBpf() + "，" + e.getMessage());
+        }
+        try {
+            handle.setDirection(PcapHandle.PcapDirection.valueOf(profile.getDirection()));
+        } catch (IllegalArgumentException | PcapNativeException e) {
+            // Windows等平台不支持设置方向
+            System.err.println("Pcap 设置抓包方向失败: " + profile.getDirection() + "，" + e.getMessage());
+        }
+    }
+
+    /**
+     * server下发新的抓包配置，过滤条件在抓包线程中直接切换，抓包长度变化时重新打开网卡
+     */
+    public void applyProfile(CaptureProfile newProfile) {
+        if (newProfile == null || newProfile.equals(profile)) {
+            return;
         }
+        System.out.println("Pcap 抓包配置变更: " + newProfile);
+        profile = newProfile;
+    }
+
+    /**
+     * 抓包线程，读超时后检查是否需要切换分段，没有流量时也能按时切换
+     */
+    private void captureLoop(PcapHandle handle, CaptureProfile current) throws PcapNativeException, NotOpenException {
+        PcapDumper dumper = null;
+        int sampleRate = current.getSampleRate();
+        long sampleCount = 0;
+        File segmentFile = null;
+        long segmentBytes = 0;
+        long segmentPackets = 0;
+        long segmentStart = 0;
+        long lastStatTime = 0;
+        long segmentMaxBytes = commonConfig.getSegmentMaxBytes();
+        long segmentMaxMillis = commonConfig.getSegmentMaxSeconds() * 1000L;
+        String blacklistMode = commonConfig.getBlacklistMode();
+        boolean checkBlacklist = !"off".equalsIgnoreCase(blacklistMode) && DataLinkType.EN10MB.equals(handle.getDlt());
+        boolean skipBlacklisted = "skip".equalsIgnoreCase(blacklistMode);
+        try {
+            while (capturing) {
+                CaptureProfile latest = profile;
+                if (latest != current) {
+                    if (latest.getSnaplen() != current.getSnaplen()) {
+                        break;
+                    }
+                    applyFilter(handle, latest);
+                    current = latest;
+                    sampleRate = current.getSampleRate();
+                }
 
-        String outputFile = "capture_" + DATE_FORMAT.format(new Date()) + ".pcap";
-        try (PcapHandle dummyHandle = networkInterface.openLive(snapshotLength, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, timeout);
-             PcapDumper dumper = dummyHandle.dumpOpen(outputFile)) {
+                byte[] raw = null;
+                try {
+                    raw = handle.getNextRawPacketEx();
+                } catch (TimeoutException e) {
+                    // 读超时，没有新数据包
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // 源IP在黑名单中，按配置丢弃或只计数
+                if (raw != null && checkBlacklist) {
+                    long srcIp = ethernetSourceIpv4(raw);
+                    if (srcIp >= 0 && ipBlacklist.contains((int) srcIp)) {
+                        packetsBlacklisted++;
+                        if (skipBlacklisted) {
+                            raw = null;
+                        }
+                    }
+                }
+
+                // 采样，每sampleRate个数据包保留1个
+                if (raw != null && sampleRate > 1 && (sampleCount++ % sampleRate) != 0) {
+                    raw = null;
+                    packetsSampledOut++;
+                }
+
+                if (raw != null) {
+                    if (dumper == null) {
+                        segmentFile = new File(captureDir, "capture_" + DATE_FORMAT.format(new Date()) + "_" + (segmentSeq++) + ".pcap");
+                        dumper = handle.dumpOpen(segmentFile.getAbsolutePath());
+                        segmentBytes = 0;
+                        segmentPackets = 0;
+                        segmentStart = System.currentTimeMillis();
+                    }
+                    dumper.dumpRaw(raw, handle.getTimestamp());
+                    // 每个数据包在pcap文件中另有16字节的包头
+                    segmentBytes += raw.length + 16;
+                    segmentPackets++;
+                    packetsWritten++;
+                    bytesWritten += raw.length;
+                }
+
+                long now = System.currentTimeMillis();
+                if (dumper != null && (rotateRequested || segmentBytes >= segmentMaxBytes || now - segmentStart >= segmentMaxMillis)) {
+                    dumper.close();
+                    dumper = null;
+                    completeSegment(segmentFile, segmentPackets);
+                }
+                if (rotateRequested && dumper == null) {
+                    rotateRequested = false;
+                }
+                if (now - lastStatTime >= 1000) {
+                    lastStatTime = now;
+                    updateStats(handle);
+                }
+            }
+        } finally {
+            if (dumper != null) {
+                dumper.close();
+                completeSegment(segmentFile, segmentPackets);
+            }
+        }
+    }
+
+    /**
+     * 从以太网帧中取IPv4源地址，支持一层VLAN标签，不是IPv4时返回-1
+     */
+    static long ethernetSourceIpv4(byte[] raw) {
+        int offset = 12;
+        if (raw.length < offset + 2) {
+            return -1;
+        }
+        int etherType = ((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF);
+        if (etherType == 0x8100 || etherType == 0x88A8) {
+            offset += 4;
+            if (raw.length < offset + 2) {
+                return -1;
+            }
+            etherType = ((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF);
+        }
+        // IP头中源地址在第12字节
+        int ip = offset + 2 + 12;
+        if (etherType != 0x0800 || raw.length < ip + 4) {
+            return -1;
+        }
+        return ((raw[ip] & 0xFFL) << 24) | ((raw[ip + 1] & 0xFF) << 16) | ((raw[ip + 2] & 0xFF) << 8) | (raw[ip + 3] & 0xFF);
+    }
 
-            for (Packet packet : packetBuffer) {
-                dumper.dump(packet);
+    private void completeSegment(File segmentFile, long segmentPackets) {
+        completedSegments.addLast(segmentFile);
+        System.out.println("Pcap 分段已保存: " + segmentFile.getName() + "，数据包数: " + segmentPackets);
+        // 上传跟不上时删除最旧的分段，限制磁盘占用
+        while (completedSegments.size() > commonConfig.getMaxSegments()) {
+            File oldest = completedSegments.pollFirst();
+            if (oldest == null) {
+                break;
             }
-            packetBuffer.clear();
-            System.out.println("Pcap 文件已保存: " + outputFile);
+            oldest.delete();
+            new File(oldest.getAbsolutePath() + GZIP_SUFFIX).delete();
+            segmentsDropped.incrementAndGet();
+            System.err.println("Pcap 分段超过保留个数，已删除: " + oldest.getName());
+        }
+    }
+
+    private void updateStats(PcapHandle handle) {
+        try {
+            PcapStat stat = handle.getStats();
+            packetsReceived = stat.getNumPacketsReceived();
+            packetsDropped = stat.getNumPacketsDropped();
+            packetsDroppedByIf = stat.getNumPacketsDroppedByIf();
         } catch (PcapNativeException | NotOpenException e) {
-            System.err.println("保存 Pcap 失败: " + e.getMessage());
+            // 部分平台不支持统计，忽略
+        }
+    }
+
+    /**
+     * 结束当前分段，返回所有等待上传的分段文件
+     */
+    public List<String> saveCaptureToFile() {
+        if (capturing) {
+            rotateRequested = true;
+            long deadline = System.currentTimeMillis() + timeout + 1000L;
+            while (rotateRequested && capturing && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        List<String> files = new ArrayList<>();
+        for (File file : completedSegments) {
+            files.add(file.getAbsolutePath());
+        }
+        if (files.isEmpty()) {
+            System.out.println("没有捕获到数据包，无法保存！");
         }
-        return outputFile;
+        System.out.println("Pcap 抓包统计: " + getCaptureStats());
+        return files;
     }
 
-    public void uploadPcapFile(String filePath) {
-        String serverUrl = this.commonConfig.getServerUrl() + "/wgcloud/agent/uploadPcap";
+    /**
+     * 分段上传成功后删除
+     */
+    public void removeSegment(String filePath) {
+        File file = new File(filePath);
+        completedSegments.remove(file);
+        file.delete();
+        new File(filePath + GZIP_SUFFIX).delete();
+    }
+
+    /**
+     * 抓包统计，dropped为内核缓冲区满丢弃的包数，segmentsDropped为上传不及时删除的分段数
+     */
+    public String getCaptureStats() {
+        return "written=" + packetsWritten + ", bytes=" + bytesWritten + ", received=" + packetsReceived
+                + ", dropped=" + packetsDropped + ", droppedByIf=" + packetsDroppedByIf + ", sampledOut=" + packetsSampledOut
+                + ", blacklisted=" + packetsBlacklisted + "(" + commonConfig.getBlacklistMode() + ")"
+                + ", pendingSegments=" + completedSegments.size() + ", segmentsDropped=" + segmentsDropped.get();
+    }
+
+    /**
+     * 压缩后分块上传，每次只读取一块数据到内存；上传中断时下次从服务端已接收的位置继续
+     */
+    public boolean uploadPcapFile(String filePath) {
+        String serverUrl = this.commonConfig.getServerUrl() + "/wgcloud/agent/pcapUpload";
         if (filePath.isEmpty()) {
             System.err.println("文件路径为空，无法上传！");
-            return;
+            return false;
         }
 
         File file = new File(filePath);
         if (!file.exists()) {
             System.err.println("Pcap 文件不存在: " + filePath);
-            return;
+            return false;
         }
 
         // 获取并验证 Token
         String wgToken = commonConfig.getWgToken();
         if (wgToken == null || wgToken.isEmpty()) {
             System.err.println("WgToken 为空，无法上传 Pcap 文件！");
-            return;
+            return false;
         }
         String hashedToken = MD5Utils.GetMD5Code(wgToken);
 
-        // 组装 metadata JSON
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("wgToken", hashedToken);
-        String metadataJson = jsonObject.toString();
-
+        File gzFile = new File(filePath + GZIP_SUFFIX);
         try {
-            // 读取文件内容，使用 ByteArrayResource 避免 Spring 解析错误
-            byte[] fileBytes = java.nio.file.Files.readAllBytes(file.toPath());
-            ByteArrayResource fileResource = new ByteArrayResource(fileBytes) {
-                @Override
-                public String getFilename() {
-                    return file.getName();
-                }
-            };
+            if (!gzFile.exists()) {
+                compress(file, gzFile);
+            }
+            String sha256 = sha256(gzFile);
+            long size = gzFile.length();
+
+            // 开始上传，服务端返回已接收的字节数
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("wgToken", hashedToken);
+            jsonObject.put("hostname", commonConfig.getBindIp());
+            jsonObject.put("fileName", file.getName());
+            jsonObject.put("size", size);
+            jsonObject.put("sha256", sha256);
+            long offset = postJson(serverUrl + "/init", jsonObject).getLong("offset");
 
-            // 构造 Multipart 请求
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            byte[] buf = new byte[Math.max(64 * 1024, commonConfig.getUploadChunkSize())];
+            int failures = 0;
+            try (RandomAccessFile raf = new RandomAccessFile(gzFile, "r")) {
+                while (offset < size) {
+                    int len = (int) Math.min(buf.length, size - offset);
+                    raf.seek(offset);
+                    raf.readFully(buf, 0, len);
+                    byte[] chunk = len == buf.length ? buf : Arrays.copyOf(buf, len);
+                    String chunkUrl = serverUrl + "/chunk?uploadId=" + sha256 + "&offset=" + offset + "&wgToken=" + hashedToken;
+                    long received;
+                    try {
+                        ResponseEntity<String> response = restTemplate.postForEntity(chunkUrl, new HttpEntity<>(chunk, headers), String.class);
+                        received = JSONUtil.parseObj(response.getBody()).getLong("offset");
+                    } catch (ResourceAccessException e) {
+                        // 网络错误，重试当前块
+                        if (++failures > UPLOAD_MAX_RETRIES) {
+                            throw e;
+                        }
+                        continue;
+                    }
+                    // 服务端返回的位置不是本次写入后的位置时，从服务端的位置继续
+                    if (received <= offset && ++failures > UPLOAD_MAX_RETRIES) {
+                        System.err.println("Pcap 分块上传没有进展，稍后重试: " + filePath);
+                        return false;
+                    }
+                    offset = received;
+                }
+            }
 
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", fileResource);
-            body.add("metadata", metadataJson); // 直接传递 JSON 字符串
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            // 确保 RestTemplate 具备 FormHttpMessageConverter
-            RestTemplate restTemplate = new RestTemplate();
-            restTemplate.getMessageConverters().add(new FormHttpMessageConverter());
-
-            // 发送请求
-            ResponseEntity<String> response = restTemplate.postForEntity(serverUrl, requestEntity, String.class);
-
-            // 处理响应
-            if (response.getStatusCode() == HttpStatus.OK) {
-                System.out.println("Pcap 文件上传成功: " + filePath);
+            JSONObject completeJson = new JSONObject();
+            completeJson.put("wgToken", hashedToken);
+            completeJson.put("uploadId", sha256);
+            postJson(serverUrl + "/complete", completeJson);
+            gzFile.delete();
+            System.out.println("Pcap 文件上传成功: " + filePath + "，压缩后大小: " + size);
+            return true;
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                System.err.println("服务端繁忙，Pcap 文件稍后重新上传: " + filePath);
             } else {
-                System.err.println("Pcap 文件上传失败, 响应码: " + response.getStatusCodeValue() + "，响应内容: " + response.getBody());
+                System.err.println("Pcap 文件上传失败, 响应码: " + e.getRawStatusCode() + "，响应内容: " + e.getResponseBodyAsString());
             }
         } catch (IOException e) {
             System.err.println("读取 Pcap 文件失败: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("Pcap 文件上传失败，异常信息: " + e.getMessage());
         }
+        return false;
     }
 
+    private JSONObject postJson(String url, JSONObject jsonObject) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        ResponseEntity<String> response = restTemplate.postForEntity(url, new HttpEntity<>(jsonObject.toString(), headers), String.class);
+        return JSONUtil.parseObj(response.getBody());
+    }
+
+    /**
+     * gzip压缩，先写临时文件再改名，避免中断后留下不完整的压缩文件
+     */
+    private static void compress(File source, File target) throws IOException {
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("重命名压缩文件失败: " + tmp.getAbsolutePath());
+        }
+    }
 
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
 
     public void stopCapture() {
+        // 抓包线程在下一次读超时后退出，并写完当前分段
         capturing = false;
-        if (handle != null && handle.isOpen()) {
-            handle.close();
-        }
         executorService.shutdown();
+        try {
+            executorService.awaitTermination(timeout + 5000L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         System.out.println("Pcap 监听已停止！");
     }
 }
\ No newline at end of file
@@ -46,6 +46,9 @@ public class ScheduledTask {
     @Autowired
     private Pcap4j pcap4j; //通过对Pcap4j进行Spring托管之后，直接完成了实例化，字段注入之后直接调用就行
 
+    @Autowired
+    private IpBlacklist ipBlacklist;
+
 
     /**
      * 线程池
@@ -154,13 +157,79 @@ public class ScheduledTask {
             if (!StringUtils.isEmpty(logInfo.getInfoContent())) {
                 jsonObject.put("logInfo", logInfo);
             }
-            this.pcap4j.uploadPcapFile(this.pcap4j.saveCaptureToFile());
             restUtil.post(commonConfig.getServerUrl() + "/wgcloud/agent/minTask", jsonObject);
         }
 
     }
 
 
+    /**
+     * 60秒后执行，每次上传完成后间隔120秒, 单位：ms。
+     * 上传抓包分段，单独执行，上传慢时不推迟监控数据上报
+     */
+    @Scheduled(initialDelay = 60 * 1000L, fixedDelay = 120 * 1000)
+    public void pcapUploadTask() {
+        try {
+            for (String pcapFile : this.pcap4j.saveCaptureToFile()) {
+                if (this.pcap4j.uploadPcapFile(pcapFile)) {
+                    this.pcap4j.removeSegment(pcapFile);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("上传抓包分段错误", e);
+        }
+    }
+
+
+    /**
+     * 20秒后执行，每隔5分钟执行, 单位：ms。
+     * 获取server下发的抓包配置
+     */
+    @Scheduled(initialDelay = 20 * 1000L, fixedRate = 300 * 1000)
+    public void captureProfileTask() {
+        try {
+            JSONObject paramsJson = new JSONObject();
+            paramsJson.put("hostname", commonConfig.getBindIp());
+            String resultJson = restUtil.post(commonConfig.getServerUrl() + "/wgcloud/agent/captureProfile", paramsJson);
+            if (resultJson != null) {
+                JSONObject result = JSONUtil.parseObj(resultJson);
+                if ("success".equals(result.getStr("result"))) {
+                    pcap4j.applyProfile(new CaptureProfile(result.getStr("bpf"), result.getStr("direction"),
+                            result.getInt("snaplen", commonConfig.getSnapshotLength()), result.getInt("sampleRate", 1)));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("获取抓包配置错误", e);
+        }
+    }
+
+
+    /**
+     * 15秒后执行，默认每隔5秒执行, 单位：ms。
+     * 同步IP黑名单，只获取本地版本号之后的变更
+     */
+    @Scheduled(initialDelay = 15 * 1000L, fixedDelayString = "${base.blacklistSyncMillis:5000}")
+    public void blacklistTask() {
+        if ("off".equalsIgnoreCase(commonConfig.getBlacklistMode())) {
+            return;
+        }
+        try {
+            JSONObject paramsJson = new JSONObject();
+            paramsJson.put("hostname", commonConfig.getBindIp());
+            paramsJson.put("version", ipBlacklist.getVersion());
+            String resultJson = restUtil.post(commonConfig.getServerUrl() + "/wgcloud/agent/blacklist", paramsJson);
+            if (resultJson != null) {
+                JSONObject result = JSONUtil.parseObj(resultJson);
+                if ("success".equals(result.getStr("result")) && ipBlacklist.apply(result)) {
+                    logger.info("IP黑名单已更新，版本号：" + ipBlacklist.getVersion() + "，地址段数：" + ipBlacklist.size());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("同步IP黑名单错误", e);
+        }
+    }
+
+
     /**
      * 30秒后执行，每隔5分钟执行, 单位：ms。
      * 获取监控进程